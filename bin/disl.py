@@ -115,6 +115,11 @@ def client_parser(parser):
     # additional arguments follow
     #############################
 
+    group.add_argument("-c_shm",
+        default=None,
+        metavar="PATH",
+        help="directory for shared memory used to pass classes to a server on the same host")
+
     group.add_argument("-c_out",
         default=None,
         metavar="PATH",
@@ -182,6 +187,16 @@ def server_parser(parser):
         default=False,
         help="applies dynamic bypass")
 
+    group.add_argument("-s_separatecode",
+        action="store_true",
+        default=False,
+        help="keeps instrumented code in separate methods when using bypass")
+
+    group.add_argument("-s_reuseframes",
+        action="store_true",
+        default=False,
+        help="computes stack map frames only for instrumented methods")
+
     group.add_argument("-s_exclusionlist",
         default=None,
         metavar="PATH",
@@ -197,6 +212,21 @@ def server_parser(parser):
         metavar="PATH",
         help="dumps uninstrumented classes into specified directory")
 
+    group.add_argument("-s_cache",
+        default=None,
+        metavar="PATH",
+        help="caches instrumented classes in specified directory")
+
+    group.add_argument("-s_hierarchy",
+        default=None,
+        metavar="PATH",
+        help="keeps class hierarchy for stack map frames in specified file")
+
+    group.add_argument("-s_memcache",
+        default=None,
+        metavar="MB",
+        help="size of in-memory cache of instrumented classes, useful in continuous mode, default=0 (disabled)")
+
     group.add_argument("-s_port",
         default=None,
         metavar="PORT",
@@ -336,6 +366,8 @@ def parse_arguments(parser):
     args.c_opts = flatten_all(args.c_opts)
     args.c_app = flatten_all(args.c_app)
     args.app = flatten_all(args.app)
+    if args.c_shm is not None:
+        args.c_opts+= ["-Ddisl.server.shm="+args.c_shm]
 
     args.s_opts = flatten_all(args.s_opts)
     args.s_args = flatten_all(args.s_args)
@@ -349,12 +381,22 @@ def parse_arguments(parser):
         args.s_opts+= ["-Ddisl.insertdelimitation=true"]
     if args.s_enabledynamicbypass is False:
         args.s_opts+= ["-Ddislserver.disablebypass=true"]
+    if args.s_separatecode is True:
+        args.s_opts+= ["-Ddisl.separatecode=true"]
+    if args.s_reuseframes is True:
+        args.s_opts+= ["-Ddisl.reuseframes=true"]
     if args.s_exclusionlist is not None:
         args.s_opts+= ["-Ddisl.exclusionList="+args.s_exclusionlist]
     if args.s_instrumented is not None:
         args.s_opts+= ["-Ddislserver.instrumented="+args.s_instrumented]
     if args.s_uninstrumented is not None:
         args.s_opts+= ["-Ddislserver.uninstrumented="+args.s_uninstrumented]
+    if args.s_cache is not None:
+        args.s_opts+= ["-Ddislserver.cache="+args.s_cache]
+    if args.s_hierarchy is not None:
+        args.s_opts+= ["-Ddislserver.hierarchy="+args.s_hierarchy]
+    if args.s_memcache is not None:
+        args.s_opts+= ["-Ddislserver.memcache="+args.s_memcache]
 
     args.e_opts = flatten_all(args.e_opts)
     args.e_args = flatten_all(args.e_args)
@@ -17,6 +17,10 @@ extern "C" {
 #define ch_usi_dag_disl_DiSL_CodeOption_Flag_CATCH_EXCEPTIONS 8L
 #undef ch_usi_dag_disl_DiSL_CodeOption_Flag_INSERT_DELIMITATION
 #define ch_usi_dag_disl_DiSL_CodeOption_Flag_INSERT_DELIMITATION 16L
+#undef ch_usi_dag_disl_DiSL_CodeOption_Flag_SEPARATE_CODE
+#define ch_usi_dag_disl_DiSL_CodeOption_Flag_SEPARATE_CODE 32L
+#undef ch_usi_dag_disl_DiSL_CodeOption_Flag_REUSE_FRAMES
+#define ch_usi_dag_disl_DiSL_CodeOption_Flag_REUSE_FRAMES 64L
 #ifdef __cplusplus
 }
 #endif
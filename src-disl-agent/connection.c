@@ -29,6 +29,14 @@ __connection_init (struct connection * connection, const int sockfd) {
 	connection->sockfd = sockfd;
 	list_init (&connection->cp_link);
 
+	mutex_init (&connection->send_mutex);
+	mutex_init (&connection->state_mutex);
+	cond_init (&connection->state_cond);
+	connection->receiving = false;
+	connection->last_request_id = 0;
+	list_init (&connection->pending_requests);
+	connection->shm = NULL;
+
 #ifdef DEBUG
 	connection->sent_bytes = 0;
 	connection->recv_bytes = 0;
@@ -84,6 +92,14 @@ connection_close (struct connection * connection) {
 	);
 
 	close (connection->sockfd);
+
+	if (connection->shm != NULL) {
+		shmem_destroy (connection->shm);
+	}
+
+	cond_destroy (&connection->state_cond);
+	mutex_destroy (&connection->state_mutex);
+	mutex_destroy (&connection->send_mutex);
 	free (connection);
 }
 
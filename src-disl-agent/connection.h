@@ -13,6 +13,8 @@
 #include <sys/types.h>
 
 #include "list.h"
+#include "shmem.h"
+#include "threads.h"
 
 struct connection {
 	/** File descriptor of the connection socket. */
@@ -21,6 +23,27 @@ struct connection {
 	/** Link in the connection pool list. */
 	struct list cp_link;
 
+	/** Serializes sending of messages by multiple threads. */
+	mutex_t send_mutex;
+
+	/** Protects the request multiplexing state below. */
+	mutex_t state_mutex;
+
+	/** Signals that a response has been received. */
+	cond_t state_cond;
+
+	/** Indicates whether a thread is receiving a response. */
+	bool receiving;
+
+	/** Identifier of the last request sent over the connection. */
+	int32_t last_request_id;
+
+	/** Requests waiting for a response. */
+	struct list pending_requests;
+
+	/** Shared memory attached to the connection, may be NULL. */
+	struct shared_memory * shm;
+
 #ifdef DEBUG
 	/** Number of bytes sent over the connection. */
 	uint64_t sent_bytes;
@@ -27,6 +27,9 @@
 #define DISL_SERVER_PORT "disl.server.port"
 #define DISL_SERVER_PORT_DEFAULT "11217"
 
+#define DISL_SERVER_SHM "disl.server.shm"
+#define DISL_SERVER_SHM_DEFAULT NULL
+
 #define DISL_BYPASS "disl.bypass"
 #define DISL_BYPASS_DEFAULT "dynamic"
 
@@ -82,6 +85,7 @@ enum code_flags {
 struct config {
 	char * server_host;
 	char * server_port;
+	char * server_shm;
 
 	enum bypass_mode bypass_mode;
 	bool split_methods;
@@ -161,9 +165,11 @@ __instrument_class (
 	//
 	// Put the class data into a request message, acquire a connection and
 	// send the it to the server. Receive the response and release the
-	// connection again.
+	// connection again. Other threads may use the connection at the same
+	// time, the request identifier is filled in by message_exchange().
 	//
 	struct message request = {
+		.request_id = 0,
 		.message_flags = request_flags,
 		.control_size = (class_name != NULL) ? strlen (class_name) : 0,
 		.classcode_size = class_def->class_byte_count,
@@ -174,10 +180,9 @@ __instrument_class (
 	//
 
 	struct connection * conn = network_acquire_connection ();
-	message_send (conn, &request);
 
 	struct message response;
-	message_recv (conn, &response);
+	message_exchange (conn, &request, &response);
 	network_release_connection (conn);
 
 	//
@@ -336,6 +341,14 @@ __configure_from_properties (jvmtiEnv * jvmti, struct config * config) {
 
 	rdprintf ("bypass mode: %s\n", values [bypass_index]);
 
+	//
+	// Get the directory for shared memory, if any. The shared memory can
+	// be only used when the server is running on the same host.
+	//
+	config->server_shm = jvmti_get_system_property_string (
+		jvmti, DISL_SERVER_SHM, DISL_SERVER_SHM_DEFAULT
+	);
+
 	//
 	// Get boolean values from system properties
 	//
@@ -439,7 +452,10 @@ Agent_OnLoad (JavaVM * jvm, char * options, void * reserved) {
 	__configure_from_properties (jvmti, &agent_config);
 
 	agent_code_flags = __calc_code_flags (&agent_config, true);
-	network_init (agent_config.server_host, agent_config.server_port);
+	network_init (
+		agent_config.server_host, agent_config.server_port,
+		agent_config.server_shm
+	);
 
 
 	// register callbacks
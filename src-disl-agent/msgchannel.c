@@ -9,6 +9,9 @@
 #include <jni.h>
 
 #include "common.h"
+#include "list.h"
+#include "shmem.h"
+#include "threads.h"
 #include "msgchannel.h"
 #include "connection.h"
 
@@ -68,13 +71,14 @@ message_send (struct connection * conn, struct message * msg) {
 	assert (msg != NULL);
 
 	dlprintf (
-		"sending message: flags %08x, control %d, code %d ... ",
-		msg->message_flags, msg->control_size, msg->classcode_size
+		"sending message: id %d, flags %08x, control %d, code %d ... ",
+		msg->request_id, msg->message_flags, msg->control_size, msg->classcode_size
 	);
 
 	//
 
 	jint ints [] = {
+		htonl (msg->request_id),
 		htonl (msg->message_flags),
 		htonl (msg->control_size),
 		htonl (msg->classcode_size)
@@ -122,20 +126,21 @@ message_recv (struct connection * conn, struct message * msg) {
 	dlprintf ("receiving message: ");
 
 	//
-	// First, receive the flags, the control and class code sizes.
-	// Second, receive the control and class code data.
+	// First, receive the request id, the flags, the control and class code
+	// sizes. Second, receive the control and class code data.
 	// The ordering of receive calls is determined by the protocol.
 	//
-	jint ints [3];
+	jint ints [4];
 	connection_recv (conn, &ints [0], sizeof (ints));
-	jint response_flags = ntohl (ints [0]);
+	jint request_id = ntohl (ints [0]);
+	jint response_flags = ntohl (ints [1]);
 
 	//
 
-	jint control_size = ntohl (ints [1]);
+	jint control_size = ntohl (ints [2]);
 	uint8_t * control = __alloc_buffer (control_size);
 
-	jint classcode_size = ntohl (ints [2]);
+	jint classcode_size = ntohl (ints [3]);
 	uint8_t * classcode = __alloc_buffer (classcode_size);
 
 	__recv (conn, control, control_size, classcode, classcode_size);
@@ -143,6 +148,7 @@ message_recv (struct connection * conn, struct message * msg) {
 	//
 	// Update message fields only after the whole message was read.
 	//
+	msg->request_id = request_id;
 	msg->message_flags = response_flags;
 	msg->control_size = control_size;
 	msg->classcode_size = classcode_size;
@@ -152,7 +158,248 @@ message_recv (struct connection * conn, struct message * msg) {
 	//
 
 	dprintf (
-		"flags %08x, control %d, code %d ... done\n",
-		response_flags, control_size, classcode_size
+		"id %d, flags %08x, control %d, code %d ... done\n",
+		request_id, response_flags, control_size, classcode_size
 	);
 }
+
+//
+
+/**
+ * A request waiting for a response from the server.
+ */
+struct pending_request {
+	/** Identifier of the request. */
+	jint request_id;
+
+	/** Indicates whether the response has been received. */
+	bool completed;
+
+	/** The response to the request. */
+	struct message * response;
+
+	/** Link in the list of pending requests of a connection. */
+	struct list link;
+};
+
+
+static int
+__pending_request_matches (struct list * item, void * data) {
+	struct pending_request * pending = list_item (item, struct pending_request, link);
+	return pending->request_id == * (jint *) data;
+}
+
+
+/**
+ * Passes a received response to the pending request it belongs to.
+ * Must be called with the connection state mutex held.
+ */
+static void
+__complete_request (struct connection * conn, struct message * response) {
+	struct list * item = list_find (
+		&conn->pending_requests, __pending_request_matches,
+		(void *) &response->request_id
+	);
+
+	check_error (item == NULL, "received response to unknown request");
+
+	struct pending_request * pending = list_item (
+		list_remove (item), struct pending_request, link
+	);
+
+	* pending->response = * response;
+	pending->completed = true;
+}
+
+
+static void __load_slot_data (struct shared_memory * shm, int slot, struct message * response);
+
+
+/**
+ * Sends a request to the remote instrumentation server and receives the
+ * corresponding response. Multiple threads may exchange messages over the
+ * same connection at the same time. The server may process their requests
+ * concurrently and send the responses in any order.
+ *
+ * Each request gets a unique identifier, which the server includes in the
+ * response. Only one thread at a time receives responses from the socket,
+ * and hands each response to the thread waiting for it. When a thread gets
+ * its response, another waiting thread takes over receiving.
+ *
+ * If shared memory is attached to the connection and there is a free slot
+ * large enough, the class code is passed through the slot, and only a slot
+ * descriptor is sent through the socket. The server may put the class code
+ * of the response into the same slot.
+ */
+void
+message_exchange (
+	struct connection * conn, struct message * request, struct message * response
+) {
+	assert (conn != NULL);
+	assert (request != NULL);
+	assert (response != NULL);
+
+	//
+	// Register the request before sending it, so that the response can be
+	// matched to it even if another thread receives it.
+	//
+	struct pending_request pending = {
+		.completed = false,
+		.response = response,
+	};
+
+	int slot = -1;
+	mutex_lock (&conn->state_mutex);
+	{
+		pending.request_id = ++conn->last_request_id;
+		list_insert_after (&pending.link, &conn->pending_requests);
+
+		if (conn->shm != NULL) {
+			slot = shmem_acquire_slot (conn->shm, request->classcode_size);
+		}
+	}
+	mutex_unlock (&conn->state_mutex);
+
+	request->request_id = pending.request_id;
+
+	//
+	// If we got a slot, put the class code into the slot and send
+	// the slot descriptor instead.
+	//
+	struct message wire_request = * request;
+	jint descriptor [2];
+
+	if (slot >= 0) {
+		memcpy (
+			shmem_slot_base (conn->shm, slot),
+			request->classcode, request->classcode_size
+		);
+
+		descriptor [0] = htonl (slot);
+		descriptor [1] = htonl (request->classcode_size);
+
+		wire_request.message_flags |= MESSAGE_FLAG_SHM_PAYLOAD;
+		wire_request.classcode = (const uint8_t *) &descriptor [0];
+		wire_request.classcode_size = sizeof (descriptor);
+	}
+
+	mutex_lock (&conn->send_mutex);
+	{
+		message_send (conn, &wire_request);
+	}
+	mutex_unlock (&conn->send_mutex);
+
+	//
+	// Wait for the response. If no other thread is receiving responses,
+	// receive responses until our own response arrives.
+	//
+	mutex_lock (&conn->state_mutex);
+	{
+		while (!pending.completed) {
+			if (conn->receiving) {
+				cond_wait (&conn->state_cond, &conn->state_mutex);
+				continue;
+			}
+
+			conn->receiving = true;
+			mutex_unlock (&conn->state_mutex);
+
+			struct message received;
+			message_recv (conn, &received);
+
+			mutex_lock (&conn->state_mutex);
+			conn->receiving = false;
+
+			__complete_request (conn, &received);
+			cond_broadcast (&conn->state_cond);
+		}
+	}
+	mutex_unlock (&conn->state_mutex);
+
+	//
+	// If the response class code is in the slot, copy it out of the slot.
+	// Release the slot afterwards. An error response has all flags set,
+	// and its class code holds the error message, not a slot descriptor.
+	//
+	if (slot >= 0) {
+		bool is_error = (response->message_flags == -1);
+		if (!is_error && (response->message_flags & MESSAGE_FLAG_SHM_PAYLOAD) != 0) {
+			__load_slot_data (conn->shm, slot, response);
+		}
+
+		mutex_lock (&conn->state_mutex);
+		{
+			shmem_release_slot (conn->shm, slot);
+		}
+		mutex_unlock (&conn->state_mutex);
+	}
+}
+
+
+/**
+ * Replaces the slot descriptor in the class code of the given response
+ * with a copy of the data in the slot.
+ */
+static void
+__load_slot_data (struct shared_memory * shm, int slot, struct message * response) {
+	check_error (
+		response->classcode_size != 2 * sizeof (jint),
+		"malformed shared memory descriptor in response"
+	);
+
+	const jint * descriptor = (const jint *) response->classcode;
+	jint response_slot = ntohl (descriptor [0]);
+	jint classcode_size = ntohl (descriptor [1]);
+
+	check_error (
+		response_slot != slot || classcode_size < 0 || classcode_size > shm->slot_size,
+		"invalid shared memory descriptor in response"
+	);
+
+	uint8_t * classcode = __alloc_buffer (classcode_size);
+	memcpy (classcode, shmem_slot_base (shm, slot), classcode_size);
+
+	free ((void *) response->classcode);
+
+	response->message_flags &= ~MESSAGE_FLAG_SHM_PAYLOAD;
+	response->classcode = classcode;
+	response->classcode_size = classcode_size;
+}
+
+
+/**
+ * Asks the server to attach the given shared memory to the connection.
+ * Returns true if the server has attached the shared memory. Otherwise,
+ * the connection continues to use only the socket.
+ */
+bool
+message_attach_shmem (struct connection * conn, struct shared_memory * shm) {
+	assert (conn != NULL);
+	assert (shm != NULL);
+	assert (conn->shm == NULL);
+
+	struct message request = {
+		.request_id = 0,
+		.message_flags = MESSAGE_FLAG_SHM_ATTACH,
+		.control_size = strlen (shm->path),
+		.classcode_size = 0,
+		.control = (const uint8_t *) shm->path,
+		.classcode = NULL,
+	};
+
+	struct message response;
+	message_exchange (conn, &request, &response);
+
+	bool attached = (response.control_size == 0) &&
+		(response.message_flags != -1) &&
+		(response.message_flags & MESSAGE_FLAG_SHM_ATTACH) != 0;
+
+	free ((void *) response.control);
+	free ((void *) response.classcode);
+
+	if (attached) {
+		conn->shm = shm;
+	}
+
+	return attached;
+}
@@ -6,7 +6,23 @@
 #include "connection.h"
 
 
+/**
+ * Request flag indicating that the control part of the message contains
+ * the path to a shared memory region to attach to the connection.
+ * Must match the value in the DiSL server.
+ */
+#define MESSAGE_FLAG_SHM_ATTACH (1 << 29)
+
+/**
+ * Request and response flag indicating that the class code of the message
+ * is a descriptor of a shared memory slot holding the actual class code.
+ * Must match the value in the DiSL server.
+ */
+#define MESSAGE_FLAG_SHM_PAYLOAD (1 << 30)
+
+
 struct message {
+	jint request_id;
 	jint message_flags;
 	jint control_size;
 	jint classcode_size;
@@ -17,5 +33,7 @@ struct message {
 
 ssize_t message_send (struct connection * conn, struct message * msg);
 void message_recv (struct connection * conn, struct message * msg);
+void message_exchange (struct connection * conn, struct message * request, struct message * response);
+bool message_attach_shmem (struct connection * conn, struct shared_memory * shm);
 
 #endif /* _MSGCHANNEL_H_ */
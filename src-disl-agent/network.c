@@ -25,6 +25,7 @@
 #include "connpool.h"
 #include "connection.h"
 #include "msgchannel.h"
+#include "shmem.h"
 
 
 /**
@@ -37,12 +38,46 @@ static struct addrinfo * disl_addrinfo;
  */
 static struct connection_pool disl_connections;
 
+/**
+ * Connection to DiSL server shared by all threads. The requests sent
+ * by multiple threads are multiplexed on this connection.
+ */
+static struct connection * disl_connection;
+
+/**
+ * Directory for shared memory used to pass class bytes to the DiSL server.
+ * NULL if shared memory should not be used.
+ */
+static const char * disl_shm_directory;
+
 /**
  * Mutex to protect the manipulation with the connection pool.
  */
 static mutex_t disl_connections_mutex;
 
 
+static void
+__connection_open_hook (struct connection * conn) {
+	//
+	// Create a shared memory region and ask the server to attach it to the
+	// connection. The file backing the region is not needed once both sides
+	// have mapped it. If anything fails, just keep using the socket.
+	//
+	struct shared_memory * shm = shmem_create (disl_shm_directory);
+	if (shm == NULL) {
+		return;
+	}
+
+	bool attached = message_attach_shmem (conn, shm);
+	shmem_unlink (shm);
+
+	if (!attached) {
+		warn ("DiSL server refused shared memory, using socket only\n");
+		shmem_destroy (shm);
+	}
+}
+
+
 static void
 __connection_close_hook (struct connection * conn) {
 	//
@@ -50,6 +85,7 @@ __connection_close_hook (struct connection * conn) {
 	// to indicate end of processing for that connection.
 	//
 	struct message shutdown = {
+		.request_id = 0,
 		.message_flags = 0,
 		.control_size = 0, .classcode_size = 0,
 		.control = NULL, .classcode = NULL
@@ -61,10 +97,15 @@ __connection_close_hook (struct connection * conn) {
 
 /**
  * Initializes the address info, the pool of connections to the remote
- * instrumentation server, and a mutex guarding the pool.
+ * instrumentation server, and a mutex guarding the pool. If a directory
+ * for shared memory is given, each connection will try to pass class
+ * bytes through shared memory backed by a file in that directory.
  */
 void
-network_init (const char * host_name, const char * port_number) {
+network_init (
+	const char * host_name, const char * port_number,
+	const char * shm_directory
+) {
 	assert (host_name != NULL);
 	assert (port_number != NULL);
 
@@ -83,6 +124,11 @@ network_init (const char * host_name, const char * port_number) {
 
 	connection_pool_init (&disl_connections, disl_addrinfo);
 	connection_pool_set_before_close_hook (&disl_connections, __connection_close_hook);
+
+	if (shm_directory != NULL) {
+		disl_shm_directory = shm_directory;
+		connection_pool_set_after_open_hook (&disl_connections, __connection_open_hook);
+	}
 }
 
 
@@ -99,6 +145,11 @@ network_fini () {
 	//
 	mutex_lock (&disl_connections_mutex);
 	{
+		if (disl_connection != NULL) {
+			connection_pool_put_connection (&disl_connections, disl_connection);
+			disl_connection = NULL;
+		}
+
 		connection_pool_close (&disl_connections);
 	}
 	mutex_unlock (&disl_connections_mutex);
@@ -110,6 +161,12 @@ network_fini () {
 }
 
 
+/**
+ * Returns the connection to the server shared by all threads. The connection
+ * is opened when first needed. Requests should be sent over the connection
+ * using message_exchange(), which allows multiple threads to use the
+ * connection at the same time.
+ */
 struct connection *
 network_acquire_connection () {
 	dlprintf ("acquiring connection ... ");
@@ -121,7 +178,11 @@ network_acquire_connection () {
 	struct connection * connection;
 	mutex_lock (&disl_connections_mutex);
 	{
-		connection = connection_pool_get_connection (&disl_connections);
+		if (disl_connection == NULL) {
+			disl_connection = connection_pool_get_connection (&disl_connections);
+		}
+
+		connection = disl_connection;
 	}
 	mutex_unlock (&disl_connections_mutex);
 
@@ -133,24 +194,13 @@ network_acquire_connection () {
 
 
 /**
- * Returns the connection to the pool of available connections.
+ * Releases the connection obtained from network_acquire_connection(). The
+ * shared connection remains open until network_fini() is called.
  */
 void
 network_release_connection (struct connection * connection) {
 	assert (connection != NULL);
-	dlprintf ("releasing connection ... ");
-
-	//
-	// The connection pool must be protected by a lock so that multiple threads
-	// releasing a connection do not corrupt the internal state of the pool.
-	//
-	mutex_lock (&disl_connections_mutex);
-	{
-		connection_pool_put_connection (&disl_connections, connection);
-	}
-	mutex_unlock (&disl_connections_mutex);
-
-	//
+	assert (connection == disl_connection);
 
-	dprintf ("done\n");
+	dlprintf ("releasing connection ... done\n");
 }
@@ -4,7 +4,7 @@
 #include "connection.h"
 
 
-void network_init (const char * host_name, const char * port_number);
+void network_init (const char * host_name, const char * port_number, const char * shm_directory);
 void network_fini ();
 
 struct connection * network_acquire_connection ();
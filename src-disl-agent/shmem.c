@@ -0,0 +1,200 @@
+#define _POSIX_C_SOURCE 200908L
+
+#include <assert.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+
+#ifndef MINGW
+#include <sys/mman.h>
+#endif
+
+#include "common.h"
+#include "shmem.h"
+
+
+/**
+ * Magic number identifying the shared memory region.
+ * Must match the value in the DiSL server.
+ */
+#define SHMEM_MAGIC 0xD15C5E11
+
+/**
+ * Number of slots in the shared memory region. Limited by the
+ * number of bits in the mask of slots in use.
+ */
+#define SHMEM_SLOT_COUNT 32
+
+/**
+ * Size of a single slot. Classes that do not fit into a slot
+ * are sent through the socket.
+ */
+#define SHMEM_SLOT_SIZE (1024 * 1024)
+
+
+#ifndef MINGW
+
+/**
+ * Creates a shared memory region backed by a new file in the given
+ * directory. Returns NULL if the region could not be created.
+ */
+struct shared_memory *
+shmem_create (const char * directory) {
+	assert (directory != NULL);
+
+	//
+	// Create a unique file and extend it to the size of the region. The
+	// file is sparse, so only the pages actually used take up memory.
+	// Map the file and initialize the header of the region.
+	//
+	static const char template [] = "/disl-shm-XXXXXX";
+	char * path = malloc (strlen (directory) + sizeof (template));
+	check_error (path == NULL, "failed to allocate shared memory path");
+	strcpy (path, directory);
+	strcat (path, template);
+
+	int fd = mkstemp (path);
+	if (fd < 0) {
+		warn ("failed to create shared memory file %s\n", path);
+		free (path);
+		return NULL;
+	}
+
+	size_t size = (SHMEM_SLOT_COUNT + 1) * (size_t) SHMEM_SLOT_SIZE;
+	void * base = MAP_FAILED;
+	if (ftruncate (fd, size) == 0) {
+		base = mmap (NULL, size, PROT_READ | PROT_WRITE, MAP_SHARED, fd, 0);
+	}
+
+	close (fd);
+
+	if (base == MAP_FAILED) {
+		warn ("failed to map shared memory file %s\n", path);
+		unlink (path);
+		free (path);
+		return NULL;
+	}
+
+	int32_t * header = (int32_t *) base;
+	header [0] = (int32_t) SHMEM_MAGIC;
+	header [1] = SHMEM_SLOT_COUNT;
+	header [2] = SHMEM_SLOT_SIZE;
+
+	//
+
+	struct shared_memory * shm = malloc (sizeof (struct shared_memory));
+	check_error (shm == NULL, "failed to allocate shared memory structure");
+
+	shm->path = path;
+	shm->base = (uint8_t *) base;
+	shm->size = size;
+	shm->slot_count = SHMEM_SLOT_COUNT;
+	shm->slot_size = SHMEM_SLOT_SIZE;
+	shm->used_slots = 0;
+
+	dlprintf ("created shared memory %s, %zu bytes\n", path, size);
+	return shm;
+}
+
+
+/**
+ * Removes the file backing the shared memory region. The region
+ * remains mapped by all the processes that have mapped it.
+ */
+void
+shmem_unlink (struct shared_memory * shm) {
+	assert (shm != NULL);
+
+	if (shm->path != NULL) {
+		unlink (shm->path);
+		free (shm->path);
+		shm->path = NULL;
+	}
+}
+
+
+/**
+ * Unmaps the shared memory region and destroys the structure.
+ */
+void
+shmem_destroy (struct shared_memory * shm) {
+	assert (shm != NULL);
+
+	shmem_unlink (shm);
+	munmap (shm->base, shm->size);
+	free (shm);
+}
+
+#else /* MINGW */
+
+struct shared_memory *
+shmem_create (const char * directory) {
+	warn ("shared memory transport is not supported on this platform\n");
+	return NULL;
+}
+
+
+void
+shmem_unlink (struct shared_memory * shm) {
+	// not supported
+}
+
+
+void
+shmem_destroy (struct shared_memory * shm) {
+	// not supported
+}
+
+#endif /* MINGW */
+
+
+/**
+ * Acquires a free slot able to hold data of the given length. Returns
+ * the slot index, or -1 if there is no such slot. This operation is
+ * thread-unsafe.
+ */
+int
+shmem_acquire_slot (struct shared_memory * shm, size_t length) {
+	assert (shm != NULL);
+
+	if (length > (size_t) shm->slot_size) {
+		return -1;
+	}
+
+	for (int slot = 0; slot < shm->slot_count; slot++) {
+		uint32_t mask = UINT32_C (1) << slot;
+		if ((shm->used_slots & mask) == 0) {
+			shm->used_slots |= mask;
+			return slot;
+		}
+	}
+
+	return -1;
+}
+
+
+/**
+ * Releases a slot acquired by shmem_acquire_slot().
+ * This operation is thread-unsafe.
+ */
+void
+shmem_release_slot (struct shared_memory * shm, int slot) {
+	assert (shm != NULL);
+	assert (slot >= 0 && slot < shm->slot_count);
+
+	shm->used_slots &= ~(UINT32_C (1) << slot);
+}
+
+
+/**
+ * Returns the address of the given slot.
+ */
+uint8_t *
+shmem_slot_base (struct shared_memory * shm, int slot) {
+	assert (shm != NULL);
+	assert (slot >= 0 && slot < shm->slot_count);
+
+	// the header takes up the space of one slot
+	return shm->base + (slot + 1) * (size_t) shm->slot_size;
+}
@@ -0,0 +1,44 @@
+#ifndef _SHMEM_H_
+#define _SHMEM_H_
+
+#include <stdbool.h>
+#include <stddef.h>
+#include <stdint.h>
+
+
+/**
+ * Shared memory region used to pass class bytes to a DiSL server running
+ * on the same host. The region is backed by a memory-mapped file and is
+ * divided into fixed-size slots. The region starts with a header, which
+ * takes up the space of one slot.
+ */
+struct shared_memory {
+	/** Path to the file backing the region, NULL once unlinked. */
+	char * path;
+
+	/** Base address of the mapped region. */
+	uint8_t * base;
+
+	/** Size of the mapped region. */
+	size_t size;
+
+	/** Number of slots in the region. */
+	int32_t slot_count;
+
+	/** Size of a single slot. */
+	int32_t slot_size;
+
+	/** Bit mask of slots currently in use. */
+	uint32_t used_slots;
+};
+
+
+struct shared_memory * shmem_create (const char * directory);
+void shmem_unlink (struct shared_memory * shm);
+void shmem_destroy (struct shared_memory * shm);
+
+int shmem_acquire_slot (struct shared_memory * shm, size_t length);
+void shmem_release_slot (struct shared_memory * shm, int slot);
+uint8_t * shmem_slot_base (struct shared_memory * shm, int slot);
+
+#endif /* _SHMEM_H_ */
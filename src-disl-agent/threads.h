@@ -10,7 +10,8 @@
 #include <windows.h>
 
 #define thread_t HANDLE
-#define mutex_t HANDLE
+#define mutex_t CRITICAL_SECTION
+#define cond_t CONDITION_VARIABLE
 
 //
 
@@ -23,29 +24,51 @@ thread_create (thread_t * thread, void * (* thread_fn) (void *), void * data) {
 
 static inline void
 mutex_init (mutex_t * mutex) {
-	*mutex = CreateMutex (NULL, FALSE, NULL);
-	check_win_error (*mutex == NULL, "failed to create mutex");
+	InitializeCriticalSection (mutex);
 }
 
 
 static inline void
 mutex_lock (mutex_t * mutex) {
-	DWORD result = WaitForSingleObject (*mutex, INFINITE);
-	check_win_error (result != WAIT_OBJECT_0, "failed to lock mutex");
+	EnterCriticalSection (mutex);
 }
 
 
 static inline void
 mutex_unlock (mutex_t * mutex) {
-	BOOL released = ReleaseMutex (*mutex);
-	check_win_error (!released, "failed to release mutex");
+	LeaveCriticalSection (mutex);
 }
 
 
 static inline void
 mutex_destroy (mutex_t * mutex) {
-	BOOL closed = CloseHandle (*mutex);
-	check_win_error (!closed, "failed to destroy mutex");
+	DeleteCriticalSection (mutex);
+}
+
+//
+
+static inline void
+cond_init (cond_t * cond) {
+	InitializeConditionVariable (cond);
+}
+
+
+static inline void
+cond_wait (cond_t * cond, mutex_t * mutex) {
+	BOOL woken = SleepConditionVariableCS (cond, mutex, INFINITE);
+	check_win_error (!woken, "failed to wait on condition variable");
+}
+
+
+static inline void
+cond_broadcast (cond_t * cond) {
+	WakeAllConditionVariable (cond);
+}
+
+
+static inline void
+cond_destroy (cond_t * cond) {
+	// nothing to destroy
 }
 
 
@@ -55,6 +78,7 @@ mutex_destroy (mutex_t * mutex) {
 
 #define thread_t pthread_t
 #define mutex_t pthread_mutex_t
+#define cond_t pthread_cond_t
 
 //
 
@@ -100,6 +124,35 @@ mutex_destroy (mutex_t * mutex) {
 	check_std_error (result != 0, "failed to destroy mutex");
 }
 
+//
+
+static inline void
+cond_init (cond_t * cond) {
+	int result = pthread_cond_init (cond, NULL);
+	check_std_error (result != 0, "failed to initialize condition variable");
+}
+
+
+static inline void
+cond_wait (cond_t * cond, mutex_t * mutex) {
+	int result = pthread_cond_wait (cond, mutex);
+	check_std_error (result != 0, "failed to wait on condition variable");
+}
+
+
+static inline void
+cond_broadcast (cond_t * cond) {
+	int result = pthread_cond_broadcast (cond);
+	check_std_error (result != 0, "failed to signal condition variable");
+}
+
+
+static inline void
+cond_destroy (cond_t * cond) {
+	int result = pthread_cond_destroy (cond);
+	check_std_error (result != 0, "failed to destroy condition variable");
+}
+
 #endif /* !MINGW */
 
 #endif /* _THREADS_H_ */
@@ -1,15 +1,21 @@
 package ch.usi.dag.disl;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
-import java.util.function.IntConsumer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.CodeSizeEvaluator;
+import org.objectweb.asm.tree.AnnotationNode;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.JumpInsnNode;
 import org.objectweb.asm.tree.LabelNode;
 import org.objectweb.asm.tree.MethodInsnNode;
@@ -19,6 +25,7 @@ import org.objectweb.asm.tree.TryCatchBlockNode;
 import ch.usi.dag.disl.dynamicbypass.BypassCheck;
 import ch.usi.dag.disl.exception.DiSLFatalException;
 import ch.usi.dag.disl.util.AsmHelper;
+import ch.usi.dag.disl.util.ClassHierarchy;
 
 
 abstract class CodeMerger {
@@ -31,6 +38,12 @@ abstract class CodeMerger {
 
     private static final int ALLOWED_SIZE = 64 * 1024; // 64KB limit
 
+    private static final String INST_METHOD_SUFFIX = "$disl$instrumented";
+
+    private static final String OBJECT_CLASS_NAME = Type.getInternalName (Object.class);
+
+    private static final String CALLER_SENSITIVE_SUFFIX = "/CallerSensitive;";
+
 
     // NOTE: the instCN ClassNode will be modified in the process
     // NOTE: abstract/native methods should not be included in changedMethods list
@@ -63,6 +76,178 @@ abstract class CodeMerger {
     }
 
 
+    /**
+     * Creates bypass code that keeps the original method code in place and
+     * moves the instrumented code into a separate private synthetic method.
+     * The original method only starts with a dispatch to the instrumented
+     * method, so the size of the methods does not double as with
+     * {@link #mergeOriginalCode(Set, ClassNode, ClassNode)}, which helps to
+     * keep the original methods within the inlining limits of the JIT
+     * compiler.
+     * <p>
+     * Constructors, class initializers, methods of interfaces and of the
+     * {@link Object} class, and caller sensitive methods cannot be moved to another method, therefore their
+     * code is merged in the same way as by
+     * {@link #mergeOriginalCode(Set, ClassNode, ClassNode)}. The same applies
+     * to methods for which the instrumented code would be too long.
+     */
+    // NOTE: the instCN ClassNode will be modified in the process
+    // NOTE: abstract/native methods should not be included in changedMethods list
+    public static void separateInstrumentedCode (
+        final Set <String> changedMethods, final ClassNode origCN,
+        final ClassNode instCN
+    ) {
+        if (changedMethods == null) {
+            throw new DiSLFatalException ("Set of changed methods cannot be null");
+        }
+
+        //
+        // The JVM does not allow adding methods to java.lang.Object, and
+        // interfaces cannot have private methods in older class versions.
+        //
+        final boolean separableClass = (instCN.access & Opcodes.ACC_INTERFACE) == 0
+            && !OBJECT_CLASS_NAME.equals (instCN.name);
+
+        //
+        // Replace each instrumented method with a copy of the original method
+        // dispatching to the instrumented code, and collect the instrumented
+        // methods to be added to the class. The original method code is kept
+        // intact for the case where the resulting method is too long.
+        //
+        final List <MethodNode> instMethods = IntStream.range (
+            0, instCN.methods.size ()
+        ).parallel ().unordered ()
+            .filter (i -> {
+                final MethodNode instMN = instCN.methods.get (i);
+                return changedMethods.contains (instMN.name + instMN.desc);
+            })
+            .mapToObj (i -> __separateInstrumentedCode (
+                i, separableClass, instCN, origCN
+            ))
+            .filter (Objects::nonNull)
+            .collect (Collectors.toList ());
+
+        instCN.methods.addAll (instMethods);
+    }
+
+
+    /**
+     * Separates the instrumented code of the method at the given index into
+     * a new method, or merges the code if the method cannot be separated.
+     *
+     * @return The new method with the instrumented code, or {@code null} if
+     *         the original code was merged with the instrumented code.
+     */
+    private static MethodNode __separateInstrumentedCode (
+        final int instIndex, final boolean separableClass,
+        final ClassNode instCN, final ClassNode origCN
+    ) {
+        final MethodNode instMN = instCN.methods.get (instIndex);
+        final MethodNode cloneMN = AsmHelper.cloneMethod (
+            __findMethodNode (origCN, instMN.name, instMN.desc)
+        );
+
+        final String instName = instMN.name + INST_METHOD_SUFFIX;
+        if (!separableClass || !__isSeparable (instMN)
+            || __methodSize (instMN) > ALLOWED_SIZE
+            || __hasMethod (origCN, instName, instMN.desc)
+        ) {
+            __createBypassCheck (
+                instMN.instructions, instMN.tryCatchBlocks,
+                cloneMN.instructions, cloneMN.tryCatchBlocks
+            );
+
+            return null;
+        }
+
+        __createDispatch (instCN.name, instName, cloneMN);
+        instCN.methods.set (instIndex, cloneMN);
+
+        //
+        // Turn the instrumented method into a private synthetic method, which
+        // is only invoked from the original method. Annotations belong to
+        // the original method.
+        //
+        instMN.name = instName;
+        instMN.access = Opcodes.ACC_PRIVATE | Opcodes.ACC_SYNTHETIC
+            | (instMN.access & (Opcodes.ACC_STATIC | Opcodes.ACC_STRICT));
+        instMN.signature = null;
+        instMN.visibleAnnotations = null;
+        instMN.invisibleAnnotations = null;
+        instMN.visibleParameterAnnotations = null;
+        instMN.invisibleParameterAnnotations = null;
+        instMN.visibleTypeAnnotations = null;
+        instMN.invisibleTypeAnnotations = null;
+        instMN.annotationDefault = null;
+
+        return instMN;
+    }
+
+
+    private static boolean __isSeparable (final MethodNode method) {
+        if ("<init>".equals (method.name) || "<clinit>".equals (method.name)) {
+            return false;
+        }
+
+        //
+        // Caller sensitive methods determine their caller by walking a fixed
+        // number of frames up the stack, and the dispatch adds a frame.
+        //
+        return !__hasCallerSensitive (method.visibleAnnotations)
+            && !__hasCallerSensitive (method.invisibleAnnotations);
+    }
+
+
+    private static boolean __hasCallerSensitive (
+        final List <AnnotationNode> annotations
+    ) {
+        return annotations != null && annotations.stream ().anyMatch (
+            an -> an.desc.endsWith (CALLER_SENSITIVE_SUFFIX)
+        );
+    }
+
+
+    private static void __createDispatch (
+        final String owner, final String instName, final MethodNode origMN
+    ) {
+        // The dispatch code has the following layout:
+        //
+        //     if (!BypassCheck.executeUninstrumented ()) {
+        //         return <instName> (<arguments>);
+        //     }
+        //     <original code>
+        //
+        final InsnList dispatch = new InsnList ();
+        dispatch.add (AsmHelper.invokeStatic (BPC_CLASS, BPC_METHOD, BPC_DESC));
+
+        final LabelNode origLabel = new LabelNode ();
+        dispatch.add (new JumpInsnNode (Opcodes.IFNE, origLabel));
+
+        final boolean isStatic = (origMN.access & Opcodes.ACC_STATIC) != 0;
+        int slot = 0;
+        if (!isStatic) {
+            dispatch.add (AsmHelper.loadThis ());
+            slot++;
+        }
+
+        for (final Type argType : Type.getArgumentTypes (origMN.desc)) {
+            dispatch.add (AsmHelper.loadVar (argType, slot));
+            slot += argType.getSize ();
+        }
+
+        dispatch.add (new MethodInsnNode (
+            isStatic ? Opcodes.INVOKESTATIC : Opcodes.INVOKESPECIAL,
+            owner, instName, origMN.desc, false
+        ));
+
+        final Type returnType = Type.getReturnType (origMN.desc);
+        dispatch.add (new InsnNode (returnType.getOpcode (Opcodes.IRETURN)));
+        dispatch.add (origLabel);
+
+        origMN.instructions.insert (dispatch);
+    }
+
+
     private static void __createBypassCheck (
         final InsnList instCode, final List <TryCatchBlockNode> instTcbs,
         final InsnList origCode, final List <TryCatchBlockNode> origTcbs
@@ -94,41 +279,59 @@ abstract class CodeMerger {
     // changedMethods list
     public static ClassNode fixupLongMethods (
         final boolean splitLongMethods, final ClassNode origCN,
-        final ClassNode instCN
+        final ClassNode instCN, final ClassHierarchy hierarchy
     ) {
         //
         // Choose a fix-up strategy and process all over-size methods in the
         // instrumented class.
         //
-        final IntConsumer fixupStrategy = splitLongMethods ?
-            i -> __splitLongMethod (i, instCN, origCN) :
-            i -> __revertToOriginal (i, instCN, origCN);
-
-        IntStream.range (0, instCN.methods.size ()).parallel ().unordered ()
+        final AtomicInteger splitCounter = new AtomicInteger ();
+        final IntFunction <List <MethodNode>> fixupStrategy = splitLongMethods ?
+            i -> __splitLongMethod (i, instCN, origCN, hierarchy, splitCounter) :
+            i -> __revertToOriginal (
+                i, instCN, origCN, __methodSize (instCN.methods.get (i))
+            );
+
+        final List <MethodNode> newMethods = IntStream.range (
+            0, instCN.methods.size ()
+        ).parallel ().unordered ()
             .filter (i -> __methodSize (instCN.methods.get (i)) > ALLOWED_SIZE)
-            .forEach (i -> fixupStrategy.accept (i));
+            .mapToObj (fixupStrategy)
+            .flatMap (List::stream)
+            .collect (Collectors.toList ());
 
+        instCN.methods.addAll (newMethods);
         return instCN;
     }
 
 
-    private static void __splitLongMethod (
-        final int methodIndex, final ClassNode instCN, final ClassNode origCN
+    private static List <MethodNode> __splitLongMethod (
+        final int methodIndex, final ClassNode instCN, final ClassNode origCN,
+        final ClassHierarchy hierarchy, final AtomicInteger splitCounter
     ) {
-        // TODO jb ! add splitting for to long methods
-        // - ignore clinit - output warning
-        // - output warning if splitted is to large and ignore
-
-        // check the code size of the instrumented method
-        // add if to the original method that jumps to the renamed instrumented
-        // method
-        // add original method to the instrumented code
-        // rename instrumented method
+        //
+        // Move parts of the instrumented method into new methods. If the
+        // method cannot be split, fall back to the original method. The
+        // splitter may give up with the method partially split, so take
+        // the size for the warning before splitting.
+        //
+        final MethodNode instMN = instCN.methods.get (methodIndex);
+        final int instSize = __methodSize (instMN);
+        final List <MethodNode> result = MethodSplitter.split (
+            instCN, instMN, ALLOWED_SIZE, hierarchy, splitCounter
+        );
+
+        if (result == null) {
+            return __revertToOriginal (methodIndex, instCN, origCN, instSize);
+        }
+
+        return result;
     }
 
 
-    private static void __revertToOriginal (
-        final int instIndex, final ClassNode instCN, final ClassNode origCN
+    private static List <MethodNode> __revertToOriginal (
+        final int instIndex, final ClassNode instCN, final ClassNode origCN,
+        final int instSize
     ) {
         //
         // Replace the instrumented method with the original method,
@@ -142,8 +345,10 @@ abstract class CodeMerger {
             "warning: method %s.%s%s not instrumented, because its size "+
             "(%d) exceeds the maximal allowed method size (%d)\n",
             AsmHelper.className (instCN), instMN.name, instMN.desc,
-            __methodSize (instMN), ALLOWED_SIZE
+            instSize, ALLOWED_SIZE
         );
+
+        return Collections.emptyList ();
     }
 
 
@@ -154,6 +359,15 @@ abstract class CodeMerger {
     }
 
 
+    private static boolean __hasMethod (
+        final ClassNode cn, final String name, final String desc
+    ) {
+        return cn.methods.stream ().anyMatch (
+            m -> m.name.equals (name) && m.desc.equals (desc)
+        );
+    }
+
+
     private static MethodNode __findMethodNode (
         final ClassNode cn, final String name, final String desc
     ) {
@@ -2,7 +2,8 @@ package ch.usi.dag.disl;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -12,8 +13,13 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.ClassNode;
@@ -31,12 +37,16 @@ import ch.usi.dag.disl.processor.generator.PIResolver;
 import ch.usi.dag.disl.processor.generator.ProcGenerator;
 import ch.usi.dag.disl.processor.generator.ProcInstance;
 import ch.usi.dag.disl.processor.generator.ProcMethodInstance;
+import ch.usi.dag.disl.resolver.GuardMethod;
 import ch.usi.dag.disl.scope.Scope;
+import ch.usi.dag.disl.scope.ScopeIndex;
 import ch.usi.dag.disl.snippet.Shadow;
 import ch.usi.dag.disl.snippet.Snippet;
 import ch.usi.dag.disl.staticcontext.generator.SCGenerator;
+import ch.usi.dag.disl.util.ClassHierarchy;
 import ch.usi.dag.disl.util.ClassNodeHelper;
 import ch.usi.dag.disl.util.Logging;
+import ch.usi.dag.disl.util.cfg.MethodAnalysis;
 import ch.usi.dag.disl.weaver.Weaver;
 import ch.usi.dag.util.logging.Logger;
 
@@ -63,6 +73,24 @@ public final class DiSL {
 
     private final DislClasses __dislClasses;
 
+    private final byte [] __fingerprint;
+
+    /** Superclasses of classes, used to compute stack map frames. */
+    private final ClassHierarchy __classHierarchy = new ClassHierarchy ();
+
+    /** Index of exclusion scopes, by the classes they can match. */
+    private final ScopeIndex <Scope> __exclusionIndex;
+
+    /** Index of snippets, by the classes their scopes can match. */
+    private final ScopeIndex <Snippet> __snippetIndex;
+
+    /**
+     * Indices of snippets prepared for code options other than the default
+     * ones, keyed by the code options affecting the snippet code.
+     */
+    private final Map <Set <CodeOption>, ScopeIndex <Snippet>> __snippetIndices =
+        new ConcurrentHashMap <> ();
+
 
     /**
      * Initializes a DiSL instance by loading transformers, exclusion lists, and
@@ -89,6 +117,13 @@ public final class DiSL {
         __transformers = Transformers.load ();
         __excludedScopes = ExclusionSet.prepare();
         __dislClasses = DislClasses.load (__codeOptions);
+        __fingerprint = Fingerprint.compute (
+            System.getProperties (), __codeOptions, __excludedScopes,
+            __dislClasses.getSnippets ()
+        );
+
+        __exclusionIndex = new ScopeIndex <> (__excludedScopes, scope -> scope);
+        __snippetIndex = new ScopeIndex <> (__dislClasses.getSnippets (), Snippet::getScope);
     }
 
 
@@ -97,12 +132,17 @@ public final class DiSL {
      */
     private DiSL (
         final Set <CodeOption> codeOptions, final Transformers transformers,
-        final Set <Scope> excludedScopes, final DislClasses dislClasses
+        final Set <Scope> excludedScopes, final DislClasses dislClasses,
+        final byte [] fingerprint
     ) {
         __codeOptions = codeOptions;
         __transformers = transformers;
         __excludedScopes = excludedScopes;
         __dislClasses = dislClasses;
+        __fingerprint = fingerprint;
+
+        __exclusionIndex = new ScopeIndex <> (excludedScopes, scope -> scope);
+        __snippetIndex = new ScopeIndex <> (dislClasses.getSnippets (), Snippet::getScope);
     }
 
 
@@ -138,6 +178,9 @@ public final class DiSL {
         final Transformers transformers = Transformers.load ();
         final Set <Scope> excludedScopes = ExclusionSet.prepare();
         final DislClasses dislClasses = DislClasses.load (codeOptions);
+        final byte [] fingerprint = Fingerprint.compute (
+            properties, codeOptions, excludedScopes, dislClasses.getSnippets ()
+        );
 
         // TODO put checker here
         // like After should catch normal and abnormal execution
@@ -147,7 +190,9 @@ public final class DiSL {
         // also it can warn about unknown opcodes if you let user to
         // specify this for InstructionMarker
 
-        return new DiSL (codeOptions, transformers, excludedScopes, dislClasses);
+        return new DiSL (
+            codeOptions, transformers, excludedScopes, dislClasses, fingerprint
+        );
     }
 
 
@@ -176,11 +221,21 @@ public final class DiSL {
             result.add (CodeOption.SPLIT_METHODS);
         }
 
+        final boolean separateCode = __getBoolean ("disl.separatecode", properties);
+        if (separateCode) {
+            result.add (CodeOption.SEPARATE_CODE);
+        }
+
         final boolean insertdelimitation = __getBoolean ("disl.insertdelimitation", properties);
         if (insertdelimitation) {
             result.add (CodeOption.INSERT_DELIMITATION);
         }
 
+        final boolean reuseFrames = __getBoolean ("disl.reuseframes", properties);
+        if (reuseFrames) {
+            result.add (CodeOption.REUSE_FRAMES);
+        }
+
         return result;
     }
 
@@ -199,10 +254,16 @@ public final class DiSL {
      *        class that will be instrumented
      * @param methodNode
      *        method in the classNode argument, that will be instrumented
+     * @param exclusions
+     *        exclusion scopes that can match methods of the class
+     * @param snippets
+     *        snippets with scopes that can match methods of the class
      * @return {@code true} if the methods was changed, {@code false} otherwise.
      */
     private boolean instrumentMethod (
-        final ClassNode classNode, final MethodNode methodNode
+        final ClassNode classNode, final MethodNode methodNode,
+        final ScopeIndex.Candidates <Scope> exclusions,
+        final ScopeIndex.Candidates <Snippet> snippets
     ) throws DiSLException {
 
         // skip abstract methods
@@ -221,22 +282,15 @@ public final class DiSL {
 
         // evaluate exclusions
         // TODO LB: Add support for inclusion
-        for (final Scope exclScope : __excludedScopes) {
-            if (exclScope.matches (className, methodName, methodDesc)) {
-                __log.debug ("excluding method: %s.%s(%s)",
-                    className, methodName, methodDesc);
-                return false;
-            }
+        if (exclusions.firstMatching (methodName, methodDesc) != null) {
+            __log.debug ("excluding method: %s.%s(%s)",
+                className, methodName, methodDesc);
+            return false;
         }
 
         // *** match snippet scope ***
 
-        final List <Snippet> matchedSnippets = new LinkedList <Snippet> ();
-        for (final Snippet snippet : __dislClasses.getSnippets ()) {
-            if (snippet.getScope ().matches (className, methodName, methodDesc)) {
-                matchedSnippets.add (snippet);
-            }
-        }
+        final List <Snippet> matchedSnippets = snippets.matching (methodName, methodDesc);
 
         // if there is nothing to instrument -> quit
         // just to be faster out
@@ -251,63 +305,81 @@ public final class DiSL {
         // shadows mapped to snippets - for weaving
         final Map<Snippet, List<Shadow>> snippetMarkings = new HashMap <> ();
 
-        for (final Snippet snippet : matchedSnippets) {
-            __log.trace ("\tsnippet: %s.%s()",
-                snippet.getOriginClassName (), snippet.getOriginMethodName ());
+        // synthetic locals used by the selected snippets - for weaving
+        final Set <SyntheticLocalVar> usedSLVs = new HashSet <SyntheticLocalVar> ();
 
-            // marking
-            final List <Shadow> shadows = snippet.getMarker ().mark (
-                classNode, methodNode, snippet
-            );
+        final SCGenerator staticInfo;
+        final PIResolver piResolver;
 
-            // select shadows according to snippet guard
-            final List <Shadow> selectedShadows = selectShadowsWithGuard (
-                snippet.getGuard (), shadows
-            );
+        //
+        // Share the control flow analyses of the method among markers,
+        // guards, and static contexts until the static information has been
+        // computed. The analyses must not be used once weaving starts to
+        // modify the method.
+        //
+        final MethodAnalysis analysis = MethodAnalysis.open (methodNode);
+
+        try {
+            for (final Snippet snippet : matchedSnippets) {
+                __log.trace ("\tsnippet: %s.%s()",
+                    snippet.getOriginClassName (), snippet.getOriginMethodName ());
+
+                // marking
+                final List <Shadow> shadows = snippet.getMarker ().mark (
+                    classNode, methodNode, snippet
+                );
+
+                // select shadows according to snippet guard
+                final List <Shadow> selectedShadows = selectShadowsWithGuard (
+                    snippet.getGuard (), shadows
+                );
 
-            __log.trace ("\tselected shadows: %d", selectedShadows.size ());
+                __log.trace ("\tselected shadows: %d", selectedShadows.size ());
 
-            // add to map
-            if (!selectedShadows.isEmpty ()) {
-                snippetMarkings.put (snippet, selectedShadows);
+                // add to map
+                if (!selectedShadows.isEmpty ()) {
+                    snippetMarkings.put (snippet, selectedShadows);
+                }
             }
-        }
 
-        // *** compute static info ***
+            // *** compute static info ***
 
-        __log.trace ("calculating static information for method: %s.%s(%s)",
-            className, methodName, methodDesc);
+            __log.trace ("calculating static information for method: %s.%s(%s)",
+                className, methodName, methodDesc);
 
-        // prepares SCGenerator class (computes static context)
-        final SCGenerator staticInfo = SCGenerator.computeStaticInfo (snippetMarkings);
+            // prepares SCGenerator class (computes static context)
+            staticInfo = SCGenerator.computeStaticInfo (snippetMarkings);
 
-        // *** used synthetic local vars in snippets ***
+            // *** used synthetic local vars in snippets ***
 
-        __log.trace ("finding synthetic locals used by method: %s.%s(%s)",
-            className, methodName, methodDesc);
+            __log.trace ("finding synthetic locals used by method: %s.%s(%s)",
+                className, methodName, methodDesc);
 
-        // weaver needs list of synthetic locals that are actively used in
-        // selected (matched) snippets
+            // weaver needs list of synthetic locals that are actively used in
+            // selected (matched) snippets
 
-        final Set <SyntheticLocalVar> usedSLVs = new HashSet <SyntheticLocalVar> ();
-        for (final Snippet snippet : snippetMarkings.keySet ()) {
-            usedSLVs.addAll (snippet.getCode ().getReferencedSLVs ());
-        }
+            for (final Snippet snippet : snippetMarkings.keySet ()) {
+                usedSLVs.addAll (snippet.getCode ().getReferencedSLVs ());
+            }
 
-        // *** prepare processors ***
+            // *** prepare processors ***
 
-        __log.trace ("preparing argument processors for method: %s.%s(%s)",
-            className, methodName, methodDesc);
+            __log.trace ("preparing argument processors for method: %s.%s(%s)",
+                className, methodName, methodDesc);
 
-        final PIResolver piResolver = new ProcGenerator ().compute (snippetMarkings);
+            piResolver = new ProcGenerator ().compute (snippetMarkings);
 
-        // *** used synthetic local vars in processors ***
+            // *** used synthetic local vars in processors ***
 
-        // include SLVs from processor methods into usedSLV
-        for (final ProcInstance pi : piResolver.getAllProcInstances ()) {
-            for (final ProcMethodInstance pmi : pi.getMethods ()) {
-                usedSLVs.addAll (pmi.getCode ().getReferencedSLVs ());
+            // include SLVs from processor methods into usedSLV
+            for (final ProcInstance pi : piResolver.getAllProcInstances ()) {
+                for (final ProcMethodInstance pmi : pi.getMethods ()) {
+                    usedSLVs.addAll (pmi.getCode ().getReferencedSLVs ());
+                }
             }
+
+        } finally {
+            analysis.close ();
         }
 
         // *** weaving ***
@@ -333,7 +405,53 @@ public final class DiSL {
 
 
     /**
-     * Selects only shadows passing the given guard.
+     * Instruments a method in a class and wraps any exception in an unchecked
+     * {@link MethodFailure}, which carries the exception out of a stream.
+     */
+    private boolean __instrumentMethod (
+        final ClassNode classNode, final MethodNode methodNode,
+        final ScopeIndex.Candidates <Scope> exclusions,
+        final ScopeIndex.Candidates <Snippet> snippets
+    ) {
+        // intercept all exceptions and add a method name
+        try {
+            __log.trace ("processing method: %s.%s(%s)",
+                classNode.name, methodNode.name, methodNode.desc);
+            return instrumentMethod (classNode, methodNode, exclusions, snippets);
+
+        } catch (final DiSLException e) {
+            throw new MethodFailure (new DiSLInMethodException (
+                classNode.name + "." + methodNode.name, e));
+        }
+    }
+
+
+    /**
+     * Carries an exception thrown when instrumenting a method out of
+     * a (possibly parallel) stream.
+     */
+    @SuppressWarnings ("serial")
+    private static final class MethodFailure extends RuntimeException {
+        final DiSLInMethodException exception;
+
+        private MethodFailure (final DiSLInMethodException exception) {
+            super (exception);
+            this.exception = exception;
+        }
+    }
+
+
+    /**
+     * The minimal number of shadows for which a guard is evaluated in
+     * parallel. For fewer shadows, the overhead outweighs the benefits.
+     */
+    private static final int __PARALLEL_GUARD_THRESHOLD__ = 64;
+
+
+    /**
+     * Selects only shadows passing the given guard. For methods with many
+     * shadows, the guard is evaluated in parallel. Guards are stateless, and
+     * each thread uses its own static context instances.
      *
      * @param guard
      *        the guard to use for filtering the {@link Shadow} instances.
@@ -342,14 +460,17 @@ public final class DiSL {
      * @return A list of {@link Shadow} instances passing the guard.
      */
     private List <Shadow> selectShadowsWithGuard (
-        final Method guard, final List <Shadow> shadows
+        final GuardMethod guard, final List <Shadow> shadows
     ) {
         if (guard == null) {
             return shadows;
         }
 
-        return shadows.stream ()
-            // potentially .parallel(), needs thread-safe static context
+        // keep the order of the shadows
+        final Stream <Shadow> stream = (shadows.size () < __PARALLEL_GUARD_THRESHOLD__) ?
+            shadows.stream () : shadows.parallelStream ();
+
+        return stream
             .filter (shadow -> GuardHelper.guardApplicable (guard, shadow))
             .collect (Collectors.toList ());
     }
@@ -380,11 +501,15 @@ public final class DiSL {
      *
      * @param classNode
      *            class node to instrument
+     * @param codeOptions
+     *            code options to use for the class
      * @return instrumented class
      */
     private InstrumentedClass instrumentClass (
-        ClassNode classNode
+        ClassNode classNode, final Set <CodeOption> codeOptions
     ) throws DiSLException {
+        final ScopeIndex <Snippet> snippetIndex = __snippetIndexFor (codeOptions);
+
         // NOTE that class can be changed without changing any method
         // - adding thread local fields
         boolean classChanged = false;
@@ -392,34 +517,47 @@ public final class DiSL {
         // track changed methods for code merging
         final Set <String> changedMethods = new HashSet <String> ();
 
-        // instrument all methods in a class
-        for (final MethodNode methodNode : classNode.methods) {
-            boolean methodChanged = false;
+        // find the scopes that can match methods of the class
+        final ScopeIndex.Candidates <Scope> exclusions =
+            __exclusionIndex.forClass (classNode.name);
+        final ScopeIndex.Candidates <Snippet> snippets =
+            snippetIndex.forClass (classNode.name);
 
-            // intercept all exceptions and add a method name
-            try {
-                __log.trace ("processing method: %s.%s(%s)",
-                    classNode.name, methodNode.name, methodNode.desc);
-                methodChanged = instrumentMethod (classNode, methodNode);
+        if (snippets.isEmpty ()) {
+            __log.debug ("skipping unaffected class: %s", classNode.name);
+        }
 
-            } catch (final DiSLException e) {
-                throw new DiSLInMethodException (
-                    classNode.name + "." + methodNode.name, e);
-            }
+        //
+        // Instrument all methods in a class, unless no snippet can match
+        // them. The methods are instrumented independently of each other,
+        // so they can be instrumented in parallel. The class node itself is
+        // only read, and each thread uses its own static context instances.
+        //
+        final ClassNode targetClass = classNode;
+        final List <MethodNode> methods = snippets.isEmpty () ?
+            Collections.emptyList () : targetClass.methods;
 
-            // add method to the set of changed methods
-            if (methodChanged) {
-                changedMethods.add (methodNode.name + methodNode.desc);
-                classChanged = true;
-            }
+        try {
+            changedMethods.addAll (methods.parallelStream ().unordered ()
+                .filter (methodNode -> __instrumentMethod (
+                    targetClass, methodNode, exclusions, snippets
+                ))
+                .map (methodNode -> methodNode.name + methodNode.desc)
+                .collect (Collectors.toSet ())
+            );
+
+        } catch (final MethodFailure mf) {
+            throw mf.exception;
         }
 
+        classChanged = !changedMethods.isEmpty ();
+
         // instrument thread local fields
-        if (Type.getInternalName (Thread.class).equals (classNode.name)) {
+        if (__THREAD_CLASS_NAME__.equals (classNode.name)) {
             final Set <ThreadLocalVar> insertTLVs = new HashSet <ThreadLocalVar> ();
 
             // dynamic bypass
-            if (__codeOptions.contains (CodeOption.DYNAMIC_BYPASS)) {
+            if (codeOptions.contains (CodeOption.DYNAMIC_BYPASS)) {
                 // prepare dynamic bypass thread local variable
                 final ThreadLocalVar tlv = new ThreadLocalVar (
                     null, "bypass", Type.getType (boolean.class), false
@@ -455,50 +593,110 @@ public final class DiSL {
     /**
      * Instruments the given class, provided as an array of bytes representing
      * the contents of its class file.
+     * <p>
+     * <b>Note:</b> This method is thread-safe and multiple classes can be
+     * instrumented concurrently. Each thread uses its own static context
+     * instances (see {@link ch.usi.dag.disl.resolver.SCResolver}).
      *
      * @param originalBytes
      *        the class to instrument as an array of bytes
      * @return An array of bytes representing the instrumented class, or
      *         {@code null} if the class has not been instrumented.
      */
-    // TODO ! current static context interface does not allow to have nice
-    // synchronization - it should be redesigned such as the staticContextData
-    // also invokes the required method and returns result - if this method
-    // (and static context class itself) will be synchronized, it should work
-    public synchronized byte [] instrument (
+    public byte [] instrument (
         final byte [] originalBytes
+    ) throws DiSLException {
+        return instrument (ByteBuffer.wrap (originalBytes));
+    }
+
+
+    /**
+     * Instruments the given class, provided as the bytes between the
+     * position and the limit of a byte buffer. If the buffer provides access
+     * to its backing array, the class bytes are parsed without copying. The
+     * contents and the position of the buffer are not changed.
+     * <p>
+     * <b>Note:</b> This method is thread-safe, see {@link #instrument(byte[])}.
+     *
+     * @param originalBytes
+     *        the buffer holding the class to instrument
+     * @return An array of bytes representing the instrumented class, or
+     *         {@code null} if the class has not been instrumented.
+     */
+    public byte [] instrument (
+        final ByteBuffer originalBytes
+    ) throws DiSLException {
+        return instrument (originalBytes, __codeOptions);
+    }
+
+
+    /**
+     * Instruments the given class using the given code options instead of
+     * the code options of this {@link DiSL} instance. The snippets are
+     * prepared for each distinct combination of code options when first
+     * needed, and reused afterwards.
+     * <p>
+     * <b>Note:</b> This method is thread-safe, see {@link #instrument(byte[])}.
+     *
+     * @param originalBytes
+     *        the buffer holding the class to instrument
+     * @param codeOptions
+     *        the code options to use for the class, may not be {@code null}
+     * @return An array of bytes representing the instrumented class, or
+     *         {@code null} if the class has not been instrumented.
+     */
+    public byte [] instrument (
+        final ByteBuffer originalBytes, final Set <CodeOption> codeOptions
     ) throws DiSLException {
         if (debug) {
             // keep the currently processed class around in case of errors
             __dumpBytesToFile (originalBytes, "err.class");
         }
 
-        final byte [] transformedBytes = __transformers.apply (originalBytes);
-        final ClassNode inputCN = ClassNodeHelper.FULL.unmarshal (transformedBytes);
+        final ByteBuffer transformedBytes = __transformers.apply (originalBytes);
 
         //
-        // Instrument the class. If the class is modified neither by DiSL,
-        // nor by any of the transformers, bail out early and return NULL
-        // to indicate that the class has not been modified in any way.
+        // Before parsing the whole class, check whether any snippet can
+        // match any of its methods. If not, and if the transformers have
+        // not changed the class either, bail out early and return NULL to
+        // indicate that the class has not been modified in any way.
         //
-        final InstrumentedClass instResult = instrumentClass (inputCN);
-        if (instResult == null && transformedBytes == originalBytes) {
+        final ClassReader reader = ClassNodeHelper.reader (transformedBytes);
+        final boolean transformed = transformedBytes != originalBytes;
+        if (!transformed && __isUnaffected (reader)) {
             return null;
         }
 
+        //
+        // Instrument the class. If the class is not modified by DiSL,
+        // return the class as modified by the transformers, if at all.
+        //
+        final ClassNode inputCN = ClassNodeHelper.FULL.unmarshal (reader);
+        final InstrumentedClass instResult = instrumentClass (inputCN, codeOptions);
+        if (instResult == null) {
+            return transformed ? __toByteArray (transformedBytes) : null;
+        }
+
         // TODO LB: Try to avoid unmarshaling the class again (duplicate it).
-        final ClassNode origCN = ClassNodeHelper.FULL.unmarshal (transformedBytes);
+        final ClassNode origCN = ClassNodeHelper.FULL.unmarshal (reader);
 
         //
         // If creating bypass code is requested, merge the original method code
         // with the instrumented method code and create code to switch between
-        // the two versions based on the result of a bypass check.
+        // the two versions based on the result of a bypass check. If requested,
+        // keep the instrumented code in a separate method instead.
         //
         final ClassNode instCN = instResult.classNode;
-        if (__codeOptions.contains (CodeOption.CREATE_BYPASS)) {
-            CodeMerger.mergeOriginalCode (
-                instResult.changedMethods, origCN, instCN
-            );
+        if (codeOptions.contains (CodeOption.CREATE_BYPASS)) {
+            if (codeOptions.contains (CodeOption.SEPARATE_CODE)) {
+                CodeMerger.separateInstrumentedCode (
+                    instResult.changedMethods, origCN, instCN
+                );
+            } else {
+                CodeMerger.mergeOriginalCode (
+                    instResult.changedMethods, origCN, instCN
+                );
+            }
         }
 
 
@@ -510,20 +708,195 @@ public final class DiSL {
         // XXX LB: This will not help long methods produced by the transformers.
         //
         CodeMerger.fixupLongMethods (
-            __codeOptions.contains (CodeOption.SPLIT_METHODS), origCN, instCN
+            codeOptions.contains (CodeOption.SPLIT_METHODS), origCN, instCN,
+            __classHierarchy
         );
 
-        return ClassNodeHelper.marshal (instCN);
+        //
+        // If requested, only write the methods changed by the instrumentation,
+        // and copy the other methods from the original class as they are.
+        // This is not possible if the class has been rewritten to insert
+        // thread-local variables, which changes the fields and constructors.
+        //
+        if (codeOptions.contains (CodeOption.REUSE_FRAMES) && instCN == inputCN) {
+            return ClassNodeHelper.marshal (
+                instCN, reader,
+                methodNode -> instResult.changedMethods.contains (
+                    methodNode.name + methodNode.desc
+                ),
+                __classHierarchy
+            );
+        }
+
+        return ClassNodeHelper.marshal (instCN, __classHierarchy);
+    }
+
+
+    /**
+     * Returns the index of snippets prepared for the given code options. Only
+     * the code options affecting the snippet code are considered, so that
+     * code options differing only in the post-processing of the class share
+     * the same snippets.
+     */
+    private ScopeIndex <Snippet> __snippetIndexFor (
+        final Set <CodeOption> codeOptions
+    ) throws DiSLException {
+        final Set <CodeOption> snippetOptions = __snippetOptions (codeOptions);
+        if (snippetOptions.equals (__snippetOptions (__codeOptions))) {
+            return __snippetIndex;
+        }
+
+        final ScopeIndex <Snippet> result = __snippetIndices.get (snippetOptions);
+        if (result != null) {
+            return result;
+        }
+
+        synchronized (__snippetIndices) {
+            ScopeIndex <Snippet> index = __snippetIndices.get (snippetOptions);
+            if (index == null) {
+                __log.debug (
+                    "preparing snippets for code options: %s",
+                    snippetOptions
+                );
+
+                final DislClasses dislClasses = DislClasses.load (snippetOptions);
+                index = new ScopeIndex <> (dislClasses.getSnippets (), Snippet::getScope);
+                __snippetIndices.put (snippetOptions, index);
+            }
+
+            return index;
+        }
+    }
+
+
+    private static Set <CodeOption> __snippetOptions (
+        final Set <CodeOption> codeOptions
+    ) {
+        final Set <CodeOption> result = EnumSet.noneOf (CodeOption.class);
+        for (final CodeOption option : codeOptions) {
+            if (__SNIPPET_OPTIONS__.contains (option)) {
+                result.add (option);
+            }
+        }
+
+        return result;
+    }
+
+    /** Code options that affect the code of the prepared snippets. */
+    private static final Set <CodeOption> __SNIPPET_OPTIONS__ = EnumSet.of (
+        CodeOption.DYNAMIC_BYPASS, CodeOption.CATCH_EXCEPTIONS,
+        CodeOption.INSERT_DELIMITATION
+    );
+
+
+    /**
+     * Determines whether the given class is certainly not affected by the
+     * instrumentation, i.e., whether no snippet matches any of its methods
+     * that are not excluded. Only reads the class name, and if necessary,
+     * the names and descriptors of the methods, without parsing the code.
+     */
+    private boolean __isUnaffected (final ClassReader reader) {
+        final String className = reader.getClassName ();
+        if (__THREAD_CLASS_NAME__.equals (className)) {
+            // thread local variables are added to the Thread class
+            return false;
+        }
+
+        final ScopeIndex.Candidates <Snippet> snippets =
+            __snippetIndex.forClass (className);
+        if (snippets.isEmpty ()) {
+            __log.debug ("skipping unaffected class: %s", className);
+            return true;
+        }
+
+        final ScopeIndex.Candidates <Scope> exclusions =
+            __exclusionIndex.forClass (className);
+
+        final boolean [] affected = new boolean [] { false };
+        reader.accept (new ClassVisitor (Opcodes.ASM5) {
+            @Override
+            public MethodVisitor visitMethod (
+                final int access, final String name, final String desc,
+                final String signature, final String [] exceptions
+            ) {
+                if (!affected [0]
+                    && (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) == 0
+                    && snippets.firstMatching (name, desc) != null
+                    && exclusions.firstMatching (name, desc) == null
+                ) {
+                    affected [0] = true;
+                }
+
+                return null;
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+        if (!affected [0]) {
+            __log.debug ("skipping class with unaffected methods: %s", className);
+        }
+
+        return !affected [0];
+    }
+
+    private static final String __THREAD_CLASS_NAME__ = Type.getInternalName (Thread.class);
+
+
+    private static byte [] __toByteArray (final ByteBuffer buffer) {
+        final byte [] result = new byte [buffer.remaining ()];
+        buffer.duplicate ().get (result);
+        return result;
+    }
+
+
+    /**
+     * Returns a fingerprint of the instrumentation performed by this
+     * {@link DiSL} instance. The fingerprint is a digest of the DiSL
+     * framework, properties, code options, exclusion scopes, DiSL classes and
+     * the classes they reference, and the instrumentation jar. Two instances
+     * with the same fingerprint produce the same instrumented class for the
+     * same input class, which allows caching the results of instrumentation
+     * across runs. Configurations using static contexts that keep state
+     * between classes, such as unique identifiers, have no fingerprint.
+     *
+     * @return A copy of the fingerprint bytes, or {@code null} if the
+     *         configuration could not be fingerprinted completely, or if its
+     *         instrumentation depends on state kept between classes.
+     */
+    public byte [] fingerprint () {
+        return (__fingerprint != null) ? __fingerprint.clone () : null;
+    }
+
+
+    /**
+     * Returns the class hierarchy used to compute stack map frames of the
+     * instrumented classes. Adding classes to the hierarchy allows computing
+     * more precise stack map frames.
+     *
+     * @return The class hierarchy of this {@link DiSL} instance.
+     */
+    public ClassHierarchy classHierarchy () {
+        return __classHierarchy;
+    }
+
+
+    /**
+     * Returns the code options of this {@link DiSL} instance, which are used
+     * for classes instrumented without explicitly given code options.
+     *
+     * @return A copy of the code options.
+     */
+    public Set <CodeOption> codeOptions () {
+        return EnumSet.copyOf (__codeOptions);
     }
 
 
     private void __dumpBytesToFile (
-        final byte [] classBytes, final String fileName
+        final ByteBuffer classBytes, final String fileName
     ) throws DiSLIOException {
         try {
             final FileOutputStream fos = new FileOutputStream (fileName);
             try {
-                fos.write (classBytes);
+                fos.getChannel ().write (classBytes.duplicate ());
             } finally {
                 fos.close ();
             }
@@ -576,7 +949,21 @@ public final class DiSL {
         /**
          * auto instrument invocation to instrumentationBegin/instrumentationEnd
          */
-        INSERT_DELIMITATION (Flag.INSERT_DELIMITATION);
+        INSERT_DELIMITATION (Flag.INSERT_DELIMITATION),
+
+        /**
+         * When creating bypass code, keep the original method code in place
+         * and move the instrumented code into a separate synthetic method,
+         * instead of merging both versions of the code into one method.
+         */
+        SEPARATE_CODE (Flag.SEPARATE_CODE),
+
+        /**
+         * Copy the methods that were not instrumented from the original class
+         * as they are, including their stack map frames, and only compute
+         * stack map frames for the instrumented methods.
+         */
+        REUSE_FRAMES (Flag.REUSE_FRAMES);
 
         /**
          * Flags corresponding to individual code options. The flags are
@@ -588,6 +975,8 @@ public final class DiSL {
             static final int SPLIT_METHODS = 1 << 2;
             static final int CATCH_EXCEPTIONS = 1 << 3;
             static final int INSERT_DELIMITATION = 1 << 4;
+            static final int SEPARATE_CODE = 1 << 5;
+            static final int REUSE_FRAMES = 1 << 6;
         }
 
         //
@@ -0,0 +1,362 @@
+package ch.usi.dag.disl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.commons.RemappingClassAdapter;
+import org.objectweb.asm.tree.ClassNode;
+
+import ch.usi.dag.disl.DiSL.CodeOption;
+import ch.usi.dag.disl.cbloader.ClassByteLoader;
+import ch.usi.dag.disl.cbloader.ManifestHelper;
+import ch.usi.dag.disl.cbloader.ManifestHelper.ManifestInfo;
+import ch.usi.dag.disl.coderep.StaticContextMethod;
+import ch.usi.dag.disl.exception.DiSLException;
+import ch.usi.dag.disl.exception.DiSLIOException;
+import ch.usi.dag.disl.resolver.GuardMethod;
+import ch.usi.dag.disl.scope.Scope;
+import ch.usi.dag.disl.snippet.Snippet;
+import ch.usi.dag.disl.staticcontext.uid.AbstractUniqueId;
+import ch.usi.dag.disl.util.Constants;
+
+
+/**
+ * Computes a fingerprint of a DiSL configuration. The fingerprint covers
+ * everything that determines how a class gets instrumented: the DiSL
+ * framework and ASM jars, the DiSL properties, the code options, the
+ * exclusion scopes, the DiSL classes, the instrumentation jar (if any), which
+ * also contains the transformers, and all classes referenced by the DiSL
+ * classes, such as guards, markers, and static contexts, which may be loaded
+ * from the class path.
+ * <p>
+ * The fingerprint does not cover state kept by the instrumentation between
+ * classes. Static contexts assigning unique identifiers, i.e., those derived
+ * from {@link AbstractUniqueId}, keep such state, and identifiers assigned to
+ * a cached class could clash with those assigned in a later run. A
+ * configuration using them in snippets or guards has no fingerprint.
+ * <p>
+ * If some part of the configuration cannot be read, e.g., because the
+ * framework is not loaded from a jar, or a referenced class cannot be found,
+ * the configuration has no fingerprint either.
+ */
+final class Fingerprint {
+
+    private static final String __ALGORITHM__ = "SHA-256";
+
+    private static final String __PROPERTY_PREFIX__ = "disl.";
+
+    /** Classes whose jars make up the instrumentation framework. */
+    private static final Class <?> [] __FRAMEWORK_CLASSES__ = {
+        DiSL.class, ClassReader.class
+    };
+
+    //
+
+    private Fingerprint () {
+        // not to be instantiated
+    }
+
+    //
+
+    /**
+     * Computes the fingerprint of the given configuration.
+     *
+     * @return the fingerprint, or {@code null} if the configuration cannot be
+     *         fingerprinted completely, or if the snippets use stateful
+     *         static contexts.
+     */
+    public static byte [] compute (
+        final Properties properties, final Set <CodeOption> codeOptions,
+        final Set <Scope> excludedScopes, final List <Snippet> snippets
+    ) throws DiSLException {
+        if (__usesUniqueIds (snippets)) {
+            return null;
+        }
+
+        final MessageDigest digest = __newDigest ();
+
+        //
+        // Use sorted sets for the textual parts, so that the result does
+        // not depend on the iteration order of the underlying collections.
+        //
+        final Set <String> names = new TreeSet <> ();
+        for (final String name : properties.stringPropertyNames ()) {
+            if (name.startsWith (__PROPERTY_PREFIX__)) {
+                names.add (name + "=" + properties.getProperty (name));
+            }
+        }
+
+        __update (digest, names);
+        __update (digest, new TreeSet <> (codeOptions));
+
+        final Set <String> scopes = new TreeSet <> ();
+        for (final Scope scope : excludedScopes) {
+            scopes.add (scope.toString ());
+        }
+
+        __update (digest, scopes);
+
+        try {
+            //
+            // Include the contents of the framework jars. Classes loaded from
+            // these jars need not be included individually.
+            //
+            final List <String> frameworkJars = new ArrayList <> ();
+            for (final Class <?> frameworkClass : __FRAMEWORK_CLASSES__) {
+                final URL jarUrl = __jarUrl (frameworkClass);
+                if (jarUrl == null) {
+                    return null;
+                }
+
+                __update (digest, jarUrl.openStream ());
+                frameworkJars.add ("jar:" + jarUrl + "!/");
+            }
+
+            //
+            // Include the contents of the DiSL classes and of the classes
+            // they reference, as well as the contents of the instrumentation
+            // jar. The latter is found using the DiSL manifest.
+            //
+            final List <InputStream> classStreams = ClassByteLoader.loadDiSLClasses ();
+            if (classStreams != null) {
+                final Deque <byte []> classes = new ArrayDeque <> ();
+                for (final InputStream is : classStreams) {
+                    if (is == null) {
+                        return null;
+                    }
+
+                    classes.add (__readAll (is));
+                }
+
+                if (!__updateClasses (digest, classes, frameworkJars)) {
+                    return null;
+                }
+            }
+
+            final ManifestInfo mi = ManifestHelper.getDiSLManifestInfo ();
+            if (mi != null) {
+                __update (digest, __jarStream (mi.getResource ()));
+            }
+
+        } catch (final IOException ioe) {
+            throw new DiSLIOException ("failed to compute DiSL fingerprint", ioe);
+        }
+
+        return digest.digest ();
+    }
+
+
+    /**
+     * Determines whether any of the given snippets (including their argument
+     * processors) or their guards use a static context assigning unique
+     * identifiers.
+     */
+    private static boolean __usesUniqueIds (final List <Snippet> snippets) {
+        for (final Snippet snippet : snippets) {
+            for (final StaticContextMethod scm : snippet.getCode ().getReferencedSCMs ()) {
+                if (AbstractUniqueId.class.isAssignableFrom (scm.getReferencedClass ())) {
+                    return true;
+                }
+            }
+
+            final GuardMethod guard = snippet.getGuard ();
+            if (guard != null) {
+                for (final Class <?> type : guard.getParameterTypes ()) {
+                    if (AbstractUniqueId.class.isAssignableFrom (type)) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Includes the given classes and the classes they reference (directly
+     * or indirectly) in the digest, except for classes loaded from the
+     * framework jars and classes of the Java class library.
+     *
+     * @return {@code false} if a referenced class could not be found.
+     */
+    private static boolean __updateClasses (
+        final MessageDigest digest, final Deque <byte []> classes,
+        final List <String> frameworkJars
+    ) throws IOException {
+        final ClassLoader loader = DiSL.class.getClassLoader ();
+        final ClassLoader libraryLoader = ClassLoader.getSystemClassLoader ().getParent ();
+        final Set <String> visited = new HashSet <> ();
+
+        while (!classes.isEmpty ()) {
+            final byte [] bytes = classes.removeFirst ();
+            digest.update (bytes);
+
+            final ClassReader reader = new ClassReader (bytes);
+            visited.add (reader.getClassName ());
+
+            for (final String name : __referencedClasses (reader)) {
+                if (!visited.add (name)) {
+                    continue;
+                }
+
+                final String resourceName = name + Constants.CLASS_EXT;
+                if (libraryLoader != null && libraryLoader.getResource (resourceName) != null) {
+                    continue;
+                }
+
+                final URL url = loader.getResource (resourceName);
+                if (url == null) {
+                    return false;
+                }
+
+                if (!__isInJars (url, frameworkJars)) {
+                    classes.add (__readAll (url.openStream ()));
+                }
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Returns the internal names of all classes referenced by the class
+     * held by the given reader, including the classes used as annotation
+     * values, sorted by name.
+     */
+    private static Set <String> __referencedClasses (final ClassReader reader) {
+        final Set <String> result = new TreeSet <> ();
+        reader.accept (new RemappingClassAdapter (
+            new ClassNode (Opcodes.ASM5), new Remapper () {
+                @Override
+                public String map (final String typeName) {
+                    result.add (typeName);
+                    return typeName;
+                }
+            }
+        ), ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+        return result;
+    }
+
+
+    private static boolean __isInJars (final URL url, final List <String> jars) {
+        final String location = url.toString ();
+        for (final String jar : jars) {
+            if (location.startsWith (jar)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Returns the URL of the jar the given class was loaded from, or
+     * {@code null} if the class was not loaded from a jar.
+     */
+    private static URL __jarUrl (final Class <?> type) {
+        final CodeSource source = type.getProtectionDomain ().getCodeSource ();
+        if (source == null || source.getLocation () == null) {
+            return null;
+        }
+
+        final URL location = source.getLocation ();
+        return location.getPath ().endsWith (".jar") ? location : null;
+    }
+
+
+    private static MessageDigest __newDigest () {
+        try {
+            return MessageDigest.getInstance (__ALGORITHM__);
+
+        } catch (final NoSuchAlgorithmException nsae) {
+            // every Java platform is required to support SHA-256
+            throw new AssertionError (nsae);
+        }
+    }
+
+
+    private static InputStream __jarStream (final URL manifestUrl) throws IOException {
+        //
+        // The manifest is a jar entry, so we should get a jar connection,
+        // which points us to the jar file. Otherwise just use the manifest.
+        //
+        final URLConnection connection = manifestUrl.openConnection ();
+        if (connection instanceof JarURLConnection) {
+            return ((JarURLConnection) connection).getJarFileURL ().openStream ();
+        } else {
+            return connection.getInputStream ();
+        }
+    }
+
+
+    private static void __update (
+        final MessageDigest digest, final Iterable <?> items
+    ) {
+        for (final Object item : items) {
+            digest.update (item.toString ().getBytes (StandardCharsets.UTF_8));
+            digest.update ((byte) 0);
+        }
+
+        // separate groups of items
+        digest.update ((byte) 0);
+    }
+
+
+    private static byte [] __readAll (final InputStream is) throws IOException {
+        final ByteArrayOutputStream result = new ByteArrayOutputStream ();
+        try {
+            final byte [] buffer = new byte [8192];
+
+            int length;
+            while ((length = is.read (buffer)) > 0) {
+                result.write (buffer, 0, length);
+            }
+
+        } finally {
+            is.close ();
+        }
+
+        return result.toByteArray ();
+    }
+
+
+    private static void __update (
+        final MessageDigest digest, final InputStream is
+    ) throws IOException {
+        try {
+            final byte [] buffer = new byte [8192];
+
+            int length;
+            while ((length = is.read (buffer)) > 0) {
+                digest.update (buffer, 0, length);
+            }
+
+        } finally {
+            is.close ();
+        }
+    }
+
+}
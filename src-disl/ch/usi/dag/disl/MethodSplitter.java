@@ -0,0 +1,1963 @@
+package ch.usi.dag.disl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.CodeSizeEvaluator;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.LocalVariableAnnotationNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.BasicInterpreter;
+import org.objectweb.asm.tree.analysis.BasicValue;
+import org.objectweb.asm.tree.analysis.Frame;
+
+import ch.usi.dag.disl.util.AsmHelper;
+import ch.usi.dag.disl.util.ClassHierarchy;
+import ch.usi.dag.disl.util.AsmHelper.Insns;
+import ch.usi.dag.disl.util.BasicBlockCalc;
+
+
+/**
+ * Splits a method exceeding a size limit by moving regions of its code into
+ * private synthetic methods of the same class. A region is a sequence of
+ * consecutive basic blocks, which is entered and left with an empty operand
+ * stack. Besides its first block, a region may be entered at other blocks
+ * jumped to from outside the region. Exception handlers either belong to the
+ * region entirely, or do not overlap it, or protect the whole region.
+ * <p>
+ * The region is replaced by an invocation of the new method, which receives
+ * the local variables live at any of the entries as arguments. If the region
+ * has several entries, the code jumping to each entry instead pushes the
+ * index of the entry, and the new method receives the index as its last
+ * argument and dispatches on it to the entry.
+ * <p>
+ * Local variables modified by the region and used after it are returned in
+ * an {@code Object[]} allocated by the caller and passed to the new method,
+ * with primitive values boxed. If the region can continue at more than one
+ * place in the original method, the new method returns the index of the exit
+ * taken, and the caller unpacks the variables stored for that exit and jumps
+ * to the corresponding place. A region ending the method returns the result
+ * of the method instead.
+ * <p>
+ * Constructors, interface methods, and methods using subroutines are never
+ * split.
+ */
+final class MethodSplitter {
+
+    /** The maximal size of a region, as a fraction of the size limit. */
+    private static final int __REGION_SIZE_DIVISOR__ = 2;
+
+    /** The code size reserved for the invocation replacing a region. */
+    private static final int __INVOCATION_RESERVE__ = 256;
+
+    /** The minimal size of code without branches to split into blocks. */
+    private static final int __MIN_BLOCK_SIZE__ = 64;
+
+    /** The maximal number of regions moved out of a single method. */
+    private static final int __MAX_REGIONS__ = 64;
+
+    /** The maximal number of parameter slots of a method. */
+    private static final int __MAX_PARAMETER_SLOTS__ = 255;
+
+    private static final String __REGION_METHOD_INFIX__ = "$disl$split$";
+
+    private static final Type __OBJECT_TYPE__ = Type.getType (Object.class);
+
+    /** The type of the {@code null} value used by ASM analyzers. */
+    private static final Type __NULL_TYPE__ = Type.getObjectType ("null");
+
+    /** The exit of a region returning from the method. */
+    private static final int __RETURN_EXIT__ = -1;
+
+    //
+
+    private final ClassNode __class;
+
+    private final MethodNode __method;
+
+    /** Superclasses of classes, used to merge reference types. */
+    private final ClassHierarchy __hierarchy;
+
+    private final boolean __isStatic;
+
+    private final Type __returnType;
+
+    private final int __maxLocals;
+
+    /** Instructions of the method, indexed by their position. */
+    private final AbstractInsnNode [] __insns;
+
+    /** Frames at the instructions, {@code null} for unreachable code. */
+    private final Frame <BasicValue> [] __frames;
+
+    /** Size of the code preceding each instruction. */
+    private final int [] __codeOffsets;
+
+    /** Index of the first real instruction of each basic block. */
+    private final int [] __blockStarts;
+
+    /** Index of the last real instruction of each basic block. */
+    private final int [] __blockEnds;
+
+    /** Basic block of each instruction, -1 before the first block. */
+    private final int [] __blockOf;
+
+    private final int [][] __successors;
+
+    private final boolean [] __fallsThrough;
+
+    private final boolean [] __returns;
+
+    private final boolean [] __usesMonitors;
+
+    /** Lowest and highest index of the predecessors of each block. */
+    private final int [] __minPredecessors;
+
+    private final int [] __maxPredecessors;
+
+    /** Local variables stored in each block. */
+    private final BitSet [] __defs;
+
+    /** Local variables live at the entry of each block. */
+    private final BitSet [] __liveIns;
+
+    /** Live local variables of a merged reference type at each block. */
+    private final BitSet [] __mergedLiveIns;
+
+    private final List <Handler> __handlers;
+
+    //
+
+    private MethodSplitter (
+        final ClassNode classNode, final MethodNode method,
+        final ClassHierarchy hierarchy
+    ) throws AnalyzerException {
+        __class = classNode;
+        __method = method;
+        __hierarchy = hierarchy;
+        __isStatic = (method.access & Opcodes.ACC_STATIC) != 0;
+        __returnType = Type.getReturnType (method.desc);
+        __maxLocals = Math.max (method.maxLocals, __usedLocals (method));
+
+        method.maxLocals = __maxLocals;
+        __insns = method.instructions.toArray ();
+        __frames = __analyze (classNode, method, hierarchy);
+        __codeOffsets = __codeOffsets (__insns);
+
+        //
+        // Start basic blocks also at the boundaries of exception handler
+        // ranges, so that each range covers whole blocks.
+        //
+        final Set <AbstractInsnNode> starts = new HashSet <> (BasicBlockCalc.getAll (
+            method.instructions, method.tryCatchBlocks, false
+        ));
+
+        for (final TryCatchBlockNode tcb : method.tryCatchBlocks) {
+            starts.add (Insns.FORWARD.firstRealInsn (tcb.start));
+            starts.add (Insns.FORWARD.firstRealInsn (tcb.end));
+        }
+
+        starts.add (Insns.FORWARD.firstRealInsn (method.instructions.getFirst ()));
+
+        //
+        // Also split long sequences of code without branches, wherever the
+        // operand stack is empty, so that parts of them can be moved.
+        //
+        __blockOf = new int [__insns.length];
+        final List <Integer> blockStarts = new ArrayList <> ();
+        for (int i = 0; i < __insns.length; i++) {
+            if (starts.contains (__insns [i])) {
+                blockStarts.add (i);
+
+            } else if (__insns [i].getOpcode () != -1
+                && __frames [i] != null && __frames [i].getStackSize () == 0
+                && __codeOffsets [i] - __codeOffsets [blockStarts.get (blockStarts.size () - 1)]
+                    >= __MIN_BLOCK_SIZE__
+            ) {
+                blockStarts.add (i);
+            }
+
+            __blockOf [i] = blockStarts.size () - 1;
+        }
+
+        final int blockCount = blockStarts.size ();
+        __blockStarts = new int [blockCount];
+        __blockEnds = new int [blockCount];
+        for (int block = 0; block < blockCount; block++) {
+            __blockStarts [block] = blockStarts.get (block);
+
+            final int limit = (block + 1 < blockCount) ?
+                blockStarts.get (block + 1) : __insns.length;
+
+            int end = limit - 1;
+            while (__insns [end].getOpcode () == -1) {
+                end--;
+            }
+
+            __blockEnds [block] = end;
+        }
+
+        __successors = new int [blockCount][];
+        __fallsThrough = new boolean [blockCount];
+        __returns = new boolean [blockCount];
+        __usesMonitors = new boolean [blockCount];
+        __minPredecessors = new int [blockCount];
+        __maxPredecessors = new int [blockCount];
+        Arrays.fill (__minPredecessors, Integer.MAX_VALUE);
+        Arrays.fill (__maxPredecessors, -1);
+
+        for (int block = 0; block < blockCount; block++) {
+            __successors [block] = __computeSuccessors (block);
+            for (final int successor : __successors [block]) {
+                __addPredecessor (successor, block, block);
+            }
+
+            for (int i = __blockStarts [block]; i <= __blockEnds [block]; i++) {
+                final int opcode = __insns [i].getOpcode ();
+                if (opcode == Opcodes.MONITORENTER || opcode == Opcodes.MONITOREXIT) {
+                    __usesMonitors [block] = true;
+                }
+            }
+        }
+
+        __handlers = new ArrayList <> ();
+        for (final TryCatchBlockNode tcb : method.tryCatchBlocks) {
+            final Handler handler = __createHandler (tcb);
+            if (!handler.isEmpty ()) {
+                __addPredecessor (handler.block, handler.first, handler.last);
+            }
+
+            __handlers.add (handler);
+        }
+
+        __defs = new BitSet [blockCount];
+        __liveIns = new BitSet [blockCount];
+        __computeLiveness ();
+
+        //
+        // The common superclass of merged reference types may be unknown,
+        // but both the verifier and the stack map frames may use a more
+        // precise type than an object.
+        //
+        __mergedLiveIns = new BitSet [blockCount];
+        for (int block = 0; block < blockCount; block++) {
+            __mergedLiveIns [block] = __mergedLocals (block);
+        }
+    }
+
+    //
+
+    /**
+     * Splits the given method of the given class until the method and all
+     * methods split out of it fit into the given size limit. The method is
+     * modified in the process, even if it cannot be split.
+     *
+     * @param classNode
+     *        the class containing the method
+     * @param method
+     *        the method to split
+     * @param maxSize
+     *        the maximal code size of the resulting methods
+     * @param hierarchy
+     *        the class hierarchy used to compute the stack map frames of the
+     *        class, or {@code null} if the common superclasses are unknown
+     * @param counter
+     *        the counter used to give unique names to the new methods
+     * @return The new methods to be added to the class, or {@code null} if
+     *         the method could not be split.
+     */
+    static List <MethodNode> split (
+        final ClassNode classNode, final MethodNode method,
+        final int maxSize, final ClassHierarchy hierarchy,
+        final AtomicInteger counter
+    ) {
+        if (!__isSplittable (classNode, method)) {
+            return null;
+        }
+
+        final List <MethodNode> result = new ArrayList <> ();
+
+        final Deque <MethodNode> pending = new ArrayDeque <> ();
+        pending.push (method);
+
+        int regionCount = 0;
+        while (!pending.isEmpty ()) {
+            final MethodNode current = pending.peek ();
+            final int size = __codeSize (current);
+            if (size <= maxSize) {
+                pending.pop ();
+                continue;
+            }
+
+            if (++regionCount > __MAX_REGIONS__) {
+                return null;
+            }
+
+            final MethodSplitter splitter;
+            try {
+                splitter = new MethodSplitter (classNode, current, hierarchy);
+            } catch (final AnalyzerException e) {
+                return null;
+            }
+
+            final Region region = splitter.__selectRegion (
+                size - maxSize + __INVOCATION_RESERVE__,
+                maxSize / __REGION_SIZE_DIVISOR__
+            );
+
+            if (region == null || region.size <= __INVOCATION_RESERVE__) {
+                return null;
+            }
+
+            final String name = method.name.replace ("<", "").replace (">", "")
+                + __REGION_METHOD_INFIX__ + counter.getAndIncrement ();
+
+            final MethodNode extracted = splitter.__extract (region, name);
+            result.add (extracted);
+            pending.push (extracted);
+        }
+
+        return result;
+    }
+
+
+    private static boolean __isSplittable (
+        final ClassNode classNode, final MethodNode method
+    ) {
+        if ((classNode.access & Opcodes.ACC_INTERFACE) != 0) {
+            return false;
+        }
+
+        if ("<init>".equals (method.name)) {
+            return false;
+        }
+
+        //
+        // Since Java 9, static final fields can only be set in the class
+        // initializer itself.
+        //
+        if ("<clinit>".equals (method.name)
+            && (classNode.version & 0xFFFF) > Opcodes.V1_8
+        ) {
+            return false;
+        }
+
+        //
+        // The new methods receive the value of "this" in the first slot,
+        // so the method must not store anything else there.
+        //
+        final boolean isStatic = (method.access & Opcodes.ACC_STATIC) != 0;
+        for (
+            AbstractInsnNode insn = method.instructions.getFirst ();
+            insn != null; insn = insn.getNext ()
+        ) {
+            final int opcode = insn.getOpcode ();
+            if (opcode == Opcodes.JSR || opcode == Opcodes.RET) {
+                return false;
+            }
+
+            if (!isStatic && __storedVar (insn) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    //
+
+    private static Frame <BasicValue> [] __analyze (
+        final ClassNode classNode, final MethodNode method,
+        final ClassHierarchy hierarchy
+    ) throws AnalyzerException {
+        //
+        // The maximal stack size may be out of date after instrumentation.
+        // Enlarge it until the analysis succeeds.
+        //
+        while (true) {
+            try {
+                return new Analyzer <> (new TypeInterpreter (hierarchy)).analyze (
+                    classNode.name, method
+                );
+
+            } catch (final AnalyzerException e) {
+                if (!(e.getCause () instanceof IndexOutOfBoundsException)
+                    || method.maxStack >= 0xFFFF
+                ) {
+                    throw e;
+                }
+
+                method.maxStack = Math.max (16, method.maxStack * 2);
+            }
+        }
+    }
+
+
+    private static int [] __codeOffsets (final AbstractInsnNode [] insns) {
+        final int [] result = new int [insns.length + 1];
+
+        final CodeSizeEvaluator cse = new CodeSizeEvaluator (null);
+        for (int i = 0; i < insns.length; i++) {
+            insns [i].accept (cse);
+            result [i + 1] = cse.getMaxSize ();
+        }
+
+        return result;
+    }
+
+
+    private static int __codeSize (final MethodNode method) {
+        final CodeSizeEvaluator cse = new CodeSizeEvaluator (null);
+        method.accept (cse);
+        return cse.getMaxSize ();
+    }
+
+
+    private static int __usedLocals (final MethodNode method) {
+        int result = (Type.getArgumentsAndReturnSizes (method.desc) >> 2)
+            - (((method.access & Opcodes.ACC_STATIC) != 0) ? 1 : 0);
+
+        for (
+            AbstractInsnNode insn = method.instructions.getFirst ();
+            insn != null; insn = insn.getNext ()
+        ) {
+            if (insn instanceof VarInsnNode) {
+                final int opcode = insn.getOpcode ();
+                final boolean wide = opcode == Opcodes.LLOAD || opcode == Opcodes.DLOAD
+                    || opcode == Opcodes.LSTORE || opcode == Opcodes.DSTORE;
+                result = Math.max (result, ((VarInsnNode) insn).var + (wide ? 2 : 1));
+
+            } else if (insn instanceof IincInsnNode) {
+                result = Math.max (result, ((IincInsnNode) insn).var + 1);
+            }
+        }
+
+        return result;
+    }
+
+    //
+
+    private int [] __computeSuccessors (final int block) {
+        final Set <Integer> result = new LinkedHashSet <> ();
+
+        final AbstractInsnNode last = __insns [__blockEnds [block]];
+        final int opcode = last.getOpcode ();
+        if (last instanceof JumpInsnNode) {
+            __addTarget (result, ((JumpInsnNode) last).label);
+            __fallsThrough [block] = opcode != Opcodes.GOTO;
+
+        } else if (last instanceof LookupSwitchInsnNode) {
+            final LookupSwitchInsnNode switchInsn = (LookupSwitchInsnNode) last;
+            switchInsn.labels.forEach (label -> __addTarget (result, label));
+            __addTarget (result, switchInsn.dflt);
+
+        } else if (last instanceof TableSwitchInsnNode) {
+            final TableSwitchInsnNode switchInsn = (TableSwitchInsnNode) last;
+            switchInsn.labels.forEach (label -> __addTarget (result, label));
+            __addTarget (result, switchInsn.dflt);
+
+        } else if (AsmHelper.isReturn (opcode)) {
+            __returns [block] = true;
+
+        } else if (opcode != Opcodes.ATHROW) {
+            __fallsThrough [block] = true;
+        }
+
+        if (__fallsThrough [block] && block + 1 < __blockStarts.length) {
+            result.add (block + 1);
+        }
+
+        return result.stream ().mapToInt (Integer::intValue).toArray ();
+    }
+
+
+    private void __addTarget (final Set <Integer> targets, final LabelNode label) {
+        final int block = __targetBlock (label);
+        if (block >= 0) {
+            targets.add (block);
+        }
+    }
+
+
+    private void __addPredecessor (final int block, final int first, final int last) {
+        __minPredecessors [block] = Math.min (__minPredecessors [block], first);
+        __maxPredecessors [block] = Math.max (__maxPredecessors [block], last);
+    }
+
+
+    /**
+     * Returns the basic block starting with the first real instruction
+     * following the given label, or -1 if there is no such instruction.
+     */
+    private int __targetBlock (final LabelNode label) {
+        final AbstractInsnNode insn = Insns.FORWARD.firstRealInsn (label);
+        return (insn != null) ? __blockOf [__indexOf (insn)] : -1;
+    }
+
+
+    private int __indexOf (final AbstractInsnNode insn) {
+        return __method.instructions.indexOf (insn);
+    }
+
+
+    private Handler __createHandler (final TryCatchBlockNode tcb) {
+        final int handlerBlock = __targetBlock (tcb.handler);
+
+        final AbstractInsnNode first = Insns.FORWARD.firstRealInsn (tcb.start);
+        final int endIndex = __indexOf (tcb.end);
+        if (first == null || __indexOf (first) >= endIndex) {
+            return new Handler (tcb, 0, -1, handlerBlock);
+        }
+
+        final AbstractInsnNode last = Insns.REVERSE.firstRealInsn (tcb.end);
+        return new Handler (
+            tcb, __blockOf [__indexOf (first)], __blockOf [__indexOf (last)],
+            handlerBlock
+        );
+    }
+
+
+    /**
+     * Computes the local variables live at the entry of each basic block.
+     * Variables live at the entry of an exception handler are considered
+     * live in all blocks protected by the handler.
+     */
+    private void __computeLiveness () {
+        final int blockCount = __blockStarts.length;
+        final BitSet [] uses = new BitSet [blockCount];
+
+        final List <List <Integer>> handlerBlocks = new ArrayList <> ();
+        for (int block = 0; block < blockCount; block++) {
+            handlerBlocks.add (new ArrayList <> ());
+        }
+
+        for (final Handler handler : __handlers) {
+            for (int block = handler.first; block <= handler.last; block++) {
+                if (handler.block >= 0) {
+                    handlerBlocks.get (block).add (handler.block);
+                }
+            }
+        }
+
+        for (int block = 0; block < blockCount; block++) {
+            final BitSet use = new BitSet ();
+            final BitSet def = new BitSet ();
+
+            for (int i = __blockStarts [block]; i <= __blockEnds [block]; i++) {
+                final int loaded = __loadedVar (__insns [i]);
+                if (loaded >= 0 && !def.get (loaded)) {
+                    use.set (loaded);
+                }
+
+                final int stored = __storedVar (__insns [i]);
+                if (stored >= 0) {
+                    def.set (stored);
+                }
+            }
+
+            uses [block] = use;
+            __defs [block] = def;
+            __liveIns [block] = new BitSet ();
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            for (int block = blockCount - 1; block >= 0; block--) {
+                final BitSet liveIn = new BitSet ();
+                for (final int successor : __successors [block]) {
+                    liveIn.or (__liveIns [successor]);
+                }
+
+                liveIn.andNot (__defs [block]);
+                liveIn.or (uses [block]);
+
+                for (final int handlerBlock : handlerBlocks.get (block)) {
+                    liveIn.or (__liveIns [handlerBlock]);
+                }
+
+                if (!liveIn.equals (__liveIns [block])) {
+                    __liveIns [block] = liveIn;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+
+    private static int __loadedVar (final AbstractInsnNode insn) {
+        final int opcode = insn.getOpcode ();
+        if (opcode >= Opcodes.ILOAD && opcode <= Opcodes.ALOAD) {
+            return ((VarInsnNode) insn).var;
+        } else if (opcode == Opcodes.IINC) {
+            return ((IincInsnNode) insn).var;
+        } else {
+            return -1;
+        }
+    }
+
+
+    private static int __storedVar (final AbstractInsnNode insn) {
+        final int opcode = insn.getOpcode ();
+        if (opcode >= Opcodes.ISTORE && opcode <= Opcodes.ASTORE) {
+            return ((VarInsnNode) insn).var;
+        } else if (opcode == Opcodes.IINC) {
+            return ((IincInsnNode) insn).var;
+        } else {
+            return -1;
+        }
+    }
+
+    //
+
+    /**
+     * Selects a region of at most the given size to move out of the method.
+     * Returns the first region found that is at least as large as the given
+     * needed size, or the largest region found, or {@code null} if there is
+     * no suitable region.
+     */
+    private Region __selectRegion (final int neededSize, final int maxSize) {
+        final int blockCount = __blockStarts.length;
+        final int [] targets = new int [blockCount];
+        final int [] stackTargets = new int [blockCount];
+        final int [] badEntries = new int [blockCount];
+        final int [] handlerConflicts = new int [blockCount + 1];
+        final List <Handler> coveringHandlers = new ArrayList <> ();
+
+        Region result = null;
+        for (int first = 0; first < blockCount; first++) {
+            if (!__isEnterable (first)) {
+                continue;
+            }
+
+            //
+            // Extend the region block by block, tracking the exits to blocks
+            // following the region, and the blocks entered from blocks
+            // following the region. Both may still become part of it.
+            //
+            Arrays.fill (targets, first, blockCount, 0);
+            Arrays.fill (stackTargets, first, blockCount, 0);
+            Arrays.fill (badEntries, first, blockCount, 0);
+
+            Arrays.fill (handlerConflicts, first, blockCount + 1, 0);
+            coveringHandlers.clear ();
+            for (final Handler handler : __handlers) {
+                __constrainRegions (handler, first, handlerConflicts, coveringHandlers);
+            }
+
+            int pendingTargets = 0;
+            int pendingStackTargets = 0;
+            int pendingBadEntries = 0;
+            int currentHandlerConflicts = 0;
+            boolean exitsBackwards = false;
+            boolean returns = false;
+            final BitSet defs = new BitSet ();
+            final BitSet mergedUses = new BitSet ();
+
+            final List <Integer> candidates = new ArrayList <> ();
+            EXTEND: for (int last = first; last < blockCount; last++) {
+                final int size = __regionSize (first, last);
+                if (size > maxSize || __usesMonitors [last]) {
+                    break;
+                }
+
+                currentHandlerConflicts += handlerConflicts [last];
+
+                if (last > first) {
+                    pendingTargets -= targets [last];
+                    pendingStackTargets -= stackTargets [last];
+                    pendingBadEntries -= badEntries [last];
+
+                    final boolean enterable = __isEnterable (last);
+                    if (__minPredecessors [last] < first && !enterable) {
+                        break;
+                    }
+
+                    if (__maxPredecessors [last] > last && !enterable) {
+                        badEntries [__maxPredecessors [last]]++;
+                        pendingBadEntries++;
+                    }
+                }
+
+                for (final int successor : __successors [last]) {
+                    final boolean emptyStack = __hasEmptyStack (successor);
+                    if (successor < first) {
+                        if (!emptyStack) {
+                            break EXTEND;
+                        }
+
+                        exitsBackwards = true;
+                        mergedUses.or (__mergedLiveIns [successor]);
+
+                    } else if (successor > last) {
+                        targets [successor]++;
+                        pendingTargets++;
+                        mergedUses.or (__mergedLiveIns [successor]);
+
+                        if (!emptyStack) {
+                            stackTargets [successor]++;
+                            pendingStackTargets++;
+                        }
+                    }
+                }
+
+                defs.or (__defs [last]);
+                returns |= __returns [last];
+
+                //
+                // Values can be only returned from the region if the method
+                // has nothing else to return.
+                //
+                final boolean exits = exitsBackwards || pendingTargets > 0;
+                if (pendingBadEntries > 0 || pendingStackTargets > 0
+                    || currentHandlerConflicts > 0
+                    || defs.intersects (mergedUses)
+                    || (returns && exits && __returnType.getSort () != Type.VOID)
+                    || !__checkHandlers (coveringHandlers, first, last, defs)
+                ) {
+                    continue;
+                }
+
+                candidates.add (exits ? last : -last - 1);
+            }
+
+            //
+            // Take the largest region whose entries agree on the types of
+            // the local variables passed to the new method.
+            //
+            for (int i = candidates.size () - 1; i >= 0; i--) {
+                final int candidate = candidates.get (i);
+                final boolean isTail = candidate < 0;
+                final Region region = __createRegion (
+                    first, isTail ? -candidate - 1 : candidate, isTail
+                );
+
+                if (region != null) {
+                    if (region.size >= neededSize) {
+                        return region;
+                    }
+
+                    if (result == null || region.size > result.size) {
+                        result = region;
+                    }
+
+                    break;
+                }
+            }
+        }
+
+        return result;
+    }
+
+
+    private int __regionSize (final int first, final int last) {
+        return __codeOffsets [__blockEnds [last] + 1]
+            - __codeOffsets [__blockStarts [first]];
+    }
+
+
+    /**
+     * Determines whether the given block can be entered through a new
+     * method, i.e., whether the block is reachable, starts with an empty
+     * operand stack, and all its live local variables can be passed to the
+     * new method.
+     */
+    private boolean __isEnterable (final int block) {
+        final Frame <BasicValue> frame = __frames [__blockStarts [block]];
+        return frame != null && frame.getStackSize () == 0
+            && __mergedLiveIns [block].isEmpty ();
+    }
+
+
+    private boolean __hasEmptyStack (final int block) {
+        final Frame <BasicValue> frame = __frames [__blockStarts [block]];
+        return frame == null || frame.getStackSize () == 0;
+    }
+
+
+    /**
+     * Creates a region of the given blocks. Collects the entries of the
+     * region, and the local variables live at the entries, which are passed
+     * to the new method. Returns {@code null} if the variables cannot be
+     * passed, because their types differ between the entries, or because
+     * there are too many of them.
+     */
+    private Region __createRegion (
+        final int first, final int last, final boolean isTail
+    ) {
+        final List <Integer> entries = new ArrayList <> ();
+        entries.add (first);
+
+        final BitSet defs = new BitSet ();
+        final BitSet live = (BitSet) __liveIns [first].clone ();
+        for (int block = first; block <= last; block++) {
+            defs.or (__defs [block]);
+
+            if (block > first && (
+                __minPredecessors [block] < first || __maxPredecessors [block] > last
+            )) {
+                if (__entryLabels (block).isEmpty ()) {
+                    return null;
+                }
+
+                entries.add (block);
+                live.or (__liveIns [block]);
+            }
+        }
+
+        // Reserve slots for the receiver, the results, and the entry index.
+        int slots = 3;
+
+        final List <Integer> paramVars = new ArrayList <> ();
+        final List <Type> paramTypes = new ArrayList <> ();
+        for (int var = live.nextSetBit (0); var >= 0; var = live.nextSetBit (var + 1)) {
+            Type type = null;
+            for (final int entry : entries) {
+                if (!__liveIns [entry].get (var)) {
+                    continue;
+                }
+
+                final Type entryType = __localType (__frames [__blockStarts [entry]], var);
+                if (entryType == null) {
+                    return null;
+                }
+
+                type = (type == null) ? entryType : __mergeTypes (type, entryType);
+                if (type == null) {
+                    return null;
+                }
+            }
+
+            if (var == 0 && !__isStatic) {
+                continue;
+            }
+
+            paramVars.add (var);
+            paramTypes.add (type);
+            slots += type.getSize ();
+        }
+
+        if (slots > __MAX_PARAMETER_SLOTS__) {
+            return null;
+        }
+
+        return new Region (
+            first, last, __regionSize (first, last), defs, isTail,
+            entries, paramVars, paramTypes, !__isStatic && live.get (0)
+        );
+    }
+
+
+    /**
+     * Returns the type of a variable holding values of the two given types,
+     * or {@code null} if there is no such type known to the verifier.
+     */
+    private Type __mergeTypes (final Type type1, final Type type2) {
+        if (type1.equals (type2)) {
+            return type1;
+        }
+
+        if (!AsmHelper.isReferenceType (type1) || !AsmHelper.isReferenceType (type2)) {
+            return null;
+        }
+
+        if (__NULL_TYPE__.equals (type1)) {
+            return type2;
+        } else if (__NULL_TYPE__.equals (type2)) {
+            return type1;
+        } else if (__OBJECT_TYPE__.equals (type1) || __OBJECT_TYPE__.equals (type2)) {
+            return __OBJECT_TYPE__;
+        } else {
+            return __commonSuperClass (__hierarchy, type1, type2);
+        }
+    }
+
+
+    /**
+     * Returns the common superclass of the two given reference types, which
+     * is the type the verifier and the stack map frames use for a merge of
+     * the types, or {@code null} if the common superclass is not known.
+     */
+    private static Type __commonSuperClass (
+        final ClassHierarchy hierarchy, final Type type1, final Type type2
+    ) {
+        if (hierarchy == null
+            || type1.getSort () != Type.OBJECT || type2.getSort () != Type.OBJECT
+        ) {
+            return null;
+        }
+
+        final String result = hierarchy.commonSuperClass (
+            type1.getInternalName (), type2.getInternalName ()
+        );
+
+        return (result != null) ? Type.getObjectType (result) : null;
+    }
+
+
+    /**
+     * Determines whether a variable of the given type can be loaded where the
+     * verifier assumes the variable to hold a value of the given known type.
+     */
+    private static boolean __isAssignable (final Type type, final Type knownType) {
+        if (knownType == null) {
+            return false;
+        }
+
+        if (type.equals (knownType)) {
+            return true;
+        }
+
+        return AsmHelper.isReferenceType (type) && AsmHelper.isReferenceType (knownType)
+            && (__OBJECT_TYPE__.equals (type) || __NULL_TYPE__.equals (knownType));
+    }
+
+
+    /**
+     * Returns the labels preceding the first instruction of the given block.
+     */
+    private List <LabelNode> __entryLabels (final int block) {
+        final List <LabelNode> result = new ArrayList <> ();
+        for (int i = __blockEnds [block - 1] + 1; i < __blockStarts [block]; i++) {
+            if (__insns [i] instanceof LabelNode) {
+                result.add ((LabelNode) __insns [i]);
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Returns the live local variables holding a merge of different reference
+     * types at the entry of the given block. The interpreter only knows such
+     * a value to be an {@link Object}, which is not enough for the verifier
+     * to accept passing the value between methods.
+     */
+    private BitSet __mergedLocals (final int block) {
+        final BitSet result = new BitSet ();
+
+        final Frame <BasicValue> frame = __frames [__blockStarts [block]];
+        if (frame != null) {
+            final BitSet live = __liveIns [block];
+            for (int var = live.nextSetBit (0); var >= 0; var = live.nextSetBit (var + 1)) {
+                if (var < frame.getLocals () && frame.getLocal (var) instanceof MergedValue) {
+                    result.set (var);
+                }
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Records the conflicts of regions starting at the given block with the
+     * given exception handler, as counts of conflicting regions ending at
+     * each block, to be summed up for the regions ending at later blocks.
+     * A handler protecting the first block of the regions, or protecting no
+     * code, is added to the given list of handlers to check for each region.
+     */
+    private static void __constrainRegions (
+        final Handler handler, final int first,
+        final int [] conflicts, final List <Handler> coveringHandlers
+    ) {
+        if (handler.isEmpty () || handler.covers (first)) {
+            coveringHandlers.add (handler);
+            return;
+        }
+
+        final int end = conflicts.length - 1;
+        if (handler.last < first) {
+            // The handler code must not be inside the region.
+            if (handler.block >= first) {
+                __addConflicts (conflicts, handler.block, end);
+            }
+
+            return;
+        }
+
+        //
+        // Before the protected code is inside the region, the handler code
+        // must not be inside the region either. Once the protected code is
+        // inside the region, the handler code must be inside too.
+        //
+        if (first <= handler.block && handler.block < handler.first) {
+            __addConflicts (conflicts, handler.block, handler.first);
+        }
+
+        if (handler.block < first) {
+            __addConflicts (conflicts, handler.first, end);
+        } else if (handler.block > handler.last) {
+            __addConflicts (conflicts, handler.first, handler.block);
+        } else {
+            __addConflicts (conflicts, handler.first, handler.last);
+        }
+    }
+
+
+    /** Adds a conflict to the regions ending in the given range of blocks. */
+    private static void __addConflicts (
+        final int [] conflicts, final int from, final int to
+    ) {
+        conflicts [from]++;
+        conflicts [to]--;
+    }
+
+
+    /**
+     * Checks the exception handlers against a region. Each handler must
+     * either protect only instructions inside the region and start inside
+     * the region, or protect no instructions in the region, or protect the
+     * whole region and start outside it. In the last case, the handler must
+     * not use variables modified in the region, because the handler does not
+     * see the modifications made before an exception.
+     */
+    private boolean __checkHandlers (
+        final List <Handler> handlers,
+        final int first, final int last, final BitSet defs
+    ) {
+        final int firstIndex = __blockStarts [first];
+        final int lastIndex = __blockEnds [last];
+
+        for (final Handler handler : handlers) {
+            final boolean startsInside = first <= handler.block && handler.block <= last;
+
+            if (handler.isEmpty ()) {
+                final TryCatchBlockNode tcb = handler.tcb;
+                if (startsInside
+                    || __isInside (tcb.start, firstIndex, lastIndex)
+                    || __isInside (tcb.end, firstIndex, lastIndex)
+                ) {
+                    return false;
+                }
+
+            } else if (handler.last < first || last < handler.first) {
+                if (startsInside) {
+                    return false;
+                }
+
+            } else if (first <= handler.first && handler.last <= last && startsInside) {
+                continue;
+
+            } else if (handler.first <= first && last <= handler.last && !startsInside) {
+                if (defs.intersects (__liveIns [handler.block])) {
+                    return false;
+                }
+
+            } else {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    private boolean __isInside (
+        final AbstractInsnNode insn, final int firstIndex, final int lastIndex
+    ) {
+        final int index = __indexOf (insn);
+        return firstIndex < index && index < lastIndex;
+    }
+
+
+    private static Type __localType (final Frame <BasicValue> frame, final int var) {
+        if (frame == null || var >= frame.getLocals ()) {
+            return null;
+        }
+
+        final Type type = frame.getLocal (var).getType ();
+        return (type != null && type.getSort () != Type.VOID) ? type : null;
+    }
+
+    //
+
+    /**
+     * Moves the given region into a new method with the given name, and
+     * replaces it with an invocation of the new method.
+     *
+     * @return The new method.
+     */
+    private MethodNode __extract (final Region region, final String name) {
+        final int firstIndex = __blockStarts [region.first];
+        final int lastIndex = __blockEnds [region.last];
+
+        //
+        // Pass the live variables with known types to the new method. The
+        // receiver is passed implicitly, and null values need not be passed.
+        //
+        final List <Integer> paramVars = new ArrayList <> ();
+        final List <Type> paramTypes = new ArrayList <> ();
+        final List <Integer> nullVars = new ArrayList <> ();
+        for (int i = 0; i < region.paramVars.size (); i++) {
+            final Type type = region.paramTypes.get (i);
+            if (__NULL_TYPE__.equals (type)) {
+                nullVars.add (region.paramVars.get (i));
+            } else {
+                paramVars.add (region.paramVars.get (i));
+                paramTypes.add (type);
+            }
+        }
+
+        //
+        // Collect the exits of the region, and the variables modified in the
+        // region that are used after each exit.
+        //
+        final List <Integer> exits = new ArrayList <> ();
+        if (!region.isTail) {
+            for (int block = region.first; block <= region.last; block++) {
+                for (final int successor : __successors [block]) {
+                    if (!region.contains (successor) && !exits.contains (successor)) {
+                        exits.add (successor);
+                    }
+                }
+
+                if (__returns [block] && !exits.contains (__RETURN_EXIT__)) {
+                    exits.add (__RETURN_EXIT__);
+                }
+            }
+        }
+
+        final List <List <Integer>> exitVars = new ArrayList <> ();
+        final List <List <Type>> exitTypes = new ArrayList <> ();
+        int resultCount = 0;
+
+        for (final int exit : exits) {
+            final List <Integer> vars = new ArrayList <> ();
+            final List <Type> types = new ArrayList <> ();
+
+            if (exit != __RETURN_EXIT__) {
+                final Frame <BasicValue> exitFrame = __frames [__blockStarts [exit]];
+                final BitSet used = (BitSet) region.defs.clone ();
+                used.and (__liveIns [exit]);
+
+                int count = 0;
+                for (int var = used.nextSetBit (0); var >= 0; var = used.nextSetBit (var + 1)) {
+                    final Type type = __localType (exitFrame, var);
+                    if (type != null) {
+                        vars.add (var);
+                        types.add (type);
+                        count += __NULL_TYPE__.equals (type) ? 0 : 1;
+                    }
+                }
+
+                resultCount = Math.max (resultCount, count);
+            }
+
+            exitVars.add (vars);
+            exitTypes.add (types);
+        }
+
+        //
+        // Determine the signature of the new method. The variables used in
+        // the region are moved above the parameters.
+        //
+        final boolean hasEntryIndex = region.entries.size () > 1;
+        final List <Type> argTypes = new ArrayList <> (paramTypes);
+        if (resultCount > 0) {
+            argTypes.add (Type.getType (Object [].class));
+        }
+
+        if (hasEntryIndex) {
+            argTypes.add (Type.INT_TYPE);
+        }
+
+        final Type returnType = region.isTail ? __returnType
+            : (exits.size () > 1) ? Type.INT_TYPE : Type.VOID_TYPE;
+
+        final String desc = Type.getMethodDescriptor (
+            returnType, argTypes.toArray (new Type [argTypes.size ()])
+        );
+
+        int shift = __isStatic ? 0 : 1;
+        final List <Integer> paramSlots = new ArrayList <> ();
+        for (final Type type : paramTypes) {
+            paramSlots.add (shift);
+            shift += type.getSize ();
+        }
+
+        final int resultsSlot = shift;
+        if (resultCount > 0) {
+            shift++;
+        }
+
+        final int entrySlot = shift;
+        if (hasEntryIndex) {
+            shift++;
+        }
+
+        final MethodNode result = new MethodNode (
+            Opcodes.ASM5,
+            Opcodes.ACC_PRIVATE | Opcodes.ACC_SYNTHETIC
+                | (__method.access & (Opcodes.ACC_STATIC | Opcodes.ACC_STRICT)),
+            name, desc, null, null
+        );
+
+        result.maxLocals = __maxLocals + shift;
+        result.maxStack = Math.max (__method.maxStack, 4);
+
+        //
+        // Create the code of the new method: copy the parameters to the
+        // slots used by the region and jump to the selected entry, followed
+        // by the region code, and by code storing the results at each exit.
+        //
+        final LabelNode regionStart = new LabelNode ();
+        final LabelNode regionEnd = new LabelNode ();
+        final LabelNode [] exitLabels = new LabelNode [exits.size ()];
+        for (int i = 0; i < exitLabels.length; i++) {
+            exitLabels [i] = new LabelNode ();
+        }
+
+        final Map <LabelNode, LabelNode> labels = __mapLabels (
+            region, regionStart, exits, exitLabels
+        );
+
+        final InsnList code = result.instructions;
+        final LabelNode methodStart = new LabelNode ();
+        code.add (methodStart);
+
+        final LineNumberNode lineNumber = __lineNumberBefore (__insns [firstIndex]);
+        if (lineNumber != null) {
+            code.add (new LineNumberNode (lineNumber.line, methodStart));
+        }
+
+        if (region.usesThis) {
+            code.add (AsmHelper.loadThis ());
+            code.add (AsmHelper.storeObjectVar (shift));
+        }
+
+        for (int i = 0; i < paramVars.size (); i++) {
+            code.add (AsmHelper.loadVar (paramTypes.get (i), paramSlots.get (i)));
+            code.add (AsmHelper.storeVar (paramTypes.get (i), paramVars.get (i) + shift));
+        }
+
+        for (final int var : nullVars) {
+            code.add (AsmHelper.loadNull ());
+            code.add (AsmHelper.storeObjectVar (var + shift));
+        }
+
+        if (hasEntryIndex) {
+            final LabelNode [] entryLabels = new LabelNode [region.entries.size ()];
+            entryLabels [0] = regionStart;
+            for (int i = 1; i < entryLabels.length; i++) {
+                entryLabels [i] = labels.get (__entryLabels (region.entries.get (i)).get (0));
+            }
+
+            code.add (new VarInsnNode (Opcodes.ILOAD, entrySlot));
+            code.add (new TableSwitchInsnNode (
+                0, entryLabels.length - 1, regionStart, entryLabels
+            ));
+        }
+
+        code.add (regionStart);
+        for (int i = firstIndex; i <= lastIndex; i++) {
+            final AbstractInsnNode insn = __insns [i];
+            if (insn instanceof FrameNode) {
+                continue;
+            }
+
+            if (insn instanceof LineNumberNode && !labels.containsKey (((LineNumberNode) insn).start)) {
+                code.add (new LineNumberNode (((LineNumberNode) insn).line, regionStart));
+                continue;
+            }
+
+            if (insn.getOpcode () == Opcodes.RETURN && !region.isTail) {
+                code.add (new JumpInsnNode (
+                    Opcodes.GOTO, exitLabels [exits.indexOf (__RETURN_EXIT__)]
+                ));
+                continue;
+            }
+
+            final AbstractInsnNode copy = insn.clone (labels);
+            if (copy instanceof VarInsnNode) {
+                ((VarInsnNode) copy).var += shift;
+            } else if (copy instanceof IincInsnNode) {
+                ((IincInsnNode) copy).var += shift;
+            }
+
+            code.add (copy);
+        }
+
+        code.add (regionEnd);
+        if (__fallsThrough [region.last]) {
+            code.add (new JumpInsnNode (
+                Opcodes.GOTO, exitLabels [exits.indexOf (region.last + 1)]
+            ));
+        }
+
+        __storeResults (code, exitLabels, exitVars, exitTypes, resultsSlot, shift);
+
+        //
+        // Move the exception handlers inside the region to the new method.
+        //
+        final Set <LabelNode> movedLabels = new HashSet <> ();
+        for (int i = firstIndex + 1; i < lastIndex; i++) {
+            if (__insns [i] instanceof LabelNode) {
+                movedLabels.add ((LabelNode) __insns [i]);
+            }
+        }
+
+        final List <TryCatchBlockNode> movedTcbs = new ArrayList <> ();
+        for (final Handler handler : __handlers) {
+            if (!handler.isEmpty () && region.contains (handler.block)) {
+                final TryCatchBlockNode tcb = handler.tcb;
+                result.tryCatchBlocks.add (new TryCatchBlockNode (
+                    movedLabels.contains (tcb.start) ? labels.get (tcb.start) : regionStart,
+                    movedLabels.contains (tcb.end) ? labels.get (tcb.end) : regionEnd,
+                    movedLabels.contains (tcb.handler) ? labels.get (tcb.handler) : regionStart,
+                    tcb.type
+                ));
+
+                movedTcbs.add (tcb);
+            }
+        }
+
+        //
+        // Replace the region with the invocation of the new method, and
+        // continue at the exit selected by the new method. The region code
+        // is removed first, because the labels of its entries are reused.
+        //
+        final LabelNode [] exitTargets = new LabelNode [exits.size ()];
+        for (int i = 0; i < exitTargets.length; i++) {
+            final int exit = exits.get (i);
+            exitTargets [i] = (exit != __RETURN_EXIT__) ? __labelBefore (exit) : null;
+        }
+
+        final InsnList instructions = __method.instructions;
+        final AbstractInsnNode regionPrevious = __insns [firstIndex].getPrevious ();
+        for (int i = firstIndex; i <= lastIndex; i++) {
+            instructions.remove (__insns [i]);
+        }
+
+        final int resultsVar = __maxLocals;
+        final int indexVar = resultsVar + 1;
+        final int entryVar = indexVar + 1;
+        __method.maxLocals = entryVar + 1;
+
+        final InsnList invocation = new InsnList ();
+        if (hasEntryIndex) {
+            __enterRegion (invocation, region, paramVars, paramTypes, entryVar);
+        }
+
+        if (resultCount > 0) {
+            invocation.add (AsmHelper.loadConst (resultCount));
+            invocation.add (new TypeInsnNode (
+                Opcodes.ANEWARRAY, __OBJECT_TYPE__.getInternalName ()
+            ));
+            invocation.add (AsmHelper.storeObjectVar (resultsVar));
+        }
+
+        if (!__isStatic) {
+            invocation.add (AsmHelper.loadThis ());
+        }
+
+        for (int i = 0; i < paramVars.size (); i++) {
+            invocation.add (AsmHelper.loadVar (paramTypes.get (i), paramVars.get (i)));
+        }
+
+        if (resultCount > 0) {
+            invocation.add (AsmHelper.loadObjectVar (resultsVar));
+        }
+
+        if (hasEntryIndex) {
+            invocation.add (new VarInsnNode (Opcodes.ILOAD, entryVar));
+        }
+
+        invocation.add (new MethodInsnNode (
+            __isStatic ? Opcodes.INVOKESTATIC : Opcodes.INVOKESPECIAL,
+            __class.name, name, desc, false
+        ));
+
+        if (region.isTail) {
+            invocation.add (new InsnNode (__returnType.getOpcode (Opcodes.IRETURN)));
+
+        } else if (exits.size () == 1) {
+            __unpackResults (invocation, exitVars.get (0), exitTypes.get (0), resultsVar);
+            invocation.add (__jumpToExit (exitTargets [0]));
+
+        } else {
+            __dispatchExits (invocation, exitTargets, exitVars, exitTypes, resultsVar, indexVar);
+        }
+
+        if (regionPrevious != null) {
+            instructions.insert (regionPrevious, invocation);
+        } else {
+            instructions.insert (invocation);
+        }
+
+        __method.tryCatchBlocks.removeAll (movedTcbs);
+
+        //
+        // Drop debugging information referring to the moved code.
+        //
+        if (__method.localVariables != null) {
+            __method.localVariables.removeIf (
+                lv -> movedLabels.contains (lv.start) || movedLabels.contains (lv.end)
+            );
+        }
+
+        __removeAnnotations (__method.visibleLocalVariableAnnotations, movedLabels);
+        __removeAnnotations (__method.invisibleLocalVariableAnnotations, movedLabels);
+
+        return result;
+    }
+
+
+    /**
+     * Maps the labels referenced in a region to the labels in the new
+     * method. The labels inside the region are copied, jumps to the first
+     * block of the region are redirected to the start of the region code,
+     * and jumps out of the region are redirected to the code of the
+     * corresponding exit.
+     */
+    private Map <LabelNode, LabelNode> __mapLabels (
+        final Region region, final LabelNode regionStart,
+        final List <Integer> exits, final LabelNode [] exitLabels
+    ) {
+        final int firstIndex = __blockStarts [region.first];
+        final int lastIndex = __blockEnds [region.last];
+
+        final Map <LabelNode, LabelNode> result = new HashMap <> ();
+        for (int i = firstIndex + 1; i < lastIndex; i++) {
+            if (__insns [i] instanceof LabelNode) {
+                result.put ((LabelNode) __insns [i], new LabelNode ());
+            }
+        }
+
+        for (int i = firstIndex; i <= lastIndex; i++) {
+            final AbstractInsnNode insn = __insns [i];
+            final List <LabelNode> targets = new ArrayList <> ();
+            if (insn instanceof JumpInsnNode) {
+                targets.add (((JumpInsnNode) insn).label);
+
+            } else if (insn instanceof LookupSwitchInsnNode) {
+                targets.addAll (((LookupSwitchInsnNode) insn).labels);
+                targets.add (((LookupSwitchInsnNode) insn).dflt);
+
+            } else if (insn instanceof TableSwitchInsnNode) {
+                targets.addAll (((TableSwitchInsnNode) insn).labels);
+                targets.add (((TableSwitchInsnNode) insn).dflt);
+            }
+
+            for (final LabelNode target : targets) {
+                if (!result.containsKey (target)) {
+                    final int exit = exits.indexOf (__targetBlock (target));
+                    result.put (target, (exit >= 0) ? exitLabels [exit] : regionStart);
+                }
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Creates the code storing the results at the exits of a new method and
+     * returning the index of the exit. Exits with the same results share the
+     * code storing them.
+     */
+    private static void __storeResults (
+        final InsnList insns, final LabelNode [] exitLabels,
+        final List <List <Integer>> exitVars, final List <List <Type>> exitTypes,
+        final int resultsSlot, final int shift
+    ) {
+        if (exitLabels.length == 1) {
+            insns.add (exitLabels [0]);
+            __packResults (insns, exitVars.get (0), exitTypes.get (0), resultsSlot, shift);
+            insns.add (new InsnNode (Opcodes.RETURN));
+            return;
+        }
+
+        final Map <List <?>, List <Integer>> groups = __groupExits (exitVars, exitTypes);
+        for (final List <Integer> group : groups.values ()) {
+            //
+            // The last exit of the group falls through to the shared code.
+            //
+            final LabelNode storeLabel = new LabelNode ();
+            for (int i = 0; i < group.size (); i++) {
+                final int exit = group.get (i);
+                insns.add (exitLabels [exit]);
+                insns.add (AsmHelper.loadConst (exit));
+                if (i < group.size () - 1) {
+                    insns.add (new JumpInsnNode (Opcodes.GOTO, storeLabel));
+                }
+            }
+
+            final int first = group.get (0);
+            insns.add (storeLabel);
+            __packResults (insns, exitVars.get (first), exitTypes.get (first), resultsSlot, shift);
+            insns.add (new InsnNode (Opcodes.IRETURN));
+        }
+    }
+
+
+    private static void __packResults (
+        final InsnList insns, final List <Integer> vars, final List <Type> types,
+        final int resultsSlot, final int shift
+    ) {
+        int index = 0;
+        for (int i = 0; i < vars.size (); i++) {
+            final Type type = types.get (i);
+            if (__NULL_TYPE__.equals (type)) {
+                continue;
+            }
+
+            insns.add (AsmHelper.loadObjectVar (resultsSlot));
+            insns.add (AsmHelper.loadConst (index++));
+            insns.add (AsmHelper.loadVar (type, vars.get (i) + shift));
+            if (!AsmHelper.isReferenceType (type)) {
+                insns.add (AsmHelper.boxValueOnStack (type));
+            }
+
+            insns.add (new InsnNode (Opcodes.AASTORE));
+        }
+    }
+
+
+    /**
+     * Groups the exits with the same results. The exits without results
+     * form groups of their own.
+     */
+    private static Map <List <?>, List <Integer>> __groupExits (
+        final List <List <Integer>> exitVars, final List <List <Type>> exitTypes
+    ) {
+        final Map <List <?>, List <Integer>> result = new LinkedHashMap <> ();
+        for (int exit = 0; exit < exitVars.size (); exit++) {
+            final List <?> key = exitVars.get (exit).isEmpty () ?
+                Arrays.asList (exit) : Arrays.asList (exitVars.get (exit), exitTypes.get (exit));
+
+            result.computeIfAbsent (key, k -> new ArrayList <> ()).add (exit);
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Creates the code entering a region with several entries. The labels
+     * of each entry are moved to code pushing the index of the entry, which
+     * is then kept in the given local variable. Variables passed to the new
+     * method, but not known to have the type of the parameter at an entry,
+     * are initialized to a default value.
+     */
+    private void __enterRegion (
+        final InsnList insns, final Region region,
+        final List <Integer> paramVars, final List <Type> paramTypes,
+        final int entryVar
+    ) {
+        final LabelNode invocation = new LabelNode ();
+        final int entryCount = region.entries.size ();
+        for (int entry = 0; entry < entryCount; entry++) {
+            final int block = region.entries.get (entry);
+            if (entry > 0) {
+                __entryLabels (block).forEach (insns::add);
+            }
+
+            final Frame <BasicValue> frame = __frames [__blockStarts [block]];
+            for (int i = 0; i < paramVars.size (); i++) {
+                final int var = paramVars.get (i);
+                final Type type = paramTypes.get (i);
+                if (!__isAssignable (type, __localType (frame, var))) {
+                    insns.add (AsmHelper.isReferenceType (type) ?
+                        AsmHelper.loadNull () : AsmHelper.loadDefault (type));
+                    insns.add (AsmHelper.storeVar (type, var));
+                }
+            }
+
+            insns.add (AsmHelper.loadConst (entry));
+            if (entry < entryCount - 1) {
+                insns.add (new JumpInsnNode (Opcodes.GOTO, invocation));
+            }
+        }
+
+        insns.add (invocation);
+        insns.add (new VarInsnNode (Opcodes.ISTORE, entryVar));
+    }
+
+
+    /**
+     * Continues at the exit selected by the index on the operand stack.
+     * Exits without results are jumped to directly. Exits with the same
+     * results share the code unpacking the results, which then selects the
+     * exit again using the index kept in a local variable. The exits are
+     * given by the labels to jump to, or {@code null} for a return.
+     */
+    private static void __dispatchExits (
+        final InsnList insns, final LabelNode [] exitTargets,
+        final List <List <Integer>> exitVars, final List <List <Type>> exitTypes,
+        final int resultsVar, final int indexVar
+    ) {
+        final Map <List <?>, List <Integer>> groups = __groupExits (exitVars, exitTypes);
+        final LabelNode [] cases = new LabelNode [exitTargets.length];
+        final List <List <Integer>> unpackedGroups = new ArrayList <> ();
+        LabelNode returnLabel = null;
+
+        for (final List <Integer> group : groups.values ()) {
+            final int first = group.get (0);
+            if (exitTargets [first] == null) {
+                returnLabel = new LabelNode ();
+                cases [first] = returnLabel;
+
+            } else if (exitVars.get (first).isEmpty ()) {
+                cases [first] = exitTargets [first];
+
+            } else {
+                final LabelNode label = new LabelNode ();
+                group.forEach (i -> cases [i] = label);
+                unpackedGroups.add (group);
+            }
+        }
+
+        if (unpackedGroups.stream ().anyMatch (g -> g.size () > 1)) {
+            insns.add (new InsnNode (Opcodes.DUP));
+            insns.add (new VarInsnNode (Opcodes.ISTORE, indexVar));
+        }
+
+        insns.add (new TableSwitchInsnNode (0, cases.length - 1, cases [0], cases));
+
+        for (final List <Integer> group : unpackedGroups) {
+            final int first = group.get (0);
+            insns.add (cases [first]);
+            __unpackResults (insns, exitVars.get (first), exitTypes.get (first), resultsVar);
+
+            if (group.size () == 1) {
+                insns.add (__jumpToExit (exitTargets [first]));
+
+            } else {
+                final int [] keys = new int [group.size ()];
+                final LabelNode [] labels = new LabelNode [group.size ()];
+                for (int i = 0; i < keys.length; i++) {
+                    keys [i] = group.get (i);
+                    labels [i] = exitTargets [keys [i]];
+                }
+
+                insns.add (new VarInsnNode (Opcodes.ILOAD, indexVar));
+                insns.add (new LookupSwitchInsnNode (labels [0], keys, labels));
+            }
+        }
+
+        if (returnLabel != null) {
+            insns.add (returnLabel);
+            insns.add (new InsnNode (Opcodes.RETURN));
+        }
+    }
+
+
+    private static void __unpackResults (
+        final InsnList insns, final List <Integer> vars, final List <Type> types,
+        final int resultsVar
+    ) {
+        int index = 0;
+        for (int i = 0; i < vars.size (); i++) {
+            final Type type = types.get (i);
+            if (__NULL_TYPE__.equals (type)) {
+                insns.add (AsmHelper.loadNull ());
+
+            } else {
+                insns.add (AsmHelper.loadObjectVar (resultsVar));
+                insns.add (AsmHelper.loadConst (index++));
+                insns.add (new InsnNode (Opcodes.AALOAD));
+                __unbox (insns, type);
+            }
+
+            insns.add (AsmHelper.storeVar (type, vars.get (i)));
+        }
+    }
+
+
+    private static AbstractInsnNode __jumpToExit (final LabelNode target) {
+        if (target == null) {
+            return new InsnNode (Opcodes.RETURN);
+        } else {
+            return new JumpInsnNode (Opcodes.GOTO, target);
+        }
+    }
+
+
+    private static void __unbox (final InsnList insns, final Type type) {
+        final Type boxType;
+        switch (type.getSort ()) {
+        case Type.INT:
+            boxType = Type.getType (Integer.class);
+            break;
+        case Type.LONG:
+            boxType = Type.getType (Long.class);
+            break;
+        case Type.FLOAT:
+            boxType = Type.getType (Float.class);
+            break;
+        case Type.DOUBLE:
+            boxType = Type.getType (Double.class);
+            break;
+        default:
+            if (!__OBJECT_TYPE__.equals (type)) {
+                insns.add (new TypeInsnNode (Opcodes.CHECKCAST, type.getInternalName ()));
+            }
+            return;
+        }
+
+        insns.add (new TypeInsnNode (Opcodes.CHECKCAST, boxType.getInternalName ()));
+        insns.add (new MethodInsnNode (
+            Opcodes.INVOKEVIRTUAL, boxType.getInternalName (),
+            type.getClassName () + "Value", Type.getMethodDescriptor (type), false
+        ));
+    }
+
+
+    /**
+     * Returns a label immediately preceding the first instruction of the
+     * given block, inserting a new label if there is none.
+     */
+    private LabelNode __labelBefore (final int block) {
+        final AbstractInsnNode start = __insns [__blockStarts [block]];
+        for (
+            AbstractInsnNode insn = start.getPrevious ();
+            insn != null && insn.getOpcode () == -1; insn = insn.getPrevious ()
+        ) {
+            if (insn instanceof LabelNode) {
+                return (LabelNode) insn;
+            }
+        }
+
+        final LabelNode result = new LabelNode ();
+        __method.instructions.insertBefore (start, result);
+        return result;
+    }
+
+
+    private static LineNumberNode __lineNumberBefore (final AbstractInsnNode start) {
+        for (
+            AbstractInsnNode insn = start; insn != null; insn = insn.getPrevious ()
+        ) {
+            if (insn instanceof LineNumberNode) {
+                return (LineNumberNode) insn;
+            }
+        }
+
+        return null;
+    }
+
+
+    private static void __removeAnnotations (
+        final List <LocalVariableAnnotationNode> annotations,
+        final Set <LabelNode> movedLabels
+    ) {
+        if (annotations != null) {
+            annotations.removeIf (
+                an -> an.start.stream ().anyMatch (movedLabels::contains)
+                    || an.end.stream ().anyMatch (movedLabels::contains)
+            );
+        }
+    }
+
+    //
+
+    /**
+     * A sequence of basic blocks to move into a new method.
+     */
+    private static final class Region {
+        final int first;
+        final int last;
+        final int size;
+
+        /** Local variables stored in the region. */
+        final BitSet defs;
+
+        /** Whether the region only exits by returning or throwing. */
+        final boolean isTail;
+
+        /** Blocks entered from outside the region, starting with the first. */
+        final List <Integer> entries;
+
+        /** Local variables live at the entries, except the receiver. */
+        final List <Integer> paramVars;
+
+        final List <Type> paramTypes;
+
+        /** Whether the receiver is live at the entries. */
+        final boolean usesThis;
+
+        Region (
+            final int first, final int last, final int size,
+            final BitSet defs, final boolean isTail, final List <Integer> entries,
+            final List <Integer> paramVars, final List <Type> paramTypes,
+            final boolean usesThis
+        ) {
+            this.first = first;
+            this.last = last;
+            this.size = size;
+            this.defs = defs;
+            this.isTail = isTail;
+            this.entries = entries;
+            this.paramVars = paramVars;
+            this.paramTypes = paramTypes;
+            this.usesThis = usesThis;
+        }
+
+        boolean contains (final int block) {
+            return first <= block && block <= last;
+        }
+    }
+
+
+    /**
+     * An exception handler with the range of protected basic blocks.
+     */
+    private static final class Handler {
+        final TryCatchBlockNode tcb;
+        final int first;
+        final int last;
+
+        /** The block starting the handler code. */
+        final int block;
+
+        Handler (
+            final TryCatchBlockNode tcb,
+            final int first, final int last, final int block
+        ) {
+            this.tcb = tcb;
+            this.first = first;
+            this.last = last;
+            this.block = block;
+        }
+
+        boolean isEmpty () {
+            return first > last;
+        }
+
+        boolean covers (final int block) {
+            return first <= block && block <= last;
+        }
+    }
+
+
+    /**
+     * A merge of different reference types without a known common
+     * superclass, known only to be an {@link Object}.
+     */
+    private static final class MergedValue extends BasicValue {
+
+        MergedValue () {
+            super (__OBJECT_TYPE__);
+        }
+
+        @Override
+        public boolean equals (final Object value) {
+            return value instanceof MergedValue;
+        }
+
+        @Override
+        public int hashCode () {
+            return super.hashCode () + 1;
+        }
+    }
+
+
+    /**
+     * Tracks the types of values to determine the types of the local
+     * variables passed to and from the new methods. Different reference
+     * types are merged into their common superclass, or into a
+     * {@link MergedValue} if the common superclass is not known.
+     */
+    private static final class TypeInterpreter extends BasicInterpreter {
+
+        private static final BasicValue __MERGED_VALUE__ = new MergedValue ();
+
+        private final ClassHierarchy __hierarchy;
+
+        TypeInterpreter (final ClassHierarchy hierarchy) {
+            super (Opcodes.ASM5);
+            __hierarchy = hierarchy;
+        }
+
+
+        @Override
+        public BasicValue newValue (final Type type) {
+            if (type != null && AsmHelper.isReferenceType (type)) {
+                return new BasicValue (type);
+            }
+
+            return super.newValue (type);
+        }
+
+
+        @Override
+        public BasicValue binaryOperation (
+            final AbstractInsnNode insn, final BasicValue value1, final BasicValue value2
+        ) throws AnalyzerException {
+            if (insn.getOpcode () == Opcodes.AALOAD
+                && value1.getType ().getSort () == Type.ARRAY
+            ) {
+                return newValue (Type.getType (value1.getType ().getDescriptor ().substring (1)));
+            }
+
+            return super.binaryOperation (insn, value1, value2);
+        }
+
+
+        @Override
+        public BasicValue merge (final BasicValue v, final BasicValue w) {
+            if (v instanceof MergedValue || w instanceof MergedValue) {
+                return __isReference (v) && __isReference (w) ?
+                    __MERGED_VALUE__ : BasicValue.UNINITIALIZED_VALUE;
+            }
+
+            if (v.equals (w)) {
+                return v;
+            }
+
+            if (__isReference (v) && __isReference (w)) {
+                final Type vt = v.getType ();
+                final Type wt = w.getType ();
+                if (__NULL_TYPE__.equals (vt) || __OBJECT_TYPE__.equals (wt)) {
+                    return w;
+                } else if (__NULL_TYPE__.equals (wt) || __OBJECT_TYPE__.equals (vt)) {
+                    return v;
+                }
+
+                final Type type = __commonSuperClass (__hierarchy, vt, wt);
+                return (type != null) ? newValue (type) : __MERGED_VALUE__;
+            }
+
+            return BasicValue.UNINITIALIZED_VALUE;
+        }
+
+
+        private static boolean __isReference (final BasicValue value) {
+            final Type type = value.getType ();
+            return type != null && AsmHelper.isReferenceType (type);
+        }
+    }
+
+}
@@ -1,5 +1,6 @@
 package ch.usi.dag.disl;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import ch.usi.dag.disl.cbloader.ManifestHelper;
@@ -40,6 +41,29 @@ class Transformers {
         return result;
     }
 
+
+    /**
+     * Applies the transformers to the class bytes between the position and
+     * the limit of the given buffer.
+     *
+     * @return The given buffer if the class bytes have not been transformed,
+     *         or a buffer wrapping the transformed class bytes.
+     */
+    public ByteBuffer apply (
+        final ByteBuffer originalBytes
+    ) throws TransformerException {
+        if (__transformers.isEmpty ()) {
+            // avoid copying the class bytes if there is nothing to do
+            return originalBytes;
+        }
+
+        final byte [] bytes = new byte [originalBytes.remaining ()];
+        originalBytes.duplicate ().get (bytes);
+
+        final byte [] result = apply (bytes);
+        return (result != bytes) ? ByteBuffer.wrap (result) : originalBytes;
+    }
+
     //
 
     /**
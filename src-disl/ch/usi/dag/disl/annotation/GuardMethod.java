@@ -13,7 +13,9 @@ import java.lang.annotation.Target;
  * <p>
  * This annotation can be only used with methods.
  * <p>
- * A guard method should be {@code static} and stateless.
+ * A guard method should be {@code static} and stateless. Guard methods may be
+ * invoked concurrently, even for locations in different methods of the same
+ * class.
  * <p>
  * Method arguments can be of type {@link Shadow}, {@link StaticContext},
  * {@link GuardContext}. For an {@link ArgumentProcessor} guard,
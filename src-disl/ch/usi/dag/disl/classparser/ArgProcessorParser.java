@@ -1,6 +1,5 @@
 package ch.usi.dag.disl.classparser;
 
-import java.lang.reflect.Method;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
@@ -22,6 +21,7 @@ import ch.usi.dag.disl.guard.GuardHelper;
 import ch.usi.dag.disl.processor.ArgProcessor;
 import ch.usi.dag.disl.processor.ArgProcessorKind;
 import ch.usi.dag.disl.processor.ArgProcessorMethod;
+import ch.usi.dag.disl.resolver.GuardMethod;
 import ch.usi.dag.disl.util.AsmHelper;
 import ch.usi.dag.disl.util.Constants;
 import ch.usi.dag.util.Strings;
@@ -125,7 +125,7 @@ class ArgProcessorParser extends AbstractParser {
         // Lookup the guard method in the specified guard class.
         // TODO LB: Consider moving method resolution to annotation processing.
         //
-        final Method guardMethod = GuardHelper.findAndValidateGuardMethod (
+        final GuardMethod guardMethod = GuardHelper.findAndValidateGuardMethod (
             data.guardClass.orElse (null), GuardHelper.processorContextSet ()
         );
 
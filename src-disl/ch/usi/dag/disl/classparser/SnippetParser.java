@@ -1,6 +1,5 @@
 package ch.usi.dag.disl.classparser;
 
-import java.lang.reflect.Method;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -26,6 +25,7 @@ import ch.usi.dag.disl.exception.SnippetParserException;
 import ch.usi.dag.disl.guard.GuardHelper;
 import ch.usi.dag.disl.marker.Marker;
 import ch.usi.dag.disl.marker.Parameter;
+import ch.usi.dag.disl.resolver.GuardMethod;
 import ch.usi.dag.disl.scope.Scope;
 import ch.usi.dag.disl.scope.ScopeImpl;
 import ch.usi.dag.disl.snippet.Snippet;
@@ -107,7 +107,7 @@ class SnippetParser extends AbstractParser {
 
         final Marker marker = getMarker (data.marker, data.args);
         final Scope scope = new ScopeImpl (data.scope);
-        final Method guard = GuardHelper.findAndValidateGuardMethod (
+        final GuardMethod guard = GuardHelper.findAndValidateGuardMethod (
             AbstractParser.getGuard (data.guard), GuardHelper.snippetContextSet ()
         );
 
@@ -4,6 +4,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
+import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.MethodNode;
 import org.objectweb.asm.tree.TryCatchBlockNode;
@@ -11,7 +12,7 @@ import org.objectweb.asm.tree.TryCatchBlockNode;
 import ch.usi.dag.disl.localvar.LocalVars;
 import ch.usi.dag.disl.localvar.SyntheticLocalVar;
 import ch.usi.dag.disl.localvar.ThreadLocalVar;
-import ch.usi.dag.disl.util.AsmHelper;
+import ch.usi.dag.disl.util.AsmHelper.ClonedCode;
 
 
 /**
@@ -61,7 +62,7 @@ public class Code {
 
 
     private Code (final Code that) {
-        __method = AsmHelper.cloneMethod (that.__method);
+        __method = __cloneCode (that.__method);
 
         // The following immutables can be shared.
         __syntheticLocals = that.__syntheticLocals;
@@ -123,6 +124,29 @@ public class Code {
         return _containsHandledException;
     }
 
+
+    /**
+     * Clones the code of the given method. Unlike visiting the method, which
+     * resets its labels, cloning the code only reads the original method, so
+     * the same code template can be cloned by multiple threads concurrently.
+     */
+    private static MethodNode __cloneCode (final MethodNode method) {
+        final MethodNode result = new MethodNode (
+            Opcodes.ASM5, method.access, method.name, method.desc,
+            method.signature, null
+        );
+
+        final ClonedCode code = ClonedCode.create (
+            method.instructions, method.tryCatchBlocks
+        );
+
+        result.instructions = code.getInstructions ();
+        result.tryCatchBlocks = code.getTryCatchBlocks ();
+        result.maxLocals = method.maxLocals;
+        result.maxStack = method.maxStack;
+        return result;
+    }
+
     //
 
     /**
@@ -1,10 +1,35 @@
 package ch.usi.dag.disl.coderep;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.objectweb.asm.Type;
+
+import ch.usi.dag.disl.staticcontext.Granularity;
+import ch.usi.dag.disl.staticcontext.StaticContext;
 
 
 public class StaticContextMethod {
 
+    private static final MethodType __INVOKER_TYPE__ =
+        MethodType.methodType (Object.class, StaticContext.class);
+
+    /**
+     * Indices of static context methods, keyed by the method identifier.
+     * The indices are dense, starting from zero.
+     */
+    private static final ConcurrentMap <String, Integer> __indices__ =
+        new ConcurrentHashMap <> ();
+
+    private static final AtomicInteger __nextIndex__ = new AtomicInteger ();
+
+    //
+
     /**
      * The identifier of the static context method. The identifier does not
      * include full method signature, so there can be no method overloading.
@@ -23,13 +48,41 @@ public class StaticContextMethod {
      */
     private final Class <?> __referencedClass;
 
+    /**
+     * The method handle used to invoke the static context method, bound
+     * once when the static context method is resolved.
+     */
+    private final MethodHandle __invoker;
+
+    /**
+     * The index of the static context method, shared by all instances
+     * representing the same method.
+     */
+    private final int __index;
+
+    /** The granularity of the values of the static context method. */
+    private final Granularity.Level __granularity;
+
+    /** The internal name of the owner, as used in method invocations. */
+    private final String __ownerName;
+
 
     public StaticContextMethod (
         final String id, final Method method, final Class <?> referencedClass
-    ) {
+    ) throws IllegalAccessException {
         __id = id;
         __method = method;
         __referencedClass = referencedClass;
+
+        method.setAccessible (true);
+        __invoker = MethodHandles.lookup ().unreflect (method).asType (__INVOKER_TYPE__);
+
+        __index = __indices__.computeIfAbsent (id, k -> __nextIndex__.getAndIncrement ());
+
+        final Granularity granularity = method.getAnnotation (Granularity.class);
+        __granularity = (granularity != null) ? granularity.value () : Granularity.Level.REGION;
+
+        __ownerName = Type.getInternalName (referencedClass);
     }
 
 
@@ -47,4 +100,56 @@ public class StaticContextMethod {
         return __referencedClass;
     }
 
+
+    /**
+     * @return The index of the static context method. Instances representing
+     *         the same static context method have the same index.
+     */
+    public int getIndex () {
+        return __index;
+    }
+
+
+    /**
+     * @return The granularity of the values of the static context method.
+     */
+    public Granularity.Level getGranularity () {
+        return __granularity;
+    }
+
+
+    /**
+     * Determines whether this static context method is the one invoked by
+     * a method invocation with the given owner and name.
+     *
+     * @param ownerName
+     *        the internal name of the owner of the invoked method
+     * @param methodName
+     *        the name of the invoked method
+     */
+    public boolean matches (final String ownerName, final String methodName) {
+        return __method.getName ().equals (methodName) && __ownerName.equals (ownerName);
+    }
+
+
+    /**
+     * @return The number of distinct static context methods resolved so far.
+     *         All indices of static context methods are smaller.
+     */
+    public static int count () {
+        return __nextIndex__.get ();
+    }
+
+
+    /**
+     * Invokes the static context method on the given static context instance.
+     *
+     * @param staticContext
+     *        the static context instance, an instance of the referenced class
+     * @return The (boxed) value returned by the static context method.
+     */
+    public Object invoke (final StaticContext staticContext) throws Throwable {
+        return (Object) __invoker.invokeExact (staticContext);
+    }
+
 }
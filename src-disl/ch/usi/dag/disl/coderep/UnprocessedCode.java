@@ -177,9 +177,7 @@ public class UnprocessedCode {
                     // Throws InvalidStaticContextInvocationException.
                     final Class <?> ownerClass = __resolveClass (insn);
                     final Method contextMethod = __resolveMethod (insn, ownerClass);
-                    return new StaticContextMethod (
-                        __methodId (insn), contextMethod, ownerClass
-                    );
+                    return __createStaticContextMethod (insn, contextMethod, ownerClass);
                 })
                 .collect (Collectors.toSet ());
 
@@ -257,6 +255,18 @@ public class UnprocessedCode {
         }
     }
 
+
+    private StaticContextMethod __createStaticContextMethod (
+        final MethodInsnNode insn, final Method method, final Class <?> ownerClass
+    ) {
+        try {
+            return new StaticContextMethod (__methodId (insn), method, ownerClass);
+
+        } catch (final IllegalAccessException | SecurityException e) {
+            throw new InvalidStaticContextInvocationException (e.getMessage (), insn);
+        }
+    }
+
     //
 
     /**
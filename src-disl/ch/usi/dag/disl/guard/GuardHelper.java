@@ -22,7 +22,7 @@ import ch.usi.dag.disl.util.ReflectionHelper;
 
 public abstract class GuardHelper {
 
-    public static Method findAndValidateGuardMethod (
+    public static GuardMethod findAndValidateGuardMethod (
         final Class <?> guardClass, final Set <Class <?>> validArgs
     ) throws GuardException {
         if (guardClass == null) {
@@ -32,7 +32,7 @@ public abstract class GuardHelper {
         // TODO LB: Cache validated methods and don't validate them again?
         final GuardMethod guardMethod = GuardResolver.getInstance ().getGuardMethod (guardClass);
         validateGuardMethod (guardMethod, validArgs);
-        return guardMethod.getMethod ();
+        return guardMethod;
     }
 
 
@@ -82,6 +82,15 @@ public abstract class GuardHelper {
             argTypes.add (validateArgument (methodName, argType, validArgs));
         }
 
+        // bind the invoker before marking the method as validated
+        try {
+            guardMethod.bindInvoker ();
+
+        } catch (final IllegalAccessException e) {
+            throw new GuardException (
+                "Guard method "+ methodName +" is not accessible", e);
+        }
+
         guardMethod.setArgTypes (argTypes);
     }
 
@@ -146,7 +155,7 @@ public abstract class GuardHelper {
 
 
     // invoke guard method for snippet guard
-    public static boolean guardApplicable (final Method guardMethod, final Shadow shadow) {
+    public static boolean guardApplicable (final GuardMethod guardMethod, final Shadow shadow) {
         if (guardMethod == null) {
             return true;
         }
@@ -158,7 +167,7 @@ public abstract class GuardHelper {
 
     // invoke guard method for processor guard
     public static boolean guardApplicable (
-        final Method guardMethod, final Shadow shadow,
+        final GuardMethod guardMethod, final Shadow shadow,
         final ProcMethodInstance pmi
     ) {
         if (guardMethod == null) {
@@ -191,7 +200,7 @@ public abstract class GuardHelper {
 
         validateGuardMethod (guardMethod, validationSet);
 
-        return invokeGuardMethod (guardMethod.getMethod (), shadow, ac);
+        return invokeGuardMethod (guardMethod, shadow, ac);
 
     }
 
@@ -200,7 +209,7 @@ public abstract class GuardHelper {
     // NOTE: all calling methods should guarantee using validation method,
     // that if ArgumentContext is needed, it cannot be null
     private static boolean invokeGuardMethod (
-        final Method guardMethod, final Shadow shadow, final ArgumentContext ac
+        final GuardMethod guardMethod, final Shadow shadow, final ArgumentContext ac
     ) {
         final Class <?> [] paramTypes = guardMethod.getParameterTypes ();
         final Object [] arguments = new Object [paramTypes.length];
@@ -237,7 +246,7 @@ public abstract class GuardHelper {
                 } catch (final ReflectionException re) {
                     final String message = String.format (
                         "Static context initialization for guard %s failed",
-                        __fullMethodName (guardMethod)
+                        __fullMethodName (guardMethod.getMethod ())
                     );
                     throw new GuardRuntimeException (message, re);
                 }
@@ -248,14 +257,14 @@ public abstract class GuardHelper {
         // Invoke the guard methods with context arguments.
         //
         try {
-            return (Boolean) guardMethod.invoke (null, arguments);
+            return guardMethod.invoke (arguments);
 
-        } catch (final Exception e) {
+        } catch (final Throwable t) {
             final String message = String.format (
                 "Invocation of guard method %s failed",
-                __fullMethodName (guardMethod)
+                __fullMethodName (guardMethod.getMethod ())
             );
-            throw new GuardRuntimeException (message, e);
+            throw new GuardRuntimeException (message, t);
         }
     }
 
@@ -8,6 +8,9 @@ import org.objectweb.asm.tree.MethodNode;
 
 import ch.usi.dag.disl.util.AsmHelper.Insns;
 import ch.usi.dag.disl.util.BasicBlockCalc;
+import ch.usi.dag.disl.util.cfg.BasicBlock;
+import ch.usi.dag.disl.util.cfg.CtrlFlowGraph;
+import ch.usi.dag.disl.util.cfg.MethodAnalysis;
 
 
 /**
@@ -25,6 +28,19 @@ public class BasicBlockMarker extends AbstractDWRMarker {
     @Override
     public List <MarkedRegion> markWithDefaultWeavingReg (final MethodNode methodNode) {
         final List <MarkedRegion> regions = new LinkedList <MarkedRegion> ();
+        if (!isPrecise) {
+            //
+            // The basic blocks are the same as those in the control flow
+            // graph, which may be shared with static contexts.
+            //
+            final CtrlFlowGraph cfg = MethodAnalysis.of (methodNode).controlFlowGraph ();
+            for (final BasicBlock bb : cfg.getNodes ()) {
+                regions.add (new MarkedRegion (bb.getEntrance (), bb.getExit ()));
+            }
+
+            return regions;
+        }
+
         final List <AbstractInsnNode> seperators = BasicBlockCalc.getAll (
             methodNode.instructions, methodNode.tryCatchBlocks, isPrecise
         );
@@ -1,6 +1,5 @@
 package ch.usi.dag.disl.processor;
 
-import java.lang.reflect.Method;
 import java.util.Set;
 
 import ch.usi.dag.disl.annotation.ArgumentProcessor;
@@ -8,6 +7,7 @@ import ch.usi.dag.disl.coderep.Code;
 import ch.usi.dag.disl.coderep.UnprocessedCode;
 import ch.usi.dag.disl.exception.DiSLInitializationException;
 import ch.usi.dag.disl.localvar.LocalVars;
+import ch.usi.dag.disl.resolver.GuardMethod;
 import ch.usi.dag.disl.snippet.Snippet;
 
 
@@ -18,7 +18,7 @@ import ch.usi.dag.disl.snippet.Snippet;
 public class ArgProcessorMethod {
 
     private final Set <ArgProcessorKind> __types;
-    private final Method __guard;
+    private final GuardMethod __guard;
     private final UnprocessedCode __template;
 
     private Code __code;
@@ -26,7 +26,7 @@ public class ArgProcessorMethod {
     //
 
     public ArgProcessorMethod (
-        final Set <ArgProcessorKind> types, final Method guard,
+        final Set <ArgProcessorKind> types, final GuardMethod guard,
         final UnprocessedCode template
     ) {
         __types = types;
@@ -68,7 +68,7 @@ public class ArgProcessorMethod {
     }
 
 
-    public Method getGuard () {
+    public GuardMethod getGuard () {
         return __guard;
     }
 
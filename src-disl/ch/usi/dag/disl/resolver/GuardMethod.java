@@ -1,22 +1,51 @@
 package ch.usi.dag.disl.resolver;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.util.Set;
 
+/**
+ * Represents a resolved guard method. The guard method is invoked through a
+ * method handle bound to the method when the guard is validated, which
+ * avoids the overhead of reflective invocation for every shadow.
+ * <p>
+ * Instances are shared by all instrumentation threads.
+ */
 public class GuardMethod {
 
-    private Method method;
-    private Set<Class<?>> argTypes;
+    private static final MethodType INVOKER_TYPE =
+            MethodType.methodType(boolean.class, Object[].class);
+
+    private final Method method;
+
+    private final Class<?>[] parameterTypes;
+
+    // set after validation, possibly by multiple threads at once
+    private volatile Set<Class<?>> argTypes;
+
+    // bound after validation, possibly by multiple threads at once
+    private volatile MethodHandle invoker;
 
     public GuardMethod(Method method) {
         super();
         this.method = method;
+        this.parameterTypes = method.getParameterTypes();
     }
 
     public Method getMethod() {
         return method;
     }
 
+    /**
+     * @return The parameter types of the guard method. The caller must not
+     *         modify the returned array.
+     */
+    public Class<?>[] getParameterTypes() {
+        return parameterTypes;
+    }
+
     public Set<Class<?>> getArgTypes() {
         return argTypes;
     }
@@ -24,4 +53,27 @@ public class GuardMethod {
     public void setArgTypes(Set<Class<?>> argTypes) {
         this.argTypes = argTypes;
     }
-}
\ No newline at end of file
+
+    /**
+     * Binds the method handle used to invoke the guard method. The method
+     * must be a valid guard method, i.e., a static method returning boolean.
+     */
+    public void bindInvoker() throws IllegalAccessException {
+        // the method was made accessible by the resolver
+        invoker = MethodHandles.lookup().unreflect(method)
+                .asSpreader(Object[].class, parameterTypes.length)
+                .asType(INVOKER_TYPE);
+    }
+
+    /**
+     * Invokes the guard method with the given arguments. The invoker must
+     * have been bound before.
+     *
+     * @param arguments
+     *        the arguments for each of the guard method parameters
+     * @return The result of the guard method.
+     */
+    public boolean invoke(Object[] arguments) throws Throwable {
+        return (boolean) invoker.invokeExact(arguments);
+    }
+}
@@ -1,8 +1,8 @@
 package ch.usi.dag.disl.resolver;
 
 import java.lang.reflect.Method;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import ch.usi.dag.disl.exception.GuardException;
 
@@ -12,13 +12,13 @@ import ch.usi.dag.disl.exception.GuardException;
  */
 public class GuardResolver {
 
-    private static GuardResolver instance = null;
+    private static final GuardResolver instance = new GuardResolver();
 
     // Guard to guard method map
-    private Map<Class<?>, GuardMethod> guardToMethod =
-            new HashMap<Class<?>, GuardMethod>();
+    private final ConcurrentMap<Class<?>, GuardMethod> guardToMethod =
+            new ConcurrentHashMap<Class<?>, GuardMethod>();
 
-    public synchronized GuardMethod getGuardMethod(
+    public GuardMethod getGuardMethod(
             Class<?> guardClass) throws GuardException {
 
         GuardMethod guardMethod = guardToMethod.get(guardClass);
@@ -57,17 +57,15 @@ public class GuardResolver {
         }
 
         // make the method accessible and put it into cache
+        // if another thread was faster, use the method it resolved
         guardMethod.getMethod ().setAccessible (true);
-        guardToMethod.put(guardClass, guardMethod);
+        final GuardMethod cachedMethod = guardToMethod.putIfAbsent(
+                guardClass, guardMethod);
 
-        return guardMethod;
+        return (cachedMethod != null) ? cachedMethod : guardMethod;
     }
 
-    public static synchronized GuardResolver getInstance() {
-
-        if (instance == null) {
-            instance = new GuardResolver();
-        }
+    public static GuardResolver getInstance() {
         return instance;
     }
 }
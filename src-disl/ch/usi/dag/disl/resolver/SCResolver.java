@@ -9,44 +9,50 @@ import ch.usi.dag.disl.staticcontext.StaticContext;
 import ch.usi.dag.disl.util.ReflectionHelper;
 
 
+/**
+ * Provides static context instances populated with shadow data.
+ * <p>
+ * A static context instance is stateful -- it holds the shadow it was last
+ * populated with. To allow multiple threads to instrument classes at the same
+ * time, each thread gets its own set of static context instances. Static
+ * context instances are therefore never shared among threads.
+ */
 public class SCResolver {
 
     // NOTE: This is internal DiSL cache. For user static context cache see
     // ch.usi.dag.disl.staticcontext.cache.StaticContextCache
 
-    private static SCResolver instance;
+    private static final SCResolver instance = new SCResolver ();
 
-    // list of static context instances
+    // static context instances of each thread
     // validity of an instance is for whole instrumentation run
     // instances are created lazily when needed
-    private Map <Class <?>, Object>
-        staticContextInstances = new HashMap <Class <?>, Object> ();
+    private final ThreadLocal <Map <Class <?>, StaticContext>>
+        staticContextInstances = ThreadLocal.withInitial (HashMap::new);
 
 
-    public synchronized StaticContext getStaticContextInstance (
+    public StaticContext getStaticContextInstance (
         final Class <?> staticContextClass, final Shadow shadow
     ) throws ReflectionException {
         //
-        // Get a static context instance from cache, or create a new one and
-        // cache it for later use. Populate it with shadow data and return it
-        // as StaticContext interface.
+        // Get a static context instance from the thread-local cache, or
+        // create a new one and cache it for later use. Populate it with
+        // shadow data and return it as StaticContext interface.
         //
-        Object sc = staticContextInstances.get (staticContextClass);
-        if (sc == null) {
-            sc = ReflectionHelper.createInstance (staticContextClass);
-            staticContextInstances.put (staticContextClass, sc);
+        final Map <Class <?>, StaticContext> instances = staticContextInstances.get ();
+
+        StaticContext result = instances.get (staticContextClass);
+        if (result == null) {
+            result = (StaticContext) ReflectionHelper.createInstance (staticContextClass);
+            instances.put (staticContextClass, result);
         }
 
-        final StaticContext result = (StaticContext) sc;
         result.staticContextData (shadow);
         return result;
     }
 
 
-    public static synchronized SCResolver getInstance () {
-        if (instance == null) {
-            instance = new SCResolver ();
-        }
+    public static SCResolver getInstance () {
         return instance;
     }
 
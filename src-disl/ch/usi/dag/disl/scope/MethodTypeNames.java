@@ -0,0 +1,98 @@
+package ch.usi.dag.disl.scope;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import org.objectweb.asm.Type;
+
+
+/**
+ * Provides the names of the parameter and return types of methods, as used
+ * in scope expressions. Decoding a method descriptor is relatively expensive
+ * and the same descriptors occur in many classes, so the names are decoded
+ * only once for each descriptor.
+ * <p>
+ * The number of cached descriptors is bounded, because the classes of a long
+ * running application may contain an unbounded number of descriptors. When a
+ * cache becomes full, it is cleared, and then refilled with the descriptors
+ * in current use.
+ */
+final class MethodTypeNames {
+
+    /** The maximum number of descriptors kept in each cache. */
+    private static final int __MAX_CACHED_DESCRIPTORS__ = 4096;
+
+    //
+
+    private static final ConcurrentMap <String, String []> __paramNamesByDesc =
+        new ConcurrentHashMap <> ();
+
+    private static final ConcurrentMap <String, String> __returnNameByDesc =
+        new ConcurrentHashMap <> ();
+
+    //
+
+    private MethodTypeNames () {
+        // not to be instantiated
+    }
+
+    //
+
+    /**
+     * Returns the names of the parameter types of a method with the given
+     * descriptor. The caller must not modify the returned array.
+     */
+    public static String [] parameters (final String methodDesc) {
+        final String [] result = __paramNamesByDesc.get (methodDesc);
+        if (result != null) {
+            return result;
+        }
+
+        return __cached (
+            __paramNamesByDesc, methodDesc, MethodTypeNames::__decodeParameters
+        );
+    }
+
+
+    private static String [] __decodeParameters (final String methodDesc) {
+        final Type [] types = Type.getArgumentTypes (methodDesc);
+
+        final String [] result = new String [types.length];
+        for (int i = 0; i < types.length; i++) {
+            result [i] = types [i].getClassName ();
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Returns the name of the return type of a method with the given
+     * descriptor.
+     */
+    public static String returnType (final String methodDesc) {
+        final String result = __returnNameByDesc.get (methodDesc);
+        if (result != null) {
+            return result;
+        }
+
+        return __cached (
+            __returnNameByDesc, methodDesc,
+            desc -> Type.getReturnType (desc).getClassName ()
+        );
+    }
+
+
+    private static <V> V __cached (
+        final ConcurrentMap <String, V> cache, final String methodDesc,
+        final Function <String, V> decoder
+    ) {
+        if (cache.size () >= __MAX_CACHED_DESCRIPTORS__) {
+            cache.clear ();
+        }
+
+        return cache.computeIfAbsent (methodDesc, decoder);
+    }
+
+}
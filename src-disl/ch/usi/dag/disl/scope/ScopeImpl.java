@@ -4,8 +4,6 @@ import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
-import org.objectweb.asm.Type;
-
 import ch.usi.dag.disl.exception.ScopeParserException;
 import ch.usi.dag.disl.util.Constants;
 
@@ -121,7 +119,7 @@ public class ScopeImpl implements Scope {
 
     private final String PARAM_MATCH_REST = "..";
 
-    private final String DEFAULT_PKG = "[default]";
+    private static final String DEFAULT_PKG = "[default]";
 
     private final String RETURN_DELIM = " ";
 
@@ -133,6 +131,18 @@ public class ScopeImpl implements Scope {
 
     private List <String> paramsWildCard;
 
+    // compiled wild cards used for matching
+
+    private WildCard classMatcher;
+
+    private WildCard methodMatcher;
+
+    private WildCard returnMatcher;
+
+    private WildCard [] paramMatchers;
+
+    private boolean matchRestParams;
+
 
     private int lastWhitespace (final String str) {
         final int len = str.length ();
@@ -294,81 +304,94 @@ public class ScopeImpl implements Scope {
                 returnWildCard = restOfExpr;
             }
         }
-    }
 
+        compileMatchers ();
+    }
 
-    @Override
-    public boolean matches (String className, final String methodName,
-        final String methodDesc) {
-        // write(className, methodName, methodDesc);
 
-        // -- match class (with package) --
+    private void compileMatchers () {
+        //
+        // Match classes using their internal names, so that the class names
+        // do not need to be converted for each match.
+        //
+        if (classWildCard != null) {
+            classMatcher = WildCard.compile (classWildCard.replace (
+                Constants.PACKAGE_STD_DELIM, Constants.PACKAGE_INTERN_DELIM
+            ));
+        }
 
-        // replace delimiters for matching
-        className = className.replace (
-            Constants.PACKAGE_INTERN_DELIM, Constants.PACKAGE_STD_DELIM);
+        methodMatcher = WildCard.compile (methodWildCard);
 
-        // if className has default package (nothing), add our default package
-        // reasons:
-        // 1) we can restrict scope on default package by putting our default
-        // package into scope
-        // 2) default package would not be matched if no package was specified
-        // in the scope (because of substitution made)
-        if (className.indexOf (Constants.PACKAGE_STD_DELIM) == -1) {
-            className = DEFAULT_PKG + Constants.PACKAGE_STD_DELIM + className;
+        if (returnWildCard != null) {
+            returnMatcher = WildCard.compile (returnWildCard);
         }
 
-        if (classWildCard != null
-            && !WildCard.match (className, classWildCard)) {
-            return false;
+        if (paramsWildCard != null) {
+            matchRestParams = !paramsWildCard.isEmpty () && PARAM_MATCH_REST.equals (
+                paramsWildCard.get (paramsWildCard.size () - 1)
+            );
+
+            final int count = paramsWildCard.size () - (matchRestParams ? 1 : 0);
+            paramMatchers = new WildCard [count];
+            for (int i = 0; i < count; i++) {
+                paramMatchers [i] = WildCard.compile (paramsWildCard.get (i));
+            }
         }
+    }
 
-        // -- match method name --
 
-        if (methodWildCard != null
-            && !WildCard.match (methodName, methodWildCard)) {
-            return false;
-        }
+    @Override
+    public boolean matches (
+        final String className, final String methodName, final String methodDesc
+    ) {
+        return matchesClass (internalName (className))
+            && matchesMethod (methodName, methodDesc);
+    }
 
-        // -- match parameters --
 
-        if (paramsWildCard != null) {
+    /**
+     * Determines whether this scope matches the given class. The class name
+     * must be normalized using {@link #internalName(String)}.
+     */
+    boolean matchesClass (final String internalName) {
+        return classMatcher == null || classMatcher.matches (internalName);
+    }
 
-            // get parameters and match one by one
-            final Type [] parameters = Type.getArgumentTypes (methodDesc);
 
-            // get last param
-            String lastParamWC = null;
-            if (!paramsWildCard.isEmpty ()) {
-                lastParamWC = paramsWildCard.get (paramsWildCard.size () - 1);
-            }
+    /**
+     * Returns the literal prefix of the class names matched by this scope,
+     * in the form returned by {@link #internalName(String)}. The prefix is
+     * empty if this scope matches classes in all packages.
+     */
+    String classPrefix () {
+        return (classMatcher != null) ? classMatcher.prefix () : "";
+    }
 
-            // if the last param is not PARAM_MATCH_REST then test for equal
-            // size
-            if (!PARAM_MATCH_REST.equals (lastParamWC) &&
-                parameters.length != paramsWildCard.size ()) {
-                return false;
-            }
 
-            // not enough parameters
-            if (PARAM_MATCH_REST.equals (lastParamWC) &&
-                parameters.length < paramsWildCard.size () - 1) {
-                return false;
-            }
+    /**
+     * Determines whether this scope matches the given method, regardless of
+     * the class containing the method.
+     */
+    boolean matchesMethod (final String methodName, final String methodDesc) {
+        // -- match method name --
 
-            for (int i = 0; i < parameters.length; ++i) {
+        if (!methodMatcher.matches (methodName)) {
+            return false;
+        }
 
-                final String paramWC = paramsWildCard.get (i);
+        // -- match parameters --
 
-                // if there is PARAM_MATCH_REST then stop
-                // works even if there is no additional parameter
-                if (paramWC.equals (PARAM_MATCH_REST)) {
-                    break;
-                }
+        if (paramMatchers != null) {
+            final String [] paramNames = MethodTypeNames.parameters (methodDesc);
 
-                final String typeName = parameters [i].getClassName ();
+            // without PARAM_MATCH_REST, the number of parameters must be equal
+            if (paramNames.length < paramMatchers.length ||
+                (!matchRestParams && paramNames.length != paramMatchers.length)) {
+                return false;
+            }
 
-                if (!WildCard.match (typeName, paramWC)) {
+            for (int i = 0; i < paramMatchers.length; i++) {
+                if (!paramMatchers [i].matches (paramNames [i])) {
                     return false;
                 }
             }
@@ -376,19 +399,40 @@ public class ScopeImpl implements Scope {
 
         // -- match return type --
 
-        if (returnWildCard != null) {
-            final Type returnType = Type.getReturnType (methodDesc);
-            final String typeName = returnType.getClassName ();
-
-            if (!WildCard.match (typeName, returnWildCard)) {
-                return false;
-            }
+        if (returnMatcher != null &&
+            !returnMatcher.matches (MethodTypeNames.returnType (methodDesc))) {
+            return false;
         }
 
         return true;
     }
 
 
+    /**
+     * Converts the given class name to the form matched against the class
+     * part of a scope.
+     */
+    static String internalName (final String className) {
+        //
+        // Accept standard class names as well. If the class is in the
+        // default package (no package), add our default package, so that
+        // 1) we can restrict scope on default package by putting our default
+        // package into scope, and 2) classes in the default package are
+        // matched if no package was specified in the scope (because of the
+        // substitution made when parsing).
+        //
+        final String result = className.replace (
+            Constants.PACKAGE_STD_DELIM, Constants.PACKAGE_INTERN_DELIM
+        );
+
+        if (result.indexOf (Constants.PACKAGE_INTERN_DELIM) == -1) {
+            return DEFAULT_PKG + Constants.PACKAGE_INTERN_DELIM + result;
+        }
+
+        return result;
+    }
+
+
     @Override
     public String toString () {
         final StringBuilder params = new StringBuilder ();
@@ -0,0 +1,228 @@
+package ch.usi.dag.disl.scope;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+
+/**
+ * Indexes items with a {@link Scope} by the literal prefix of the class names
+ * matched by the scope. For a given class, the index provides the items with
+ * scopes that can match methods of that class, without evaluating all the
+ * scopes. The methods of the class then need to be matched only against the
+ * scopes of these items.
+ * <p>
+ * The prefixes are kept in a trie, so the cost of a lookup depends on the
+ * length of the class name and the number of items with matching prefixes,
+ * not on the total number of items. Scopes other than {@link ScopeImpl}, and
+ * scopes matching classes in all packages, are candidates for all classes.
+ * <p>
+ * The index is immutable and thread-safe.
+ *
+ * @param <T>
+ *        the type of the indexed items
+ */
+public final class ScopeIndex <T> {
+
+    private static final class Entry <T> {
+        final int index;
+        final T item;
+        final Scope scope;
+
+        Entry (final int index, final T item, final Scope scope) {
+            this.index = index;
+            this.item = item;
+            this.scope = scope;
+        }
+    }
+
+
+    private static final class Node <T> {
+        final Map <Character, Node <T>> children = new HashMap <> ();
+        final List <Entry <T>> entries = new ArrayList <> ();
+    }
+
+    //
+
+    private final Node <T> __root = new Node <> ();
+
+    private final int __size;
+
+    //
+
+    /**
+     * Creates an index of the given items.
+     *
+     * @param items
+     *        the items to index
+     * @param scopeOf
+     *        function returning the scope of an item
+     */
+    public ScopeIndex (
+        final Collection <? extends T> items,
+        final Function <? super T, Scope> scopeOf
+    ) {
+        int index = 0;
+        for (final T item : items) {
+            final Scope scope = scopeOf.apply (item);
+            final String prefix = (scope instanceof ScopeImpl) ?
+                ((ScopeImpl) scope).classPrefix () : "";
+
+            Node <T> node = __root;
+            for (int pos = 0; pos < prefix.length (); pos++) {
+                node = node.children.computeIfAbsent (
+                    prefix.charAt (pos), c -> new Node <> ()
+                );
+            }
+
+            node.entries.add (new Entry <> (index++, item, scope));
+        }
+
+        __size = index;
+    }
+
+    //
+
+    /**
+     * Returns the items with scopes that can match methods of the given
+     * class.
+     *
+     * @param className
+     *        standard or internal name of the class
+     */
+    public Candidates <T> forClass (final String className) {
+        final String internalName = ScopeImpl.internalName (className);
+
+        //
+        // Collect the entries along the path of the class name in the trie,
+        // and keep those with scopes that actually match the class.
+        //
+        final List <Entry <T>> result = new ArrayList <> ();
+
+        Node <T> node = __root;
+        int pos = 0;
+        while (node != null) {
+            for (final Entry <T> entry : node.entries) {
+                if (__matchesClass (entry.scope, internalName)) {
+                    result.add (entry);
+                }
+            }
+
+            if (pos == internalName.length ()) {
+                break;
+            }
+
+            node = node.children.get (internalName.charAt (pos++));
+        }
+
+        // keep the items in their original order
+        if (result.size () > 1) {
+            result.sort ((e1, e2) -> Integer.compare (e1.index, e2.index));
+        }
+
+        return new Candidates <> (className, result);
+    }
+
+
+    private static boolean __matchesClass (
+        final Scope scope, final String internalName
+    ) {
+        return !(scope instanceof ScopeImpl)
+            || ((ScopeImpl) scope).matchesClass (internalName);
+    }
+
+
+    /**
+     * @return The number of items in the index.
+     */
+    public int size () {
+        return __size;
+    }
+
+    //
+
+    /**
+     * Items with scopes that can match methods of a particular class.
+     *
+     * @param <T>
+     *        the type of the indexed items
+     */
+    public static final class Candidates <T> {
+
+        private final String __className;
+
+        private final List <Entry <T>> __entries;
+
+        private Candidates (
+            final String className, final List <Entry <T>> entries
+        ) {
+            __className = className;
+            __entries = entries;
+        }
+
+        //
+
+        /**
+         * @return {@code true} if no scope can match any method of the class.
+         */
+        public boolean isEmpty () {
+            return __entries.isEmpty ();
+        }
+
+
+        /**
+         * Returns the items with scopes matching the given method of the
+         * class, in the order in which the items were indexed.
+         */
+        public List <T> matching (
+            final String methodName, final String methodDesc
+        ) {
+            if (__entries.isEmpty ()) {
+                return Collections.emptyList ();
+            }
+
+            final List <T> result = new ArrayList <> ();
+            for (final Entry <T> entry : __entries) {
+                if (__matchesMethod (entry.scope, methodName, methodDesc)) {
+                    result.add (entry.item);
+                }
+            }
+
+            return result;
+        }
+
+
+        /**
+         * Returns the first item with a scope matching the given method of
+         * the class, or {@code null} if there is no such item.
+         */
+        public T firstMatching (
+            final String methodName, final String methodDesc
+        ) {
+            for (final Entry <T> entry : __entries) {
+                if (__matchesMethod (entry.scope, methodName, methodDesc)) {
+                    return entry.item;
+                }
+            }
+
+            return null;
+        }
+
+
+        private boolean __matchesMethod (
+            final Scope scope, final String methodName, final String methodDesc
+        ) {
+            // the class part of ScopeImpl has already been matched
+            if (scope instanceof ScopeImpl) {
+                return ((ScopeImpl) scope).matchesMethod (methodName, methodDesc);
+            } else {
+                return scope.matches (__className, methodName, methodDesc);
+            }
+        }
+    }
+
+}
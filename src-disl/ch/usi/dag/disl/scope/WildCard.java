@@ -1,76 +1,179 @@
 package ch.usi.dag.disl.scope;
 
-public class WildCard {
+/**
+ * Matches text against a pattern containing the wildcard character '*'
+ * (asterisk), which matches zero or more characters.
+ * <p>
+ * A pattern can be compiled into a {@link WildCard} instance, which splits
+ * the pattern into the literal parts between the wildcards only once. A
+ * compiled pattern does not allocate any memory when matching.
+ */
+public final class WildCard {
 
-    // thx: http://www.adarshr.com/papers/wildcard/
-    // modified version
+    public static final String WILDCARD_STR = "*";
+
+    private static final char __WILDCARD_CHAR__ = '*';
+
+    private static final String [] __NO_PARTS__ = new String [0];
+
+    //
+
+    /** Literal text preceding the first wildcard, or the whole pattern. */
+    private final String __prefix;
+
+    /** Literal text following the last wildcard. */
+    private final String __suffix;
+
+    /** Literal parts between the first and the last wildcard. */
+    private final String [] __parts;
+
+    /** Minimal length of a matching text. */
+    private final int __minLength;
+
+    /** Whether the pattern contains any wildcard. */
+    private final boolean __hasWildCard;
+
+    //
+
+    private WildCard (
+        final String prefix, final String [] parts, final String suffix,
+        final boolean hasWildCard
+    ) {
+        __prefix = prefix;
+        __parts = parts;
+        __suffix = suffix;
+        __hasWildCard = hasWildCard;
+
+        int minLength = prefix.length () + suffix.length ();
+        for (final String part : parts) {
+            minLength += part.length ();
+        }
+
+        __minLength = minLength;
+    }
+
+    //
 
     /**
-     * Performs a wildcard matching for the text and pattern
-     * provided.
+     * Determines whether the given text matches this pattern.
      *
      * @param text the text to be tested for matches.
-     *
-     * @param pattern the pattern to be matched for.
-     * This can contain the wildcard character '*' (asterisk).
-     *
-     * @return <tt>true</tt> if a match is found, <tt>false</tt>
-     * otherwise.
+     * @return {@code true} if the text matches this pattern.
      */
+    public boolean matches (final String text) {
+        if (!__hasWildCard) {
+            return text.equals (__prefix);
+        }
 
-    public static final String WILDCARD_STR = "*";
-    private static final String WILDCARD_PATTERN = "\\*";
+        final int length = text.length ();
+        if (length < __minLength) {
+            return false;
+        }
 
-    public static boolean match(String text, String pattern) {
+        if (!text.startsWith (__prefix) || !text.endsWith (__suffix)) {
+            return false;
+        }
 
-        // special cases
+        //
+        // Find the parts between the prefix and the suffix, from left to
+        // right. Matching each part at its first occurrence leaves the
+        // most room for the following parts.
+        //
+        int start = __prefix.length ();
+        final int end = length - __suffix.length ();
+        for (final String part : __parts) {
+            final int index = text.indexOf (part, start);
+            if (index < 0 || index + part.length () > end) {
+                return false;
+            }
 
-        if(pattern.equals(WILDCARD_STR)) {
-            return true;
+            start = index + part.length ();
         }
 
-        if(pattern.isEmpty()) {
-            return text.isEmpty ();
-        }
+        return true;
+    }
 
-        // Create the cards by splitting using a RegEx. If more speed
-        // is desired, a simpler character based splitting can be done.
-        String [] cards = pattern.split(WILDCARD_PATTERN);
 
-        if(! pattern.startsWith(WILDCARD_STR)) {
+    /**
+     * Returns the literal text that all texts matching this pattern start
+     * with. For a pattern without wildcards, this is the pattern itself.
+     */
+    String prefix () {
+        return __prefix;
+    }
 
-            // first card should be at the beginning
-            int firstIdx = text.indexOf(cards[0]);
-            if(firstIdx != 0) {
-                return false;
-            }
+
+    @Override
+    public String toString () {
+        if (!__hasWildCard) {
+            return __prefix;
         }
 
-        if(! pattern.endsWith(WILDCARD_STR)) {
+        final StringBuilder result = new StringBuilder (__prefix);
+        for (final String part : __parts) {
+            result.append (__WILDCARD_CHAR__).append (part);
+        }
 
-            // last card should be at the end
-            String lastCard = cards[cards.length - 1];
-            int lastIdx = text.lastIndexOf(lastCard);
-            if(lastIdx != text.length() - lastCard.length()) {
-                return false;
+        return result.append (__WILDCARD_CHAR__).append (__suffix).toString ();
+    }
+
+    //
+
+    /**
+     * Compiles the given pattern, which may contain the wildcard character
+     * '*' (asterisk).
+     */
+    public static WildCard compile (final String pattern) {
+        final int first = pattern.indexOf (__WILDCARD_CHAR__);
+        if (first < 0) {
+            return new WildCard (pattern, __NO_PARTS__, "", false);
+        }
+
+        final int last = pattern.lastIndexOf (__WILDCARD_CHAR__);
+        final String prefix = pattern.substring (0, first);
+        final String suffix = pattern.substring (last + 1);
+
+        //
+        // Collect the non-empty parts between the first and the last
+        // wildcard. Consecutive wildcards are equivalent to a single one.
+        //
+        int partCount = 0;
+        for (int pos = first; pos < last; pos++) {
+            if (pattern.charAt (pos) == __WILDCARD_CHAR__
+                && pattern.charAt (pos + 1) != __WILDCARD_CHAR__) {
+                partCount++;
             }
         }
 
-        // Iterate over the cards.
-        for (String card : cards)
-        {
-            int idx = text.indexOf(card);
+        final String [] parts = new String [partCount];
+        int partStart = first + 1;
+        int partIndex = 0;
+        for (int pos = first + 1; pos <= last; pos++) {
+            if (pattern.charAt (pos) == __WILDCARD_CHAR__) {
+                if (pos > partStart) {
+                    parts [partIndex++] = pattern.substring (partStart, pos);
+                }
 
-            // Card not detected in the text.
-            if(idx == -1) {
-                return false;
+                partStart = pos + 1;
             }
-
-            // Move ahead, towards the right of the text.
-            text = text.substring(idx + card.length());
         }
 
-        return true;
+        return new WildCard (prefix, parts, suffix, true);
+    }
+
+
+    /**
+     * Performs a wildcard matching for the text and pattern provided. When
+     * matching many texts against the same pattern, use a pattern compiled
+     * using {@link #compile(String)} instead.
+     *
+     * @param text the text to be tested for matches.
+     * @param pattern the pattern to be matched for. This can contain the
+     *        wildcard character '*' (asterisk).
+     * @return {@code true} if a match is found, {@code false} otherwise.
+     */
+    public static boolean match (final String text, final String pattern) {
+        return compile (pattern).matches (text);
     }
 
-}
\ No newline at end of file
+}
@@ -1,6 +1,5 @@
 package ch.usi.dag.disl.snippet;
 
-import java.lang.reflect.Method;
 import java.util.Map;
 import java.util.Set;
 
@@ -14,6 +13,7 @@ import ch.usi.dag.disl.localvar.LocalVars;
 import ch.usi.dag.disl.marker.Marker;
 import ch.usi.dag.disl.processor.ArgProcessor;
 import ch.usi.dag.disl.processor.ArgProcessorMethod;
+import ch.usi.dag.disl.resolver.GuardMethod;
 import ch.usi.dag.disl.scope.Scope;
 
 
@@ -26,7 +26,7 @@ public class Snippet implements Comparable <Snippet> {
     private final Class <?> annotationClass;
     private final Marker marker;
     private final Scope scope;
-    private final Method guard;
+    private final GuardMethod guard;
     private final int order;
     private final SnippetUnprocessedCode __template;
 
@@ -38,7 +38,7 @@ public class Snippet implements Comparable <Snippet> {
      */
     public Snippet (
         final Class <?> annotationClass, final Marker marker,
-        final Scope scope, final Method guard,
+        final Scope scope, final GuardMethod guard,
         final int order, final SnippetUnprocessedCode template
     ) {
         this.annotationClass = annotationClass;
@@ -103,7 +103,7 @@ public class Snippet implements Comparable <Snippet> {
     /**
      * @returns The guard which determines where the snippet should be applied.
      */
-    public Method getGuard () {
+    public GuardMethod getGuard () {
         return guard;
     }
 
@@ -1,14 +1,15 @@
 package ch.usi.dag.disl.staticcontext;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.MethodNode;
 
 import ch.usi.dag.disl.snippet.Shadow;
+import ch.usi.dag.disl.staticcontext.Granularity.Level;
 import ch.usi.dag.disl.util.Insn;
 import ch.usi.dag.disl.util.cfg.CtrlFlowGraph;
+import ch.usi.dag.disl.util.cfg.MethodAnalysis;
 
 /**
  * <b>NOTE: This class is work in progress</b>
@@ -18,26 +19,29 @@ import ch.usi.dag.disl.util.cfg.CtrlFlowGraph;
  */
 public class BasicBlockStaticContext extends AbstractStaticContext {
 
-    private Map<String, CtrlFlowGraph> cache = new HashMap<String, CtrlFlowGraph>();
+    // the method for which the custom data was produced
+    private MethodNode customDataMethod;
     protected CtrlFlowGraph customData;
 
     public void staticContextData (final Shadow shadow) {
         super.staticContextData (shadow);
 
-        String key = staticContextData.getClassNode().name
-                + staticContextData.getMethodNode().name
-                + staticContextData.getMethodNode().desc;
-
-        customData = cache.get(key);
-        if (customData == null) {
-            customData = produceCustomData();
-            cache.put(key, customData);
+        //
+        // Produce the custom data only when the method changes. The control
+        // flow graph itself is shared with other users through the method
+        // analysis, which DiSL drops after the method is instrumented.
+        //
+        final MethodNode method = staticContextData.getMethodNode ();
+        if (method != customDataMethod) {
+            customData = produceCustomData ();
+            customDataMethod = method;
         }
     }
 
     /**
      * Returns total number of basic blocks in a method.
      */
+    @Granularity (Level.METHOD)
     public int getTotBBs() {
         return customData.getNodes().size();
     }
@@ -72,6 +76,6 @@ public class BasicBlockStaticContext extends AbstractStaticContext {
     }
 
     protected CtrlFlowGraph produceCustomData() {
-        return new CtrlFlowGraph(staticContextData.getMethodNode());
+        return MethodAnalysis.of(staticContextData.getMethodNode()).controlFlowGraph();
     }
 }
@@ -0,0 +1,44 @@
+package ch.usi.dag.disl.staticcontext;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * Declares the granularity at which the value returned by a static context
+ * method changes. DiSL computes the value of a static context method only
+ * once for each distinct unit at the declared granularity, and reuses it for
+ * all the marked regions (shadows) within that unit.
+ * <p>
+ * Static context methods without this annotation are assumed to depend on
+ * the marked region, i.e., they are invoked for every shadow.
+ * <p>
+ * This annotation can be only used with static context methods.
+ */
+@Documented
+@Target (ElementType.METHOD)
+@Retention (RetentionPolicy.RUNTIME) // to resolve annotation using reflection
+public @interface Granularity {
+
+    /**
+     * The granularity of the value returned by a static context method.
+     */
+    Level value ();
+
+    //
+
+    public enum Level {
+        /** The value depends only on the instrumented class. */
+        CLASS,
+
+        /** The value depends only on the instrumented method. */
+        METHOD,
+
+        /** The value depends on the marked region (shadow). */
+        REGION;
+    }
+
+}
@@ -2,6 +2,7 @@ package ch.usi.dag.disl.staticcontext;
 
 import org.objectweb.asm.Opcodes;
 
+import ch.usi.dag.disl.staticcontext.Granularity.Level;
 import ch.usi.dag.disl.util.Constants;
 
 
@@ -17,6 +18,7 @@ public class MethodStaticContext extends AbstractStaticContext {
      * qualified class name, with packages delimited by the '/' character.
      */
     // XXX LB: This would be better named "thisClassInternalName".
+    @Granularity (Level.CLASS)
     public String thisClassName () {
         return __classInternalName ();
     }
@@ -26,6 +28,7 @@ public class MethodStaticContext extends AbstractStaticContext {
      * Returns the simple name of the instrumented class, i.e., a class name
      * without the package part of the name.
      */
+    @Granularity (Level.CLASS)
     public String thisClassSimpleName () {
         final String name = __classInternalName ();
         final int start = name.lastIndexOf (Constants.PACKAGE_INTERN_DELIM);
@@ -37,6 +40,7 @@ public class MethodStaticContext extends AbstractStaticContext {
      * Returns the canonical name of the instrumented class, i.e., a fully
      * qualified class name, with packages delimited by the '.' character.
      */
+    @Granularity (Level.CLASS)
     public String thisClassCanonicalName () {
         return __classInternalName ().replace (
             Constants.PACKAGE_INTERN_DELIM, Constants.PACKAGE_STD_DELIM
@@ -49,6 +53,7 @@ public class MethodStaticContext extends AbstractStaticContext {
      * or {@code null} if the instrumented class is not enclosed in another
      * class.
      */
+    @Granularity (Level.CLASS)
     public String thisClassOuterClass () {
         return staticContextData.getClassNode ().outerClass;
     }
@@ -58,6 +63,7 @@ public class MethodStaticContext extends AbstractStaticContext {
      * Returns the name of the method enclosing the instrumented class, or
      * {@code null} if the class is not enclosed in a method.
      */
+    @Granularity (Level.CLASS)
     public String thisClassOuterMethod () {
         return staticContextData.getClassNode ().outerMethod;
     }
@@ -66,6 +72,7 @@ public class MethodStaticContext extends AbstractStaticContext {
     /**
      * Returns outer method descriptor of the instrumented class.
      */
+    @Granularity (Level.CLASS)
     public String thisClassOuterMethodDesc () {
         return staticContextData.getClassNode ().outerMethodDesc;
     }
@@ -75,6 +82,7 @@ public class MethodStaticContext extends AbstractStaticContext {
      * Returns the signature of the instrumented class, or {@code null} if the
      * class is not a generic type.
      */
+    @Granularity (Level.CLASS)
     public String thisClassSignature () {
         return staticContextData.getClassNode ().signature;
     }
@@ -83,6 +91,7 @@ public class MethodStaticContext extends AbstractStaticContext {
     /**
      * Returns the name of the source file containing the instrumented class.
      */
+    @Granularity (Level.CLASS)
     public String thisClassSourceFile () {
         return staticContextData.getClassNode ().sourceFile;
     }
@@ -93,6 +102,7 @@ public class MethodStaticContext extends AbstractStaticContext {
      * i.e., a fully qualified class name, with package names delimited by the
      * '/' character.
      */
+    @Granularity (Level.CLASS)
     public String thisClassSuperName () {
         return staticContextData.getClassNode ().superName;
     }
@@ -101,6 +111,7 @@ public class MethodStaticContext extends AbstractStaticContext {
     /**
      * Returns class version as (ASM) integer of the instrumented class.
      */
+    @Granularity (Level.CLASS)
     public int thisClassVersion () {
         return staticContextData.getClassNode ().version;
     }
@@ -109,6 +120,7 @@ public class MethodStaticContext extends AbstractStaticContext {
     /**
      * Returns {@code true} if the instrumented class is abstract.
      */
+    @Granularity (Level.CLASS)
     public boolean isClassAbstract () {
         return __classAccessFlag (Opcodes.ACC_ABSTRACT);
     }
@@ -117,6 +129,7 @@ public class MethodStaticContext extends AbstractStaticContext {
     /**
      * Returns {@code true} if the instrumented class is an annotation.
      */
+    @Granularity (Level.CLASS)
     public boolean isClassAnnotation () {
         return __classAccessFlag (Opcodes.ACC_ANNOTATION);
     }
@@ -125,6 +138,7 @@ public class MethodStaticContext extends AbstractStaticContext {
     /**
      * Returns {@code true} if the instrumented class is an enum.
      */
+    @Granularity (Level.CLASS)
     public boolean isClassEnum () {
         return __classAccessFlag (Opcodes.ACC_ENUM);
     }
@@ -133,6 +147,7 @@ public class MethodStaticContext extends AbstractStaticContext {
     /**
      * Returns {@code true} if the instrumented class is final.
      */
+    @Granularity (Level.CLASS)
     public boolean isClassFinal () {
         return __classAccessFlag (Opcodes.ACC_FINAL);
     }
@@ -141,6 +156,7 @@ public class MethodStaticContext extends AbstractStaticContext {
     /**
      * Returns {@code true} if the instrumented class is an interface.
      */
+    @Granularity (Level.CLASS)
     public boolean isClassInterface () {
         return __classAccessFlag (Opcodes.ACC_INTERFACE);
     }
@@ -149,6 +165,7 @@ public class MethodStaticContext extends AbstractStaticContext {
     /**
      * Returns {@code true} if the instrumented class is private.
      */
+    @Granularity (Level.CLASS)
     public boolean isClassPrivate () {
         return __classAccessFlag (Opcodes.ACC_PRIVATE);
     }
@@ -157,6 +174,7 @@ public class MethodStaticContext extends AbstractStaticContext {
     /**
      * Returns {@code true} if the instrumented class is protected.
      */
+    @Granularity (Level.CLASS)
     public boolean isClassProtected () {
         return __classAccessFlag (Opcodes.ACC_PROTECTED);
     }
@@ -165,6 +183,7 @@ public class MethodStaticContext extends AbstractStaticContext {
     /**
      * Returns {@code true} if the instrumented class is public.
      */
+    @Granularity (Level.CLASS)
     public boolean isClassPublic () {
         return __classAccessFlag (Opcodes.ACC_PUBLIC);
     }
@@ -173,6 +192,7 @@ public class MethodStaticContext extends AbstractStaticContext {
     /**
      * Returns {@code true} if the instrumented class is synthetic.
      */
+    @Granularity (Level.CLASS)
     public boolean isClassSynthetic () {
         return __classAccessFlag (Opcodes.ACC_SYNTHETIC);
     }
@@ -183,6 +203,7 @@ public class MethodStaticContext extends AbstractStaticContext {
     /**
      * Returns the name of the instrumented method.
      */
+    @Granularity (Level.METHOD)
     public String thisMethodName () {
         return __methodName ();
     }
@@ -192,6 +213,7 @@ public class MethodStaticContext extends AbstractStaticContext {
      * Returns the fully qualified (internal) name of the instrumented method,
      * i.e., including the (internal) name of the class containing the method.
      */
+    @Granularity (Level.METHOD)
     public String thisMethodFullName () {
         return __classInternalName () + Constants.STATIC_CONTEXT_METHOD_DELIM + __methodName ();
     }
@@ -200,6 +222,7 @@ public class MethodStaticContext extends AbstractStaticContext {
     /**
      * Returns the descriptor of the instrumented method.
      */
+    @Granularity (Level.METHOD)
     public String thisMethodDescriptor () {
         return staticContextData.getMethodNode ().desc;
     }
@@ -208,6 +231,7 @@ public class MethodStaticContext extends AbstractStaticContext {
     /**
      * Returns the signature of the instrumented method.
      */
+    @Granularity (Level.METHOD)
     public String thisMethodSignature () {
         return staticContextData.getMethodNode ().signature;
     }
@@ -216,6 +240,7 @@ public class MethodStaticContext extends AbstractStaticContext {
     /**
      * Returns {@code true} if this method is a constructor.
      */
+    @Granularity (Level.METHOD)
     public boolean isMethodConstructor () {
         return Constants.isConstructorName (__methodName ());
     }
@@ -224,6 +249,7 @@ public class MethodStaticContext extends AbstractStaticContext {
     /**
      * Returns {@code true} if this method is a class initializer.
      */
+    @Granularity (Level.METHOD)
     public boolean isMethodInitializer () {
         return Constants.isInitializerName (__methodName ());
     }
@@ -232,6 +258,7 @@ public class MethodStaticContext extends AbstractStaticContext {
     /**
      * Returns {@code true} if the instrumented method is a bridge.
      */
+    @Granularity (Level.METHOD)
     public boolean isMethodBridge () {
         return __methodAccessFlag (Opcodes.ACC_BRIDGE);
     }
@@ -240,6 +267,7 @@ public class MethodStaticContext extends AbstractStaticContext {
     /**
      * Returns {@code true} if the instrumented method is final.
      */
+    @Granularity (Level.METHOD)
     public boolean isMethodFinal () {
         return __methodAccessFlag (Opcodes.ACC_FINAL);
     }
@@ -248,6 +276,7 @@ public class MethodStaticContext extends AbstractStaticContext {
     /**
      * Returns {@code true} if the instrumented method is private.
      */
+    @Granularity (Level.METHOD)
     public boolean isMethodPrivate () {
         return __methodAccessFlag (Opcodes.ACC_PRIVATE);
     }
@@ -256,6 +285,7 @@ public class MethodStaticContext extends AbstractStaticContext {
     /**
      * Returns {@code true} if the instrumented method is protected.
      */
+    @Granularity (Level.METHOD)
     public boolean isMethodProtected () {
         return __methodAccessFlag (Opcodes.ACC_PROTECTED);
     }
@@ -264,6 +294,7 @@ public class MethodStaticContext extends AbstractStaticContext {
     /**
      * Returns {@code true} if the instrumented method is public.
      */
+    @Granularity (Level.METHOD)
     public boolean isMethodPublic () {
         return __methodAccessFlag (Opcodes.ACC_PUBLIC);
     }
@@ -272,6 +303,7 @@ public class MethodStaticContext extends AbstractStaticContext {
     /**
      * Returns {@code true} if the instrumented method is static.
      */
+    @Granularity (Level.METHOD)
     public boolean isMethodStatic () {
         return __methodAccessFlag (Opcodes.ACC_STATIC);
     }
@@ -280,6 +312,7 @@ public class MethodStaticContext extends AbstractStaticContext {
     /**
      * Returns {@code true} if the instrumented method is synchronized.
      */
+    @Granularity (Level.METHOD)
     public boolean isMethodSynchronized () {
         return __methodAccessFlag (Opcodes.ACC_SYNCHRONIZED);
     }
@@ -289,6 +322,7 @@ public class MethodStaticContext extends AbstractStaticContext {
      * Returns {@code true} if the instrumented method accepts a variable number
      * of arguments.
      */
+    @Granularity (Level.METHOD)
     public boolean isMethodVarArgs () {
         return __methodAccessFlag (Opcodes.ACC_VARARGS);
     }
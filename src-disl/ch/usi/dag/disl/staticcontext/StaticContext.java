@@ -31,7 +31,11 @@ import ch.usi.dag.disl.snippet.Shadow;
  * <li>a static context method does not have parameters</li>
  * <li>the return value can be only a primitive type or a String</li>
  * </ul>
- * In addition, a {@link StaticContext} implementation has to be thread-safe.
+ * DiSL may instrument multiple classes, as well as multiple methods of the
+ * same class, concurrently. Each instrumentation thread uses its own instances
+ * of static context classes, so the state of a particular instance is never
+ * accessed by multiple threads. However, any state shared by multiple
+ * instances (e.g., in static fields) has to be thread-safe.
  */
 public interface StaticContext {
 
@@ -1,6 +1,6 @@
 package ch.usi.dag.disl.staticcontext.generator;
 
-import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -11,82 +11,38 @@ import ch.usi.dag.disl.exception.StaticContextGenException;
 import ch.usi.dag.disl.resolver.SCResolver;
 import ch.usi.dag.disl.snippet.Shadow;
 import ch.usi.dag.disl.snippet.Snippet;
+import ch.usi.dag.disl.staticcontext.Granularity;
 import ch.usi.dag.disl.staticcontext.StaticContext;
-import ch.usi.dag.disl.util.Constants;
 
+/**
+ * Holds the values of static context methods computed for the shadows in a
+ * single instrumented method. The values are indexed by the indices of the
+ * static context methods.
+ * <p>
+ * Values of static context methods with class or method granularity are
+ * computed only once and shared by all shadows in the method. Values of other
+ * static context methods are computed for each shadow.
+ */
 public class SCGenerator {
 
-    private static final class StaticContextKey {
-        private final Shadow shadow;
-        private final String methodId;
+    /** Marks a value that has not been computed. */
+    private static final Object __NONE__ = new Object ();
 
+    //
 
-        public StaticContextKey (final Shadow shadow, final String methodId) {
-            this.shadow = shadow;
-            this.methodId = methodId;
-        }
-
-        public StaticContextKey (
-            final Shadow shadow, final String className, final String methodName
-        ) {
-            this (shadow, className + Constants.STATIC_CONTEXT_METHOD_DELIM + methodName);
-        }
-
-        //
-
-        private static final int __PRIME__ = 31;
-
-        @Override
-        public int hashCode() {
-            int result = __PRIME__;
-            result += (shadow == null) ? 0 : shadow.hashCode ();
-
-            result *= __PRIME__;
-            result += (methodId == null) ? 0 : methodId.hashCode ();
-
-            return result;
-        }
-
-
-        @Override
-        public boolean equals (final Object object) {
-            if (this == object) {
-                return true;
-            }
-
-            if (object instanceof StaticContextKey) {
-                final StaticContextKey that = (StaticContextKey) object;
-
-                //
-                // Shadows and methods must either be null in both
-                // objects, or equal.
-                //
-                final boolean shadowsEqual = __nullOrEqual (this.shadow, that.shadow);
-                if (shadowsEqual) {
-                    return __nullOrEqual (this.methodId, that.methodId);
-                }
-            }
-
-            return false;
-        }
-    }
+    /** Values shared by all shadows in the method. */
+    private final Object [] __methodValues;
 
-    private static boolean __nullOrEqual (final Object obj1, final Object obj2) {
-        if (obj1 == null) {
-            return obj2 == null;
-        } else {
-            return obj1.equals (obj2);
-        }
-    }
+    /** Values specific to each shadow. */
+    private final Map <Shadow, Object []> __shadowValues;
 
     //
 
-    private final Map <StaticContextKey, Object> staticInfoData;
-
     private SCGenerator (
-        final Map <StaticContextKey, Object> staticInfoData
-    ) throws ReflectionException, StaticContextGenException {
-        this.staticInfoData = staticInfoData;
+        final Object [] methodValues, final Map <Shadow, Object []> shadowValues
+    ) {
+        __methodValues = methodValues;
+        __shadowValues = shadowValues;
     }
 
 
@@ -99,65 +55,87 @@ public class SCGenerator {
         // For each snippet, obtain a set of invoked static context methods
         // (including those invoked in argument processors) and get static
         // context data for each static context method for each snippet
-        // instance (shadow).
+        // instance (shadow), unless the value is shared by all shadows in
+        // the method and has already been computed.
         //
-        final Map <StaticContextKey, Object> staticInfoData = new HashMap <> ();
+        final int scmCount = StaticContextMethod.count ();
+        final Object [] methodValues = __newValues (scmCount);
+        final Map <Shadow, Object []> shadowValues = new HashMap <> ();
+
         for (final Snippet snippet : snippetMarkings.keySet ()) {
             for (final StaticContextMethod scm : snippet.getCode ().getReferencedSCMs ()) {
+                final int index = scm.getIndex ();
+                final boolean perShadow =
+                    scm.getGranularity () == Granularity.Level.REGION;
 
                 for (final Shadow shadow : snippetMarkings.get (snippet)) {
+                    final Object [] values = perShadow ?
+                        shadowValues.computeIfAbsent (shadow, s -> __newValues (scmCount)) :
+                        methodValues;
+
+                    if (values [index] != __NONE__) {
+                        continue;
+                    }
+
                     final StaticContext staticContext =
                         SCResolver.getInstance().getStaticContextInstance (
                             scm.getReferencedClass (), shadow
                         );
 
-                    final Object result = getStaticContextData (
-                        staticContext, scm.getMethod ()
-                    );
-
-                    // store the result
-                    staticInfoData.put (
-                        new StaticContextKey (shadow, scm.getId ()), result
-                    );
+                    values [index] = getStaticContextData (staticContext, scm);
                 }
             }
         }
 
-        return new SCGenerator (staticInfoData);
+        return new SCGenerator (methodValues, shadowValues);
     }
 
+
+    private static Object [] __newValues (final int count) {
+        final Object [] result = new Object [count];
+        Arrays.fill (result, __NONE__);
+        return result;
+    }
+
+
     // resolves static context data - uses static context data caching
     private static Object getStaticContextData (
-        final StaticContext staticContext, final Method method
-    ) throws StaticContextGenException, ReflectionException {
+        final StaticContext staticContext, final StaticContextMethod scm
+    ) throws StaticContextGenException {
 
         try {
             // get static data by invoking static context method
-            method.setAccessible (true);
-            return method.invoke (staticContext);
+            return scm.invoke (staticContext);
 
-        } catch (final Exception e) {
-            final String message = String.format (
-                "Invocation of static context method %s failed",
-                method.getName ()
+        } catch (final Throwable t) {
+            throw new StaticContextGenException (
+                t, "Invocation of static context method %s failed",
+                scm.getMethod ().getName ()
             );
-            throw new StaticContextGenException (message, e);
         }
     }
 
     //
 
-    public boolean contains (final Shadow shadow, final String infoClass, final String infoMethod) {
-        return staticInfoData.containsKey (new StaticContextKey (
-            shadow, infoClass, infoMethod
-        ));
+    public boolean contains (final Shadow shadow, final StaticContextMethod scm) {
+        return __value (shadow, scm) != __NONE__;
     }
 
 
-    public Object get (final Shadow shadow, final String infoClass, final String infoMethod) {
-        return staticInfoData.get (new StaticContextKey (
-            shadow, infoClass, infoMethod
-        ));
+    public Object get (final Shadow shadow, final StaticContextMethod scm) {
+        final Object result = __value (shadow, scm);
+        return (result != __NONE__) ? result : null;
+    }
+
+
+    private Object __value (final Shadow shadow, final StaticContextMethod scm) {
+        final int index = scm.getIndex ();
+        if (scm.getGranularity () != Granularity.Level.REGION) {
+            return (index < __methodValues.length) ? __methodValues [index] : __NONE__;
+        }
+
+        final Object [] values = __shadowValues.get (shadow);
+        return (values != null && index < values.length) ? values [index] : __NONE__;
     }
 
 }
@@ -8,7 +8,7 @@ import ch.usi.dag.disl.util.Constants;
 
 public abstract class AbstractMethodUid extends AbstractUniqueId {
 
-    private static AbstractUniqueId __instance__;
+    private static volatile AbstractUniqueId __instance__;
 
     //
 
@@ -37,12 +37,23 @@ public abstract class AbstractMethodUid extends AbstractUniqueId {
     }
 
     @Override
-    protected final synchronized AbstractUniqueId getSingleton () {
-        if (__instance__ == null) {
-            __instance__ = _getInstance ();
+    protected final AbstractUniqueId getSingleton () {
+        //
+        // Each instrumentation thread has its own static context instance,
+        // so the singleton needs to be created under a class-wide lock.
+        //
+        AbstractUniqueId result = __instance__;
+        if (result == null) {
+            synchronized (AbstractMethodUid.class) {
+                result = __instance__;
+                if (result == null) {
+                    result = _getInstance ();
+                    __instance__ = result;
+                }
+            }
         }
 
-        return __instance__;
+        return result;
     }
 
     //
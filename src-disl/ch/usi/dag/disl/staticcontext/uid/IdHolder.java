@@ -2,8 +2,8 @@ package ch.usi.dag.disl.staticcontext.uid;
 
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import ch.usi.dag.disl.exception.StaticContextException;
 
@@ -14,7 +14,8 @@ class IdHolder {
 
 	private AbstractIdCalculator idCalc;
 	
-	private Map<String, Integer> strToId = new HashMap<String, Integer>();
+	private final ConcurrentMap<String, Integer> strToId =
+			new ConcurrentHashMap<String, Integer>();
 	
 	public IdHolder(AbstractIdCalculator idCalc, String outputFileName) {
 
@@ -37,8 +38,9 @@ class IdHolder {
 		});
 	}
 
-	public synchronized int getID(String forValue) {
+	public int getID(String forValue) {
 		
+		// lock-free lookup for ids that have been already assigned
 		Integer alreadyAssignedId = strToId.get(forValue);
 		
 		if(alreadyAssignedId != null) {
@@ -48,7 +50,15 @@ class IdHolder {
 		return newID(forValue);
 	}
 	
-	private int newID(String forValue) {
+	// id calculators and the output are not thread-safe
+	private synchronized int newID(String forValue) {
+		
+		// another thread may have assigned the id in the meantime
+		Integer alreadyAssignedId = strToId.get(forValue);
+		
+		if(alreadyAssignedId != null) {
+			return alreadyAssignedId;
+		}
 		
 		int newId = idCalc.getId();
 
@@ -543,8 +543,14 @@ public abstract class AsmHelper {
         // Clone all the labels and key them to the original label.
         // LB: Consider using an instruction filter.
         //
+        // Walk the list directly, because the list iterator modifies the
+        // list (it builds an index cache), and the list may be shared.
+        //
         final Map <LabelNode, LabelNode> result = new HashMap <LabelNode, LabelNode> ();
-        for (final AbstractInsnNode insn : Insns.selectAll (insnList)) {
+        for (
+            AbstractInsnNode insn = insnList.getFirst ();
+            insn != null; insn = insn.getNext ()
+        ) {
             if (insn instanceof LabelNode) {
                 final LabelNode clone = new LabelNode (new Label ());
                 final LabelNode original = (LabelNode) insn;
@@ -565,7 +571,10 @@ public abstract class AsmHelper {
         // LB: This is typical map-reduce
         //
         final InsnList result = new InsnList ();
-        for (final AbstractInsnNode insn : Insns.selectAll (insnList)) {
+        for (
+            AbstractInsnNode insn = insnList.getFirst ();
+            insn != null; insn = insn.getNext ()
+        ) {
             result.add (insn.clone (replacementLabels));
         }
 
@@ -0,0 +1,308 @@
+package ch.usi.dag.disl.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+
+/**
+ * Keeps track of the superclasses of classes, so that the common superclass
+ * of two classes can be determined without loading the classes. This is
+ * needed when computing stack map frames for instrumented classes, because
+ * the classes being instrumented are not available to the class loaders of
+ * the instrumentation server.
+ * <p>
+ * Classes are added to the hierarchy as their bytes become available. Only
+ * classes added during this run are used to determine common superclasses,
+ * because other sources, such as the system class loader of the server, may
+ * provide classes different from those of the application. The
+ * {@link Object} class is the root of the hierarchy and is always known.
+ * If the superclasses of a class are not known, its common superclass with
+ * other classes cannot be determined, and the users of the hierarchy usually
+ * assume it to be {@link Object}.
+ * <p>
+ * Different class loaders may define different classes with the same name.
+ * The hierarchy keeps the first class added under a name, and if a class with
+ * the same name but a different superclass is added later, the common
+ * superclass of that class with any other class becomes {@link Object}.
+ * <p>
+ * The hierarchy can be written to and read from a stream, so that it can be
+ * preserved between runs. The application may have changed since, so the
+ * classes read from a stream are only used once they are added again during
+ * this run. This class is thread-safe.
+ */
+public final class ClassHierarchy {
+
+    private static final String __OBJECT_CLASS_NAME__ = Type.getInternalName (Object.class);
+
+    private static final int __FORMAT_MAGIC__ = 0x44694348;
+
+    private static final int __FORMAT_VERSION__ = 1;
+
+    /** Marks classes added more than once with different superclasses. */
+    private static final Entry __CONFLICTING__ = new Entry (null, false, true);
+
+    /** The root of the hierarchy, known without adding it. */
+    private static final Entry __OBJECT__ = new Entry (null, false, true);
+
+    //
+
+    private final Map <String, Entry> __entries = new ConcurrentHashMap <> ();
+
+    //
+
+    /**
+     * Adds a class to the hierarchy. If the hierarchy already contains a
+     * different class with the same name, the class is marked as conflicting.
+     *
+     * @param className
+     *        the internal name of the class
+     * @param superName
+     *        the internal name of the superclass, or {@code null} if the
+     *        class has no superclass
+     * @param isInterface
+     *        whether the class is an interface
+     */
+    public void add (
+        final String className, final String superName, final boolean isInterface
+    ) {
+        __entries.merge (
+            className, new Entry (superName, isInterface, true),
+            ClassHierarchy::__merge
+        );
+    }
+
+
+    private static Entry __merge (final Entry previous, final Entry added) {
+        //
+        // Replace classes read from a stream, which may be stale. Keep the
+        // first class added during this run, unless it differs from the
+        // added class.
+        //
+        if (!previous.isConfirmed) {
+            return added;
+
+        } else if (previous == __CONFLICTING__ || previous.describes (added)) {
+            return previous;
+
+        } else {
+            return __CONFLICTING__;
+        }
+    }
+
+
+    /**
+     * Adds the class defined by the given reader to the hierarchy.
+     */
+    public void add (final ClassReader reader) {
+        add (
+            reader.getClassName (), reader.getSuperName (),
+            (reader.getAccess () & Opcodes.ACC_INTERFACE) != 0
+        );
+    }
+
+
+    /**
+     * Adds the class defined by the class-file bytes between the position and
+     * the limit of the given buffer to the hierarchy. The position of the
+     * buffer is not changed.
+     *
+     * @return {@code true} if the class was added, {@code false} if the
+     *         bytes could not be parsed.
+     */
+    public boolean add (final ByteBuffer classBytes) {
+        try {
+            add (ClassNodeHelper.reader (classBytes));
+            return true;
+
+        } catch (final RuntimeException e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * Returns the number of classes in the hierarchy, including the classes
+     * read from a stream and not added again.
+     */
+    public int size () {
+        return __entries.size ();
+    }
+
+    //
+
+    /**
+     * Returns the internal name of the most specific common superclass of the
+     * two given classes. If either class is an interface, returns the internal
+     * name of the {@link Object} class, just like the verifier, which treats
+     * interfaces as objects. The same applies to conflicting classes.
+     *
+     * @param type1
+     *        the internal name of the first class
+     * @param type2
+     *        the internal name of the second class
+     * @return The internal name of the common superclass, or {@code null} if
+     *         the superclasses of either class are not known, i.e., some of
+     *         them were not added during this run.
+     */
+    public String commonSuperClass (final String type1, final String type2) {
+        if (type1.equals (type2)) {
+            return type1;
+        }
+
+        final List <String> supers1 = __superClasses (type1);
+        final List <String> supers2 = __superClasses (type2);
+        if (supers1 == null || supers2 == null) {
+            return null;
+        }
+
+        if (supers1.isEmpty () || supers2.isEmpty ()) {
+            return __OBJECT_CLASS_NAME__;
+        }
+
+        final Set <String> candidates = new HashSet <> (supers1);
+        for (final String superName : supers2) {
+            if (candidates.contains (superName)) {
+                return superName;
+            }
+        }
+
+        return __OBJECT_CLASS_NAME__;
+    }
+
+
+    /**
+     * Returns the given class followed by its superclasses, an empty list if
+     * the class or some of its superclasses is an interface or a conflicting
+     * class, or {@code null} if some of the superclasses are not known.
+     */
+    private List <String> __superClasses (final String className) {
+        final List <String> result = new ArrayList <> ();
+
+        String name = className;
+        while (name != null) {
+            final Entry entry = __lookup (name);
+            if (entry == null || !entry.isConfirmed) {
+                return null;
+            }
+
+            if (entry.isInterface || entry == __CONFLICTING__) {
+                return Collections.emptyList ();
+            }
+
+            // Classes defined by different class loaders may form a cycle.
+            if (result.contains (name)) {
+                return null;
+            }
+
+            result.add (name);
+            name = entry.superName;
+        }
+
+        return result;
+    }
+
+
+    private Entry __lookup (final String className) {
+        if (__OBJECT_CLASS_NAME__.equals (className)) {
+            return __OBJECT__;
+        }
+
+        return __entries.get (className);
+    }
+
+    //
+
+    /**
+     * Writes the classes in the hierarchy to the given output stream. The
+     * stream is not closed. Conflicting classes are not written.
+     */
+    public void writeTo (final OutputStream os) throws IOException {
+        final DataOutputStream out = new DataOutputStream (os);
+        out.writeInt (__FORMAT_MAGIC__);
+        out.writeInt (__FORMAT_VERSION__);
+
+        for (final Map.Entry <String, Entry> mapEntry : __entries.entrySet ()) {
+            final Entry entry = mapEntry.getValue ();
+            if (entry == __CONFLICTING__) {
+                continue;
+            }
+
+            out.writeBoolean (true);
+            out.writeUTF (mapEntry.getKey ());
+            out.writeUTF (entry.superName != null ? entry.superName : "");
+            out.writeBoolean (entry.isInterface);
+        }
+
+        out.writeBoolean (false);
+        out.flush ();
+    }
+
+
+    /**
+     * Adds the classes written by {@link #writeTo(OutputStream)} to the
+     * hierarchy. Classes already in the hierarchy are not replaced. Classes
+     * read from the stream may be stale, so they are not used until they are
+     * added again, and they are replaced by classes added later without
+     * marking them as conflicting. The stream is not closed.
+     *
+     * @throws IOException
+     *         if the stream could not be read or has an unknown format.
+     */
+    public void readFrom (final InputStream is) throws IOException {
+        final DataInputStream in = new DataInputStream (is);
+        if (in.readInt () != __FORMAT_MAGIC__ || in.readInt () != __FORMAT_VERSION__) {
+            throw new IOException ("unknown class hierarchy format");
+        }
+
+        while (in.readBoolean ()) {
+            final String className = in.readUTF ();
+            final String superName = in.readUTF ();
+            final boolean isInterface = in.readBoolean ();
+
+            // keep the classes added during this run
+            __entries.putIfAbsent (className, new Entry (
+                superName.isEmpty () ? null : superName, isInterface, false
+            ));
+        }
+    }
+
+    //
+
+    private static final class Entry {
+        final String superName;
+        final boolean isInterface;
+        /** Whether the class was added during this run. */
+        final boolean isConfirmed;
+
+        Entry (
+            final String superName, final boolean isInterface,
+            final boolean isConfirmed
+        ) {
+            this.superName = superName;
+            this.isInterface = isInterface;
+            this.isConfirmed = isConfirmed;
+        }
+
+        boolean describes (final Entry that) {
+            return Objects.equals (superName, that.superName)
+                && isInterface == that.isInterface;
+        }
+    }
+
+}
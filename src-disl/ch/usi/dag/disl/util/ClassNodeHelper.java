@@ -2,12 +2,19 @@ package ch.usi.dag.disl.util;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
 
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
 
 
 /**
@@ -58,6 +65,31 @@ public enum ClassNodeHelper {
     }
 
 
+    /**
+     * Creates a new {@link ClassNode} instance by parsing class-file bytes
+     * between the position and the limit of the given buffer. The bytes are
+     * parsed in place if the buffer provides access to its backing array,
+     * otherwise they are copied into a new array first. The position of
+     * the buffer is not changed.
+     */
+    public ClassNode unmarshal (final ByteBuffer buffer) {
+        final ClassNode result = new ClassNode (Opcodes.ASM5);
+        reader (buffer).accept (result, __flags);
+        return result;
+    }
+
+
+    /**
+     * Creates a new {@link ClassNode} instance using the given reader. The
+     * same reader can be used to create multiple instances.
+     */
+    public ClassNode unmarshal (final ClassReader reader) {
+        final ClassNode result = new ClassNode (Opcodes.ASM5);
+        reader.accept (result, __flags);
+        return result;
+    }
+
+
     /**
      * Creates a new {@link ClassNode} instance by parsing class-file bytes
      * from the given input stream.
@@ -80,6 +112,27 @@ public enum ClassNodeHelper {
     }
 
 
+    /**
+     * Creates a {@link ClassReader} for class-file bytes between the position
+     * and the limit of the given buffer. The reader uses the backing array
+     * of the buffer if there is one, otherwise the bytes are copied into a
+     * new array first. The position of the buffer is not changed.
+     */
+    public static ClassReader reader (final ByteBuffer buffer) {
+        if (buffer.hasArray ()) {
+            return new ClassReader (
+                buffer.array (), buffer.arrayOffset () + buffer.position (),
+                buffer.remaining ()
+            );
+
+        } else {
+            final byte [] bytes = new byte [buffer.remaining ()];
+            buffer.duplicate ().get (bytes);
+            return new ClassReader (bytes);
+        }
+    }
+
+
     /**
      * Creates a new {@link ClassNode} instance as a duplicate of the
      * given instance.
@@ -104,42 +157,183 @@ public enum ClassNodeHelper {
      * @return array of bytes representing the contents of a class file.
      */
     public static byte [] marshal (final ClassNode source) {
-        //
-        // DiSL uses instructions only available in later class versions.
-        // We therefore produce at least Java 5 class files.
-        //
-        final int requiredVersion = Opcodes.V1_5;
-        final int requiredMajorVersion = requiredVersion & 0xFFFF;
-        final int classMajorVersion = source.version & 0xFFFF;
-        if (classMajorVersion < requiredMajorVersion) {
-            source.version = requiredVersion;
-        }
+        return marshal (source, null);
+    }
 
+
+    /**
+     * Marshals the given {@link ClassNode} instance into an array of bytes
+     * representing the contents of a class file. The common superclasses of
+     * classes needed to compute stack map frames are determined using the
+     * given class hierarchy.
+     *
+     * @param source
+     *        the {@link ClassNode} to marshal.
+     * @param hierarchy
+     *        the class hierarchy to use, or {@code null} to assume
+     *        {@link Object} to be the common superclass of any two classes.
+     * @return array of bytes representing the contents of a class file.
+     */
+    public static byte [] marshal (
+        final ClassNode source, final ClassHierarchy hierarchy
+    ) {
         //
         // We need to compute stack frame maps for Java 7 (and newer) classes.
         // For older class version, we only compute the maximum stack sizes.
         //
-        final int java7MajorVersion = Opcodes.V1_7;
-        final int writerFlags = (classMajorVersion >= java7MajorVersion) ?
+        final int writerFlags = __requiresFrames (source) ?
+            ClassWriter.COMPUTE_FRAMES : ClassWriter.COMPUTE_MAXS;
+
+        final ClassWriter writer = new HierarchyWriter (writerFlags, hierarchy);
+        source.accept (writer);
+        return writer.toByteArray ();
+    }
+
+
+    /**
+     * Marshals the given {@link ClassNode} instance into an array of bytes
+     * representing the contents of a class file, but only computes the stack
+     * map frames and the maximum stack sizes for the methods accepted by the
+     * given predicate. The given reader must hold the class the
+     * {@link ClassNode} instance was parsed from. The other methods of the
+     * class are copied from the reader as they are, without parsing their
+     * code, and so are the fields and attributes of the class. Only the
+     * methods and the class version of the {@link ClassNode} instance may
+     * differ from the class held by the reader.
+     *
+     * @param source
+     *        the {@link ClassNode} to marshal.
+     * @param reader
+     *        the reader holding the class the {@link ClassNode} was parsed
+     *        from.
+     * @param isChanged
+     *        determines the methods whose code has been changed.
+     * @param hierarchy
+     *        the class hierarchy to use, or {@code null} to assume
+     *        {@link Object} to be the common superclass of any two classes.
+     * @return array of bytes representing the contents of a class file.
+     */
+    public static byte [] marshal (
+        final ClassNode source, final ClassReader reader,
+        final Predicate <MethodNode> isChanged, final ClassHierarchy hierarchy
+    ) {
+        final int writerFlags = __requiresFrames (source) ?
             ClassWriter.COMPUTE_FRAMES : ClassWriter.COMPUTE_MAXS;
 
-        final ClassWriter writer = new ClassWriter (writerFlags) {
+        final Map <String, MethodNode> methods = new LinkedHashMap <> ();
+        for (final MethodNode method : source.methods) {
+            methods.put (method.name + method.desc, method);
+        }
+
+        //
+        // A writer created from a reader shares the constant pool with the
+        // reader, and the reader copies the bytes of a method instead of
+        // parsing it whenever the method is visited directly by the writer.
+        //
+        final ClassWriter writer = new HierarchyWriter (reader, writerFlags, hierarchy);
+        reader.accept (new ClassVisitor (Opcodes.ASM5, writer) {
             @Override
-            protected String getCommonSuperClass (
-                final String type1, final String type2
+            public void visit (
+                final int version, final int access, final String name,
+                final String signature, final String superName,
+                final String [] interfaces
             ) {
-                //
-                // Use java.lang.Object as the common superclass to
-                // avoid loading the two classes.
-                //
-                return __OBJECT_CLASS_NAME__;
+                super.visit (
+                    source.version, access, name, signature, superName, interfaces
+                );
             }
-        };
 
-        source.accept (writer);
+            @Override
+            public MethodVisitor visitMethod (
+                final int access, final String name, final String desc,
+                final String signature, final String [] exceptions
+            ) {
+                final MethodNode method = methods.remove (name + desc);
+                if (method == null) {
+                    return null;
+                }
+
+                if (isChanged.test (method)) {
+                    method.accept (cv);
+                    return null;
+                }
+
+                return super.visitMethod (access, name, desc, signature, exceptions);
+            }
+
+            @Override
+            public void visitEnd () {
+                // add the methods not present in the original class
+                for (final MethodNode method : methods.values ()) {
+                    method.accept (cv);
+                }
+
+                super.visitEnd ();
+            }
+        }, 0);
+
         return writer.toByteArray ();
     }
 
+
+    /**
+     * Ensures that the class version of the given class supports the
+     * instructions used by DiSL, and determines whether the class requires
+     * stack map frames.
+     */
+    private static boolean __requiresFrames (final ClassNode source) {
+        //
+        // DiSL uses instructions only available in later class versions.
+        // We therefore produce at least Java 5 class files.
+        //
+        final int requiredVersion = Opcodes.V1_5;
+        final int requiredMajorVersion = requiredVersion & 0xFFFF;
+        final int classMajorVersion = source.version & 0xFFFF;
+        if (classMajorVersion < requiredMajorVersion) {
+            source.version = requiredVersion;
+        }
+
+        final int java7MajorVersion = Opcodes.V1_7;
+        return classMajorVersion >= java7MajorVersion;
+    }
+
     private static final String __OBJECT_CLASS_NAME__ = Type.getInternalName (Object.class);
 
+    //
+
+    /**
+     * A class writer determining the common superclasses of classes using a
+     * class hierarchy, to avoid loading the classes.
+     */
+    private static final class HierarchyWriter extends ClassWriter {
+
+        private final ClassHierarchy __hierarchy;
+
+        HierarchyWriter (final int flags, final ClassHierarchy hierarchy) {
+            super (flags);
+            __hierarchy = hierarchy;
+        }
+
+        HierarchyWriter (
+            final ClassReader reader, final int flags, final ClassHierarchy hierarchy
+        ) {
+            super (reader, flags);
+            __hierarchy = hierarchy;
+        }
+
+        @Override
+        protected String getCommonSuperClass (
+            final String type1, final String type2
+        ) {
+            //
+            // Without a class hierarchy, or if the classes are not known,
+            // use java.lang.Object as the common superclass.
+            //
+            final String result = (__hierarchy != null) ?
+                __hierarchy.commonSuperClass (type1, type2) : null;
+
+            return (result != null) ? result : __OBJECT_CLASS_NAME__;
+        }
+    }
+
 }
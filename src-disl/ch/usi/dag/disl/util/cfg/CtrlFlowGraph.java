@@ -1,8 +1,11 @@
 package ch.usi.dag.disl.util.cfg;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.objectweb.asm.Opcodes;
@@ -26,9 +29,15 @@ public class CtrlFlowGraph {
     // basic blocks of a method
     private List<BasicBlock> nodes;
 
+    // basic blocks keyed by their entrance instruction
+    private Map<AbstractInsnNode, BasicBlock> entrances;
+
     // a basic block is marked as connected after visited
     private List<BasicBlock> connected_nodes;
 
+    // indices of the connected basic blocks in connected_nodes
+    private Map<BasicBlock, Integer> connected_indices;
+
     // size of connected basic blocks since last visit
     private int connected_size;
 
@@ -39,8 +48,10 @@ public class CtrlFlowGraph {
     public CtrlFlowGraph(InsnList instructions,
             List<TryCatchBlockNode> tryCatchBlocks) {
 
-        nodes = new LinkedList<BasicBlock>();
-        connected_nodes = new LinkedList<BasicBlock>();
+        nodes = new ArrayList<BasicBlock>();
+        entrances = new HashMap<AbstractInsnNode, BasicBlock>();
+        connected_nodes = new ArrayList<BasicBlock>();
+        connected_indices = new HashMap<BasicBlock, Integer>();
         connected_size = 0;
 
         method_exits = new HashSet<BasicBlock>();
@@ -60,7 +71,14 @@ public class CtrlFlowGraph {
             }
 
             end = Insns.REVERSE.firstRealInsn (end);
-            nodes.add(new BasicBlock(i, start, end));
+
+            BasicBlock bb = new BasicBlock(i, start, end);
+            nodes.add(bb);
+
+            // the first block starting with an instruction wins
+            if (!entrances.containsKey(start)) {
+                entrances.put(start, bb);
+            }
         }
     }
 
@@ -92,10 +110,9 @@ public class CtrlFlowGraph {
         instr = Insns.FORWARD.firstRealInsn (instr);
 
         while (instr != null) {
-            for (int i = 0; i < nodes.size(); i++) {
-                if (nodes.get(i).getEntrance().equals(instr)) {
-                    return nodes.get(i);
-                }
+            BasicBlock bb = entrances.get(instr);
+            if (bb != null) {
+                return bb;
             }
 
             instr = instr.getPrevious();
@@ -117,9 +134,10 @@ public class CtrlFlowGraph {
             return NOT_FOUND;
         }
 
-        if (connected_nodes.contains(bb)) {
+        Integer connected_index = connected_indices.get(bb);
+        if (connected_index != null) {
 
-            int index = connected_nodes.indexOf(bb);
+            int index = connected_index;
 
             if (current != null) {
                 if (index < connected_size) {
@@ -138,6 +156,7 @@ public class CtrlFlowGraph {
             bb.getPredecessors().add(current);
         }
 
+        connected_indices.put(bb, connected_nodes.size());
         connected_nodes.add(bb);
         return NEW;
     }
@@ -0,0 +1,202 @@
+package ch.usi.dag.disl.util.cfg;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+
+/**
+ * Computes the dominator tree of a control flow graph with multiple entry
+ * blocks (the method entry and the exception handlers). Each entry block is
+ * dominated only by itself.
+ * <p>
+ * The immediate dominators are computed using the iterative algorithm by
+ * Cooper, Harvey and Kennedy ("A Simple, Fast Dominance Algorithm"), which
+ * processes the blocks in reverse postorder and usually converges in two
+ * passes. The entry blocks are treated as successors of a virtual root.
+ * Blocks unreachable from any entry block have no dominators.
+ */
+public final class Dominators {
+
+    private static final int __UNDEFINED__ = -1;
+
+    //
+
+    /** The index of the virtual root, which precedes all entry blocks. */
+    private final int __root;
+
+    /** Immediate dominators, indexed by basic block index. */
+    private final int [] __idoms;
+
+    //
+
+    public Dominators (
+        final CtrlFlowGraph cfg, final Collection <BasicBlock> entries
+    ) {
+        final List <BasicBlock> nodes = cfg.getNodes ();
+        __root = nodes.size ();
+
+        //
+        // Number the blocks in postorder, starting from the virtual root.
+        // The root gets the highest number.
+        //
+        final int [] postorder = new int [__root + 1];
+        Arrays.fill (postorder, __UNDEFINED__);
+
+        final int [] rpo = __reversePostorder (nodes, entries, postorder);
+
+        //
+        // Iterate until the immediate dominators stabilize. The entry
+        // blocks are always immediately dominated by the virtual root.
+        //
+        __idoms = new int [__root + 1];
+        Arrays.fill (__idoms, __UNDEFINED__);
+        __idoms [__root] = __root;
+
+        final boolean [] isEntry = new boolean [__root];
+        for (final BasicBlock entry : entries) {
+            isEntry [entry.getIndex ()] = true;
+            __idoms [entry.getIndex ()] = __root;
+        }
+
+        boolean changed;
+        do {
+            changed = false;
+
+            for (final int block : rpo) {
+                if (isEntry [block]) {
+                    continue;
+                }
+
+                int newIdom = __UNDEFINED__;
+                for (final BasicBlock pred : nodes.get (block).getPredecessors ()) {
+                    final int predIndex = pred.getIndex ();
+                    if (__idoms [predIndex] == __UNDEFINED__) {
+                        continue;
+                    }
+
+                    newIdom = (newIdom == __UNDEFINED__) ?
+                        predIndex : __intersect (predIndex, newIdom, postorder);
+                }
+
+                if (newIdom != __UNDEFINED__ && __idoms [block] != newIdom) {
+                    __idoms [block] = newIdom;
+                    changed = true;
+                }
+            }
+        } while (changed);
+    }
+
+
+    private int __intersect (int finger1, int finger2, final int [] postorder) {
+        while (finger1 != finger2) {
+            while (postorder [finger1] < postorder [finger2]) {
+                finger1 = __idoms [finger1];
+            }
+
+            while (postorder [finger2] < postorder [finger1]) {
+                finger2 = __idoms [finger2];
+            }
+        }
+
+        return finger1;
+    }
+
+
+    /**
+     * Returns the indices of the blocks reachable from the entry blocks in
+     * reverse postorder, excluding the virtual root, and fills in the
+     * postorder numbers of the visited blocks and the root.
+     */
+    private int [] __reversePostorder (
+        final List <BasicBlock> nodes, final Collection <BasicBlock> entries,
+        final int [] postorder
+    ) {
+        final boolean [] visited = new boolean [nodes.size ()];
+        final int [] order = new int [nodes.size ()];
+        int count = 0;
+
+        //
+        // Use an explicit stack to avoid overflowing the thread stack on
+        // large methods. Each stack element keeps the iterator over the
+        // successors of the block that remain to be visited.
+        //
+        final Deque <BasicBlock> blocks = new ArrayDeque <> ();
+        final Deque <Iterator <BasicBlock>> successors = new ArrayDeque <> ();
+
+        for (final BasicBlock entry : entries) {
+            if (visited [entry.getIndex ()]) {
+                continue;
+            }
+
+            visited [entry.getIndex ()] = true;
+            blocks.push (entry);
+            successors.push (entry.getSuccessors ().iterator ());
+
+            while (!blocks.isEmpty ()) {
+                final Iterator <BasicBlock> iterator = successors.peek ();
+                if (iterator.hasNext ()) {
+                    final BasicBlock next = iterator.next ();
+                    if (!visited [next.getIndex ()]) {
+                        visited [next.getIndex ()] = true;
+                        blocks.push (next);
+                        successors.push (next.getSuccessors ().iterator ());
+                    }
+
+                } else {
+                    final BasicBlock block = blocks.pop ();
+                    successors.pop ();
+
+                    postorder [block.getIndex ()] = count;
+                    order [count++] = block.getIndex ();
+                }
+            }
+        }
+
+        postorder [__root] = count;
+
+        final int [] result = new int [count];
+        for (int i = 0; i < count; i++) {
+            result [i] = order [count - 1 - i];
+        }
+
+        return result;
+    }
+
+    //
+
+    /**
+     * Determines whether a basic block dominates another basic block. Every
+     * reachable block dominates itself.
+     *
+     * @param dominator
+     *        the potential dominator
+     * @param block
+     *        the block to check
+     * @return {@code true} if the {@code dominator} block dominates the
+     *         given {@code block}.
+     */
+    public boolean dominates (final BasicBlock dominator, final BasicBlock block) {
+        final int target = dominator.getIndex ();
+
+        int current = block.getIndex ();
+        if (__idoms [current] == __UNDEFINED__) {
+            // unreachable block
+            return false;
+        }
+
+        while (current != __root) {
+            if (current == target) {
+                return true;
+            }
+
+            current = __idoms [current];
+        }
+
+        return false;
+    }
+
+}
@@ -0,0 +1,126 @@
+package ch.usi.dag.disl.util.cfg;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+
+
+/**
+ * Provides control flow analyses of a method, i.e., its basic blocks, control
+ * flow graph, and dominators. Each analysis is computed lazily, at most once,
+ * and shared by all users of the same {@link MethodAnalysis} instance, e.g.,
+ * markers and static contexts.
+ * <p>
+ * DiSL opens an analysis for a method before marking the method, and closes
+ * it once the guards and static contexts have been evaluated, before the
+ * method is woven. While the analysis is open, all calls
+ * to {@link #of(MethodNode)} for the method return the same instance. For
+ * other methods, {@link #of(MethodNode)} returns a new instance, which is
+ * not cached.
+ * <p>
+ * The analyses reflect the code of the method at the time they are computed,
+ * so the method must not be modified while an analysis is open. This class is
+ * thread-safe.
+ */
+public final class MethodAnalysis implements AutoCloseable {
+
+    /** Open analyses, keyed by (the identity of) the analyzed method. */
+    private static final ConcurrentMap <MethodNode, MethodAnalysis> __openAnalyses__ =
+        new ConcurrentHashMap <> ();
+
+    //
+
+    private final MethodNode __method;
+
+    private CtrlFlowGraph __cfg;
+
+    private Dominators __dominators;
+
+    //
+
+    private MethodAnalysis (final MethodNode method) {
+        __method = method;
+    }
+
+    //
+
+    /**
+     * Opens an analysis of the given method, which will be shared until it
+     * is closed.
+     */
+    public static MethodAnalysis open (final MethodNode method) {
+        final MethodAnalysis result = new MethodAnalysis (method);
+        __openAnalyses__.put (method, result);
+        return result;
+    }
+
+
+    /**
+     * Returns the open analysis of the given method, or a new analysis if
+     * there is no open analysis for the method.
+     */
+    public static MethodAnalysis of (final MethodNode method) {
+        final MethodAnalysis result = __openAnalyses__.get (method);
+        return (result != null) ? result : new MethodAnalysis (method);
+    }
+
+
+    /**
+     * Closes the analysis, dropping all analysis results.
+     */
+    @Override
+    public void close () {
+        __openAnalyses__.remove (__method, this);
+    }
+
+    //
+
+    /**
+     * @return The control flow graph of the method, with the edges between
+     *         basic blocks reachable from the method entry or from any of the
+     *         exception handlers.
+     */
+    public synchronized CtrlFlowGraph controlFlowGraph () {
+        if (__cfg == null) {
+            __cfg = CtrlFlowGraph.build (__method);
+        }
+
+        return __cfg;
+    }
+
+
+    /**
+     * @return The dominators of the basic blocks in the control flow graph.
+     *         The method entry and the exception handlers are considered to
+     *         be the entry blocks.
+     */
+    public synchronized Dominators dominators () {
+        if (__dominators == null) {
+            final CtrlFlowGraph cfg = controlFlowGraph ();
+
+            final Set <BasicBlock> entries = new LinkedHashSet <> ();
+            __addEntry (entries, cfg.getBB (__method.instructions.getFirst ()));
+            for (final TryCatchBlockNode tcb : __method.tryCatchBlocks) {
+                __addEntry (entries, cfg.getBB (tcb.handler));
+            }
+
+            __dominators = new Dominators (cfg, entries);
+        }
+
+        return __dominators;
+    }
+
+
+    private static void __addEntry (
+        final Set <BasicBlock> entries, final BasicBlock entry
+    ) {
+        if (entry != null) {
+            entries.add (entry);
+        }
+    }
+
+}
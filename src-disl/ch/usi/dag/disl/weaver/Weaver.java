@@ -1,5 +1,6 @@
 package ch.usi.dag.disl.weaver;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -28,6 +29,7 @@ import ch.usi.dag.disl.snippet.Snippet;
 import ch.usi.dag.disl.snippet.SnippetCode;
 import ch.usi.dag.disl.staticcontext.generator.SCGenerator;
 import ch.usi.dag.disl.util.AsmHelper;
+import ch.usi.dag.disl.util.AsmHelper.ClonedCode;
 import ch.usi.dag.disl.util.AsmHelper.Insns;
 
 // The weaver instruments byte-codes into java class.
@@ -213,7 +215,9 @@ public class Weaver {
     private static void insert(final MethodNode methodNode,
             final SCGenerator staticInfoHolder, final PIResolver piResolver,
             final WeavingInfo info, final Snippet snippet, final SnippetCode code, final Shadow shadow,
-            final AbstractInsnNode loc) throws InvalidContextUsageException {
+            final AbstractInsnNode loc, final boolean invariant,
+            final Map<Snippet, WeavingTemplate> templates)
+            throws InvalidContextUsageException {
 
         // exception handler will discard the stack and push the
         // exception object. Thus, before entering this snippet,
@@ -228,6 +232,22 @@ public class Weaver {
             methodNode.instructions.insert(loc, restore);
         }
 
+        // shadow-invariant snippets are transformed only once per method
+        // and each insertion just copies the transformed code
+        if (invariant) {
+            WeavingTemplate template = templates.get(snippet);
+            if (template == null) {
+                template = WeavingTemplate.create(info, methodNode, snippet,
+                        code, shadow, loc, staticInfoHolder, piResolver);
+                templates.put(snippet, template);
+            }
+
+            final ClonedCode cCode = template.instantiate(methodNode);
+            methodNode.instructions.insert(loc, cCode.getInstructions());
+            methodNode.tryCatchBlocks.addAll(cCode.getTryCatchBlocks());
+            return;
+        }
+
         final WeavingCode wCode = new WeavingCode(info, methodNode,
                 code, snippet, shadow, loc);
         wCode.transform(staticInfoHolder, piResolver, false);
@@ -244,6 +264,8 @@ public class Weaver {
 
         final WeavingInfo info = new WeavingInfo(classNode, methodNode,
                 snippetMarkings);
+        final Map<Snippet, WeavingTemplate> templates =
+                new HashMap<Snippet, WeavingTemplate>();
 
         for (final Snippet snippet : info.getSortedSnippets()) {
             final List<Shadow> shadows = snippetMarkings.get(snippet);
@@ -254,6 +276,8 @@ public class Weaver {
                 continue;
             }
 
+            final boolean invariant = WeavingTemplate.isShadowInvariant(code);
+
             // Instrument
             // For @Before, instrument the snippet just before the
             // entrance of a region.
@@ -262,7 +286,7 @@ public class Weaver {
 
                     final AbstractInsnNode loc = shadow.getWeavingRegion().getStart();
                     insert(methodNode, staticInfoHolder, piResolver, info,
-                            snippet, code, shadow, loc);
+                            snippet, code, shadow, loc, invariant, templates);
                 }
             }
 
@@ -275,7 +299,7 @@ public class Weaver {
                     for (final AbstractInsnNode loc : shadow.getWeavingRegion().getEnds()) {
 
                         insert(methodNode, staticInfoHolder, piResolver, info,
-                                snippet, code, shadow, loc);
+                                snippet, code, shadow, loc, invariant, templates);
                     }
                 }
             }
@@ -310,6 +334,7 @@ public class Weaver {
             }
         }
 
+        WovenCodeOptimizer.optimize(methodNode);
         static2Local(methodNode, syntheticLocalVars);
         AdvancedSorter.sort(methodNode);
     }
@@ -21,6 +21,7 @@ import org.objectweb.asm.tree.analysis.SourceValue;
 
 import ch.usi.dag.disl.classcontext.ClassContext;
 import ch.usi.dag.disl.coderep.Code;
+import ch.usi.dag.disl.coderep.StaticContextMethod;
 import ch.usi.dag.disl.dynamiccontext.DynamicContext;
 import ch.usi.dag.disl.exception.DiSLFatalException;
 import ch.usi.dag.disl.exception.InvalidContextUsageException;
@@ -96,7 +97,8 @@ public class WeavingCode {
 
             // TODO LB: If owner implements StaticContext, should not missing info be an error?
             final MethodInsnNode invokeInsn = (MethodInsnNode) insn;
-            if (! staticInfoHolder.contains (shadow, invokeInsn.owner, invokeInsn.name)) {
+            final StaticContextMethod scm = __findStaticContextMethod (invokeInsn);
+            if (scm == null || ! staticInfoHolder.contains (shadow, scm)) {
                 continue;
             }
 
@@ -104,9 +106,7 @@ public class WeavingCode {
             // Lookup the results for the given method.
             // If none is found, return null to the client code.
             //
-            final Object staticInfo = staticInfoHolder.get (
-                shadow, invokeInsn.owner, invokeInsn.name
-            );
+            final Object staticInfo = staticInfoHolder.get (shadow, scm);
 
             // TODO LB: Why insert into code.getInstructions() instead of insns?
             code.getInstructions ().insert (insn,
@@ -123,6 +123,20 @@ public class WeavingCode {
     }
 
 
+    private StaticContextMethod __findStaticContextMethod (
+        final MethodInsnNode invokeInsn
+    ) {
+        // there are only a few static context methods referenced in a snippet
+        for (final StaticContextMethod scm : code.getReferencedSCMs ()) {
+            if (scm.matches (invokeInsn.owner, invokeInsn.name)) {
+                return scm;
+            }
+        }
+
+        return null;
+    }
+
+
     private static final String __CLASS_CONTEXT_INTERNAL_NAME__ =
         Type.getInternalName (ClassContext.class);
 
@@ -203,8 +217,9 @@ public class WeavingCode {
     private void rewriteDynamicContextCalls (
         final boolean throwing, final InsnList insns
     ) throws InvalidContextUsageException {
-        Frame <BasicValue> basicFrame = info.getBasicFrame (weavingLoc);
-        final Frame <SourceValue> sourceFrame = info.getSourceFrame (weavingLoc);
+        // The frames are only retrieved if there are dynamic context calls.
+        Frame <BasicValue> basicFrame = null;
+        boolean basicFrameRetrieved = false;
 
         // Reserve a local variable slot for the exception being thrown.
         final int exceptionSlot = throwing ? method.maxLocals++ : INVALID_SLOT;
@@ -222,6 +237,11 @@ public class WeavingCode {
                 continue;
             }
 
+            if (!basicFrameRetrieved) {
+                basicFrame = info.getBasicFrame (weavingLoc);
+                basicFrameRetrieved = true;
+            }
+
             //
             // Handle individual method invocations.
             //
@@ -317,7 +337,8 @@ public class WeavingCode {
                     // context method invocation.
                     //
                     final int varSize = FrameHelper.dupStack (
-                        sourceFrame, method, itemIndex, expectedType, method.maxLocals
+                        info.getSourceFrame (weavingLoc), method, itemIndex,
+                        expectedType, method.maxLocals
                     );
 
                     insns.insertBefore (
@@ -797,7 +818,7 @@ public class WeavingCode {
     // NOTE that the field maxLocals of the method node will be automatically
     // updated.
     private int fixLocalIndex (final int currentMax, final InsnList insns) {
-        __shiftLocalSlots (currentMax, insns);
+        shiftLocalSlots (currentMax, insns);
         return __calcMaxLocals (currentMax, insns);
     }
 
@@ -836,7 +857,7 @@ public class WeavingCode {
     }
 
 
-    private void __shiftLocalSlots (final int amount, final InsnList insns) {
+    static void shiftLocalSlots (final int amount, final InsnList insns) {
         //
         // Shifts all local variable slot references by a specified amount.
         //
@@ -929,7 +950,7 @@ public class WeavingCode {
             rewriteArgumentContextCalls (position, totalCount, type, insns);
 
             insns.insert (AsmHelper.storeVar (type, 0));
-            __shiftLocalSlots (maxLocals, insns);
+            shiftLocalSlots (maxLocals, insns);
             maxLocals = __calcMaxLocals (maxLocals + type.getSize (), insns);
             insns.insert (AsmHelper.loadVar (type,
                 AsmHelper.getParameterSlot (method, processorMethod.getArgIndex ()) - method.maxLocals
@@ -967,7 +988,7 @@ public class WeavingCode {
                 method.instructions.insert (argLoadInsn, new InsnNode (type.getSize () == 2 ? Opcodes.DUP2 : Opcodes.DUP));
             }
 
-            __shiftLocalSlots (maxLocals, insns);
+            shiftLocalSlots (maxLocals, insns);
             maxLocals = __calcMaxLocals (maxLocals + type.getSize(), insns);
 
             result.add (insns);
@@ -2,19 +2,24 @@ package ch.usi.dag.disl.weaver;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.LabelNode;
 import org.objectweb.asm.tree.MethodNode;
 import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
 import org.objectweb.asm.tree.analysis.BasicValue;
 import org.objectweb.asm.tree.analysis.Frame;
+import org.objectweb.asm.tree.analysis.SourceInterpreter;
 import org.objectweb.asm.tree.analysis.SourceValue;
+import org.objectweb.asm.tree.analysis.Value;
 
 import ch.usi.dag.disl.snippet.Shadow;
 import ch.usi.dag.disl.snippet.Shadow.WeavingRegion;
@@ -27,6 +32,17 @@ public class WeavingInfo {
 
     private ArrayList<Snippet> sortedSnippets;
 
+    // The frames are computed on demand, because most snippets do not need
+    // them. Weaving modifies the method in the meantime, so the frames are
+    // computed for a copy of the method code as it was before weaving.
+    private final String className;
+    private final MethodNode methodNode;
+
+    private final AbstractInsnNode[] originalInsns;
+    private final TryCatchBlockNode[] originalTcbs;
+    private final int originalMaxLocals;
+    private final int originalMaxStack;
+
     private Map<AbstractInsnNode, Frame<BasicValue>> basicFrameMap;
     private Map<AbstractInsnNode, Frame<SourceValue>> sourceFrameMap;
 
@@ -35,6 +51,9 @@ public class WeavingInfo {
     public WeavingInfo(ClassNode classNode, MethodNode methodNode,
             Map<Snippet, List<Shadow>> snippetMarkings) {
 
+        this.className = classNode.name;
+        this.methodNode = methodNode;
+
         sortedSnippets = new ArrayList<Snippet>(snippetMarkings.keySet());
         Collections.sort(sortedSnippets);
 
@@ -112,13 +131,141 @@ public class WeavingInfo {
             }
         }
 
-        basicFrameMap = FrameHelper.createBasicMapping(classNode.name,
-                methodNode);
-        sourceFrameMap = FrameHelper.createSourceMapping(classNode.name,
-                methodNode);
+        originalInsns = instructions.toArray();
+        originalTcbs = methodNode.tryCatchBlocks.toArray(
+                new TryCatchBlockNode[methodNode.tryCatchBlocks.size()]);
+        originalMaxLocals = methodNode.maxLocals;
+        originalMaxStack = methodNode.maxStack;
+    }
+
+    // Creates a copy of the method code as it was before weaving. If the
+    // mapping is not null, it is filled with the original instructions
+    // corresponding to the copied ones.
+    private MethodNode copyOriginalMethod(
+            Map<AbstractInsnNode, AbstractInsnNode> originals) {
+
+        Map<LabelNode, LabelNode> labels = new HashMap<LabelNode, LabelNode>();
+        for (AbstractInsnNode insn : originalInsns) {
+            if (insn instanceof LabelNode) {
+                labels.put((LabelNode) insn, new LabelNode());
+            }
+        }
+
+        MethodNode result = new MethodNode(Opcodes.ASM5, methodNode.access,
+                methodNode.name, methodNode.desc, null, null);
+
+        for (AbstractInsnNode insn : originalInsns) {
+            AbstractInsnNode copy = insn.clone(labels);
+            result.instructions.add(copy);
+
+            if (originals != null) {
+                originals.put(copy, insn);
+            }
+        }
+
+        for (TryCatchBlockNode tcb : originalTcbs) {
+            result.tryCatchBlocks.add(new TryCatchBlockNode(
+                    labels.get(tcb.start), labels.get(tcb.end),
+                    labels.get(tcb.handler), tcb.type));
+        }
+
+        result.maxLocals = originalMaxLocals;
+        result.maxStack = originalMaxStack;
+        return result;
+    }
+
+    // Maps the frames of the copied method to the original instructions.
+    private <V extends Value> Map<AbstractInsnNode, Frame<V>> mapFrames(
+            Frame<V>[] frames) {
+
+        Map<AbstractInsnNode, Frame<V>> result =
+                new HashMap<AbstractInsnNode, Frame<V>>();
+
+        for (int i = 0; i < originalInsns.length; i++) {
+            result.put(originalInsns[i], frames[i]);
+        }
+
+        return result;
+    }
+
+    private Map<AbstractInsnNode, Frame<BasicValue>> basicFrameMap() {
+        if (basicFrameMap == null) {
+            basicFrameMap = mapFrames(FrameHelper.getBasicFrames(
+                    className, copyOriginalMethod(null)));
 
-        AbstractInsnNode last = Insns.REVERSE.firstRealInsn (instructions.getLast());
-        retFrame = basicFrameMap.get(last);
+            AbstractInsnNode last = Insns.REVERSE.firstRealInsn(
+                    originalInsns[originalInsns.length - 1]);
+            retFrame = basicFrameMap.get(last);
+        }
+
+        return basicFrameMap;
+    }
+
+    private Map<AbstractInsnNode, Frame<SourceValue>> sourceFrameMap() {
+        if (sourceFrameMap == null) {
+            //
+            // The source values must refer to the original instructions,
+            // because the weaver inserts code next to these instructions.
+            //
+            Map<AbstractInsnNode, AbstractInsnNode> originals =
+                    new HashMap<AbstractInsnNode, AbstractInsnNode>();
+
+            MethodNode copy = copyOriginalMethod(originals);
+            sourceFrameMap = mapFrames(FrameHelper.getFrames(
+                    new Analyzer<SourceValue>(new OriginalSourceInterpreter(originals)),
+                    className, copy));
+        }
+
+        return sourceFrameMap;
+    }
+
+    // Source interpreter recording the original instructions instead of
+    // the copied instructions being analyzed.
+    private static final class OriginalSourceInterpreter extends SourceInterpreter {
+
+        private final Map<AbstractInsnNode, AbstractInsnNode> originals;
+
+        OriginalSourceInterpreter(
+                Map<AbstractInsnNode, AbstractInsnNode> originals) {
+            super(Opcodes.ASM5);
+            this.originals = originals;
+        }
+
+        @Override
+        public SourceValue newOperation(AbstractInsnNode insn) {
+            return super.newOperation(originals.get(insn));
+        }
+
+        @Override
+        public SourceValue copyOperation(AbstractInsnNode insn,
+                SourceValue value) {
+            return super.copyOperation(originals.get(insn), value);
+        }
+
+        @Override
+        public SourceValue unaryOperation(AbstractInsnNode insn,
+                SourceValue value) {
+            return super.unaryOperation(originals.get(insn), value);
+        }
+
+        @Override
+        public SourceValue binaryOperation(AbstractInsnNode insn,
+                SourceValue value1, SourceValue value2) {
+            return super.binaryOperation(originals.get(insn), value1, value2);
+        }
+
+        @Override
+        public SourceValue ternaryOperation(AbstractInsnNode insn,
+                SourceValue value1, SourceValue value2, SourceValue value3) {
+            return super.ternaryOperation(originals.get(insn), value1, value2,
+                    value3);
+        }
+
+        @Override
+        public SourceValue naryOperation(AbstractInsnNode insn,
+                List<? extends SourceValue> values) {
+            return super.naryOperation(originals.get(insn), values);
+        }
     }
 
     public ArrayList<Snippet> getSortedSnippets() {
@@ -126,31 +273,32 @@ public class WeavingInfo {
     }
 
     public Frame<BasicValue> getBasicFrame(AbstractInsnNode instr) {
-        return basicFrameMap.get(instr);
+        return basicFrameMap().get(instr);
     }
 
     public Frame<BasicValue> getRetFrame() {
+        basicFrameMap();
         return retFrame;
     }
 
     public Frame<SourceValue> getSourceFrame(AbstractInsnNode instr) {
-        return sourceFrameMap.get(instr);
+        return sourceFrameMap().get(instr);
     }
 
     public boolean stackNotEmpty(AbstractInsnNode loc) {
-        return basicFrameMap.get(loc).getStackSize() > 0;
+        return basicFrameMap().get(loc).getStackSize() > 0;
     }
 
     public InsnList backupStack(AbstractInsnNode loc, int startFrom) {
-        return FrameHelper.enter(basicFrameMap.get(loc), startFrom);
+        return FrameHelper.enter(basicFrameMap().get(loc), startFrom);
     }
 
     public InsnList restoreStack(AbstractInsnNode loc, int startFrom) {
-        return FrameHelper.exit(basicFrameMap.get(loc), startFrom);
+        return FrameHelper.exit(basicFrameMap().get(loc), startFrom);
     }
 
     public int getStackHeight(AbstractInsnNode loc) {
-        return FrameHelper.getOffset(basicFrameMap.get(loc));
+        return FrameHelper.getOffset(basicFrameMap().get(loc));
     }
 
 }
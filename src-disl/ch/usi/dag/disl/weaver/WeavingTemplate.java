@@ -0,0 +1,156 @@
+package ch.usi.dag.disl.weaver;
+
+import java.util.List;
+
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+
+import ch.usi.dag.disl.coderep.StaticContextMethod;
+import ch.usi.dag.disl.dynamiccontext.DynamicContext;
+import ch.usi.dag.disl.exception.InvalidContextUsageException;
+import ch.usi.dag.disl.processor.generator.PIResolver;
+import ch.usi.dag.disl.processorcontext.ArgumentProcessorContext;
+import ch.usi.dag.disl.snippet.Shadow;
+import ch.usi.dag.disl.snippet.Snippet;
+import ch.usi.dag.disl.snippet.SnippetCode;
+import ch.usi.dag.disl.staticcontext.Granularity;
+import ch.usi.dag.disl.staticcontext.generator.SCGenerator;
+import ch.usi.dag.disl.util.AsmHelper.ClonedCode;
+import ch.usi.dag.disl.util.Insn;
+
+
+/**
+ * Holds the woven code of a snippet whose expansion does not depend on the
+ * shadow it is woven at, i.e., a snippet that does not apply argument
+ * processors, does not use the dynamic context or the argument processor
+ * context, and only refers to static context methods with class or method
+ * granularity. Such a snippet is transformed only once for each instrumented
+ * method, and each insertion only needs a copy of the template with fresh
+ * labels and with the local variable slots shifted above the locals used so
+ * far by the method.
+ */
+final class WeavingTemplate {
+
+    private static final String __DYNAMIC_CONTEXT_INTERNAL_NAME__ =
+        Type.getInternalName (DynamicContext.class);
+
+    private static final String __ARGUMENT_PROCESSOR_CONTEXT_INTERNAL_NAME__ =
+        Type.getInternalName (ArgumentProcessorContext.class);
+
+    //
+
+    private final InsnList __instructions;
+
+    private final List <TryCatchBlockNode> __tryCatchBlocks;
+
+    /** The method locals the template code was shifted above. */
+    private final int __baseLocals;
+
+    /** The method locals including the locals used by the template code. */
+    private final int __maxLocals;
+
+    //
+
+    private WeavingTemplate (
+        final InsnList instructions, final List <TryCatchBlockNode> tryCatchBlocks,
+        final int baseLocals, final int maxLocals
+    ) {
+        __instructions = instructions;
+        __tryCatchBlocks = tryCatchBlocks;
+        __baseLocals = baseLocals;
+        __maxLocals = maxLocals;
+    }
+
+    //
+
+    /**
+     * Determines whether the woven code of the given snippet code is the same
+     * for all shadows in a method, apart from labels and local variable slots.
+     */
+    static boolean isShadowInvariant (final SnippetCode code) {
+        if (!code.getInvokedProcessors ().isEmpty ()) {
+            return false;
+        }
+
+        for (final StaticContextMethod scm : code.getReferencedSCMs ()) {
+            if (scm.getGranularity () == Granularity.Level.REGION) {
+                return false;
+            }
+        }
+
+        //
+        // The snippet code is shared between threads, so avoid the list
+        // iterator, which modifies the list.
+        //
+        for (
+            AbstractInsnNode insn = code.getInstructions ().getFirst ();
+            insn != null; insn = insn.getNext ()
+        ) {
+            if (!Insn.INVOKEINTERFACE.matches (insn)) {
+                continue;
+            }
+
+            final String owner = ((MethodInsnNode) insn).owner;
+            if (__DYNAMIC_CONTEXT_INTERNAL_NAME__.equals (owner)
+                || __ARGUMENT_PROCESSOR_CONTEXT_INTERNAL_NAME__.equals (owner)
+            ) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Transforms the snippet code for the given (representative) shadow and
+     * keeps the result as a template. The {@link MethodNode#maxLocals
+     * maxLocals} field of the method is left unchanged.
+     */
+    static WeavingTemplate create (
+        final WeavingInfo info, final MethodNode method,
+        final Snippet snippet, final SnippetCode code, final Shadow shadow,
+        final AbstractInsnNode loc, final SCGenerator staticInfoHolder,
+        final PIResolver piResolver
+    ) throws InvalidContextUsageException {
+        final int baseLocals = method.maxLocals;
+
+        final WeavingCode wCode = new WeavingCode (
+            info, method, code, snippet, shadow, loc
+        );
+
+        wCode.transform (staticInfoHolder, piResolver, false);
+
+        final int maxLocals = method.maxLocals;
+        method.maxLocals = baseLocals;
+
+        return new WeavingTemplate (
+            wCode.getiList (), wCode.getTCBs (), baseLocals, maxLocals
+        );
+    }
+
+    //
+
+    /**
+     * Returns a copy of the template code for insertion into the given method,
+     * with the local variable slots shifted above the current maximum locals
+     * of the method. The {@link MethodNode#maxLocals maxLocals} field of the
+     * method is updated accordingly.
+     */
+    ClonedCode instantiate (final MethodNode method) {
+        final ClonedCode result = ClonedCode.create (
+            __instructions, __tryCatchBlocks
+        );
+
+        final int shift = method.maxLocals - __baseLocals;
+        WeavingCode.shiftLocalSlots (shift, result.getInstructions ());
+        method.maxLocals = __maxLocals + shift;
+
+        return result;
+    }
+
+}
@@ -0,0 +1,312 @@
+package ch.usi.dag.disl.weaver;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+
+import ch.usi.dag.disl.dynamicbypass.DynamicBypass;
+import ch.usi.dag.disl.util.Insn;
+
+
+/**
+ * Removes redundant code between snippets woven next to each other, i.e.,
+ * snippets separated only by labels that are not branch targets, line
+ * numbers, or dynamic bypass control. The code of each snippet is optimized
+ * in isolation, but when several snippets are woven at the same location,
+ * each of them toggles the dynamic bypass, and one snippet often stores a
+ * thread-local variable that the next snippet immediately loads again.
+ * <p>
+ * The optimizer only looks at dynamic bypass control and at accesses to
+ * thread-local variables, which are fields of the {@link Thread} class
+ * accessed through {@link Thread#currentThread()}, so it never changes
+ * application code.
+ */
+final class WovenCodeOptimizer {
+
+    private static final String __THREAD_INTERNAL_NAME__ =
+        Type.getInternalName (Thread.class);
+
+    private static final String __DYNAMIC_BYPASS_INTERNAL_NAME__ =
+        Type.getInternalName (DynamicBypass.class);
+
+    //
+
+    private WovenCodeOptimizer () {
+        // not to be instantiated
+    }
+
+    //
+
+    /**
+     * Optimizes the code between adjacent snippets in the given method. Must
+     * be called after all snippets have been woven into the method.
+     */
+    static void optimize (final MethodNode method) {
+        final Set <LabelNode> targets = __branchTargets (method);
+        __coalesceBypassControl (method.instructions, targets);
+        __forwardThreadLocalStores (method.instructions, targets);
+    }
+
+
+    /**
+     * Collects the labels where the control flow may enter other than by
+     * falling through from the preceding instruction.
+     */
+    private static Set <LabelNode> __branchTargets (final MethodNode method) {
+        final Set <LabelNode> result = new HashSet <> ();
+
+        for (
+            AbstractInsnNode insn = method.instructions.getFirst ();
+            insn != null; insn = insn.getNext ()
+        ) {
+            if (insn instanceof JumpInsnNode) {
+                result.add (((JumpInsnNode) insn).label);
+
+            } else if (insn instanceof LookupSwitchInsnNode) {
+                final LookupSwitchInsnNode switchInsn = (LookupSwitchInsnNode) insn;
+                result.add (switchInsn.dflt);
+                result.addAll (switchInsn.labels);
+
+            } else if (insn instanceof TableSwitchInsnNode) {
+                final TableSwitchInsnNode switchInsn = (TableSwitchInsnNode) insn;
+                result.add (switchInsn.dflt);
+                result.addAll (switchInsn.labels);
+            }
+        }
+
+        for (final TryCatchBlockNode tcb : method.tryCatchBlocks) {
+            result.add (tcb.handler);
+        }
+
+        return result;
+    }
+
+    //
+
+    /**
+     * Removes the deactivation of the dynamic bypass at the end of a snippet
+     * together with the activation at the beginning of the next snippet, so
+     * that a group of adjacent snippets is wrapped by a single activation and
+     * deactivation:
+     *
+     * <pre>
+     *   DynamicBypass.activate()       DynamicBypass.activate()
+     *   ... first snippet ...          ... first snippet ...
+     *   DynamicBypass.deactivate() =&gt;  ... second snippet ...
+     *   DynamicBypass.activate()       DynamicBypass.deactivate()
+     *   ... second snippet ...
+     *   DynamicBypass.deactivate()
+     * </pre>
+     */
+    private static void __coalesceBypassControl (
+        final InsnList insns, final Set <LabelNode> targets
+    ) {
+        AbstractInsnNode insn = insns.getFirst ();
+        while (insn != null) {
+            AbstractInsnNode next = insn.getNext ();
+
+            if (__isBypassControl (insn, "deactivate")) {
+                final AbstractInsnNode activateInsn = __nextAdjacent (insn, targets, false);
+                if (activateInsn != null && __isBypassControl (activateInsn, "activate")) {
+                    next = activateInsn.getNext ();
+                    insns.remove (insn);
+                    insns.remove (activateInsn);
+                }
+            }
+
+            insn = next;
+        }
+    }
+
+    //
+
+    /**
+     * Replaces a load of a thread-local variable that immediately follows a
+     * store to the same variable with a copy of the stored value:
+     *
+     * <pre>
+     *   value                      value
+     *   currentThread()            DUP
+     *   SWAP                       currentThread()
+     *   PUTFIELD Thread.tlv   =&gt;   SWAP
+     *   currentThread()            PUTFIELD Thread.tlv
+     *   GETFIELD Thread.tlv
+     * </pre>
+     *
+     * For wide values, the store uses DUP_X2 and POP instead of SWAP, and the
+     * value is copied using DUP2.
+     */
+    private static void __forwardThreadLocalStores (
+        final InsnList insns, final Set <LabelNode> targets
+    ) {
+        for (
+            AbstractInsnNode insn = insns.getFirst ();
+            insn != null; insn = insn.getNext ()
+        ) {
+            final FieldInsnNode storeInsn = __threadFieldAccess (insn, Opcodes.PUTFIELD);
+            if (storeInsn == null || __isNarrowed (storeInsn.desc)) {
+                continue;
+            }
+
+            final boolean wide = Type.getType (storeInsn.desc).getSize () == 2;
+            final AbstractInsnNode storeStart = __storeSequenceStart (storeInsn, wide);
+            if (storeStart == null) {
+                continue;
+            }
+
+            final AbstractInsnNode threadInsn = __nextAdjacent (storeInsn, targets, true);
+            if (threadInsn == null || !__isCurrentThread (threadInsn)) {
+                continue;
+            }
+
+            final FieldInsnNode loadInsn = __threadFieldAccess (
+                threadInsn.getNext (), Opcodes.GETFIELD
+            );
+
+            if (loadInsn == null
+                || !storeInsn.name.equals (loadInsn.name)
+                || !storeInsn.desc.equals (loadInsn.desc)
+            ) {
+                continue;
+            }
+
+            insns.insertBefore (
+                storeStart, new InsnNode (wide ? Opcodes.DUP2 : Opcodes.DUP)
+            );
+
+            insns.remove (threadInsn);
+            insns.remove (loadInsn);
+        }
+    }
+
+
+    /**
+     * Returns the {@link Thread#currentThread()} invocation that starts the
+     * sequence storing the value on the top of the stack into a thread-local
+     * variable, or {@code null} if the sequence does not match.
+     */
+    private static AbstractInsnNode __storeSequenceStart (
+        final FieldInsnNode storeInsn, final boolean wide
+    ) {
+        AbstractInsnNode insn = storeInsn.getPrevious ();
+        if (wide) {
+            if (!Insn.POP.matches (insn)) {
+                return null;
+            }
+
+            insn = insn.getPrevious ();
+            if (!Insn.DUP_X2.matches (insn)) {
+                return null;
+            }
+
+        } else if (!Insn.SWAP.matches (insn)) {
+            return null;
+        }
+
+        insn = insn.getPrevious ();
+        return __isCurrentThread (insn) ? insn : null;
+    }
+
+
+    /**
+     * Returns the next instruction executed after the given instruction,
+     * skipping labels that are not branch targets, line numbers, and
+     * optionally dynamic bypass control. Returns {@code null} if the control
+     * flow may enter between the two instructions.
+     */
+    private static AbstractInsnNode __nextAdjacent (
+        final AbstractInsnNode insn, final Set <LabelNode> targets,
+        final boolean skipBypassControl
+    ) {
+        for (
+            AbstractInsnNode next = insn.getNext ();
+            next != null; next = next.getNext ()
+        ) {
+            if (next instanceof LabelNode) {
+                if (targets.contains (next)) {
+                    return null;
+                }
+
+            } else if (next instanceof FrameNode) {
+                return null;
+
+            } else if (next instanceof LineNumberNode) {
+                continue;
+
+            } else if (!skipBypassControl || !__isBypassControl (next)) {
+                return next;
+            }
+        }
+
+        return null;
+    }
+
+    //
+
+    private static boolean __isCurrentThread (final AbstractInsnNode insn) {
+        if (!Insn.INVOKESTATIC.matches (insn)) {
+            return false;
+        }
+
+        final MethodInsnNode invokeInsn = (MethodInsnNode) insn;
+        return __THREAD_INTERNAL_NAME__.equals (invokeInsn.owner)
+            && "currentThread".equals (invokeInsn.name);
+    }
+
+
+    private static boolean __isBypassControl (final AbstractInsnNode insn) {
+        return __isBypassControl (insn, "activate")
+            || __isBypassControl (insn, "deactivate");
+    }
+
+
+    private static boolean __isBypassControl (
+        final AbstractInsnNode insn, final String methodName
+    ) {
+        if (!Insn.INVOKESTATIC.matches (insn)) {
+            return false;
+        }
+
+        final MethodInsnNode invokeInsn = (MethodInsnNode) insn;
+        return __DYNAMIC_BYPASS_INTERNAL_NAME__.equals (invokeInsn.owner)
+            && methodName.equals (invokeInsn.name);
+    }
+
+
+    /**
+     * Determines whether storing a value into a field of the given type may
+     * change the value, i.e., the field holds a narrower integer type.
+     */
+    private static boolean __isNarrowed (final String desc) {
+        final int sort = Type.getType (desc).getSort ();
+        return sort == Type.BYTE || sort == Type.CHAR || sort == Type.SHORT;
+    }
+
+
+    private static FieldInsnNode __threadFieldAccess (
+        final AbstractInsnNode insn, final int opcode
+    ) {
+        if (insn == null || insn.getOpcode () != opcode) {
+            return null;
+        }
+
+        final FieldInsnNode fieldInsn = (FieldInsnNode) insn;
+        return __THREAD_INTERNAL_NAME__.equals (fieldInsn.owner) ? fieldInsn : null;
+    }
+
+}
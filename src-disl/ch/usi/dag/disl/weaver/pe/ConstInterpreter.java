@@ -578,16 +578,19 @@ public class ConstInterpreter extends Interpreter<ConstValue> {
             return d;
         }
 
+        // The analyzer compares the merged value with the original one by
+        // identity, so keep an unknown value to let the analysis converge.
+        if (d.cst == null && d.size <= w.size) {
+            return d;
+        }
+
         return new ConstValue(Math.min(d.size, w.size));
     }
 
-    private static ConstInterpreter instance;
+    // stateless, the instance is shared by all weaving threads
+    private static final ConstInterpreter instance = new ConstInterpreter();
 
     public static ConstInterpreter getInstance() {
-        if (instance == null) {
-            instance = new ConstInterpreter();
-        }
-
         return instance;
     }
 }
@@ -119,26 +119,28 @@ public class InvocationInterpreter {
         return registeredMethods.contains(getMethodID(min));
     }
 
-    private static InvocationInterpreter instance;
+    // initialized eagerly, the instance is shared by all weaving threads
+    private static final InvocationInterpreter instance = __createInstance();
 
-    public static InvocationInterpreter getInstance() {
+    private static InvocationInterpreter __createInstance() {
 
-        if (instance == null) {
+        InvocationInterpreter result = new InvocationInterpreter();
 
-            instance = new InvocationInterpreter();
+        result.register(Boolean.class);
+        result.register(Byte.class);
+        result.register(Character.class);
+        result.register(Double.class);
+        result.register(Float.class);
+        result.register(Integer.class);
+        result.register(Long.class);
+        result.register(Short.class);
+        result.register(String.class);
+        result.register(StringBuilder.class);
 
-            instance.register(Boolean.class);
-            instance.register(Byte.class);
-            instance.register(Character.class);
-            instance.register(Double.class);
-            instance.register(Float.class);
-            instance.register(Integer.class);
-            instance.register(Long.class);
-            instance.register(Short.class);
-            instance.register(String.class);
-            instance.register(StringBuilder.class);
-        }
+        return result;
+    }
 
+    public static InvocationInterpreter getInstance() {
         return instance;
     }
 }
@@ -1,5 +1,7 @@
 package ch.usi.dag.disl.weaver.pe;
 
+import java.util.ArrayDeque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -10,6 +12,7 @@ import java.util.Set;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.JumpInsnNode;
@@ -370,107 +373,27 @@ public class PartialEvaluator {
         return isOptimized;
     }
 
-    private boolean loadAfterStore(BasicBlock bb, AbstractInsnNode instr,
-            int var) {
+    private boolean coveredByHandler(AbstractInsnNode instr) {
 
-        AbstractInsnNode prev = instr.getPrevious();
-
-        while (prev != bb.getExit()) {
-            switch (instr.getOpcode()) {
-            case Opcodes.ILOAD:
-            case Opcodes.LLOAD:
-            case Opcodes.FLOAD:
-            case Opcodes.DLOAD:
-            case Opcodes.ALOAD:
-                if (((VarInsnNode) instr).var == var) {
+        for (TryCatchBlockNode tcb : method.tryCatchBlocks) {
+            for (AbstractInsnNode iter = tcb.start; iter != null
+                    && iter != tcb.end; iter = iter.getNext()) {
+                if (iter == instr) {
                     return true;
                 }
-
-            default:
-                prev = instr;
-                instr = instr.getNext();
             }
         }
 
         return false;
     }
 
-    private boolean deadStore(CtrlFlowGraph cfg, VarInsnNode store) {
-
-        BasicBlock bb = cfg.getBB(store);
-
-        if (bb == null) {
-            return false;
-        }
-
-        if (loadAfterStore(bb, store, store.var)) {
-            return false;
-        }
-
-        HashSet<BasicBlock> visited = new HashSet<BasicBlock>();
-        Queue<BasicBlock> unprocessed = new LinkedList<BasicBlock>(
-                bb.getSuccessors());
-
-        while (!unprocessed.isEmpty()) {
-            BasicBlock next = unprocessed.poll();
-
-            if (visited.contains(next)) {
-                continue;
-            }
-
-            if (loadAfterStore(next, next.getEntrance(), store.var)) {
-                return false;
-            }
-
-            visited.add(next);
-        }
-
-        return true;
-    }
-
-    private boolean removeDeadStore() {
-
-        CtrlFlowGraph cfg = CtrlFlowGraph.build(method);
-        boolean isOptimized = false;
-
-        // TODO LB: iterate over a copy unless we are sure an iterator is OK
-        for (AbstractInsnNode instr : ilist.toArray()) {
-
-            switch (instr.getOpcode()) {
-            case Opcodes.ISTORE:
-            case Opcodes.ASTORE:
-            case Opcodes.FSTORE:
-
-                if (deadStore(cfg, (VarInsnNode) instr)) {
-
-                    ilist.insertBefore(instr, new InsnNode(Opcodes.POP));
-                    ilist.remove(instr);
-                    isOptimized = true;
-                }
-
-                break;
-
-            case Opcodes.DSTORE:
-            case Opcodes.LSTORE:
-
-                if (deadStore(cfg, (VarInsnNode) instr)) {
-
-                    ilist.insertBefore(instr, new InsnNode(Opcodes.POP2));
-                    ilist.remove(instr);
-                    isOptimized = true;
-                }
+    private boolean unremovablePop(Set<AbstractInsnNode> sources) {
 
-                break;
-            default:
-                break;
-            }
+        // the value is not produced by the code, e.g., a caught exception
+        if (sources.isEmpty()) {
+            return true;
         }
 
-        return isOptimized;
-    }
-
-    private boolean unremovablePop(Set<AbstractInsnNode> sources) {
-
         for (AbstractInsnNode source : sources) {
 
             switch (source.getOpcode()) {
@@ -508,6 +431,11 @@ public class PartialEvaluator {
                     return true;
                 }
 
+                // the exception thrown by the invocation might be handled
+                if (coveredByHandler(source)) {
+                    return true;
+                }
+
                 break;
             default:
                 return true;
@@ -517,26 +445,132 @@ public class PartialEvaluator {
         return false;
     }
 
-    private void tryRemoveInvocation(InsnList ilist, MethodInsnNode instr) {
+    private static boolean isStore(AbstractInsnNode instr) {
+
+        switch (instr.getOpcode()) {
+        case Opcodes.ISTORE:
+        case Opcodes.LSTORE:
+        case Opcodes.FSTORE:
+        case Opcodes.DSTORE:
+        case Opcodes.ASTORE:
+            return true;
+
+        default:
+            return false;
+        }
+    }
+
+    // Returns the local variable read by the instruction, or -1 if the
+    // instruction does not read any local variable.
+    private static int readVariable(AbstractInsnNode instr) {
+
+        switch (instr.getOpcode()) {
+        case Opcodes.ILOAD:
+        case Opcodes.LLOAD:
+        case Opcodes.FLOAD:
+        case Opcodes.DLOAD:
+        case Opcodes.ALOAD:
+            return ((VarInsnNode) instr).var;
+
+        case Opcodes.IINC:
+            return ((IincInsnNode) instr).var;
 
-        if (InvocationInterpreter.getInstance().isRegistered(instr)) {
+        default:
+            return -1;
+        }
+    }
+
+    // Creates def-use chains for the local variables. Each reachable store
+    // is mapped to the instructions that may read the stored value.
+    private Map<AbstractInsnNode, Set<AbstractInsnNode>> createUses(
+            Map<AbstractInsnNode, Frame<SourceValue>> frames) {
 
-            MethodInsnNode min = instr;
-            String desc = min.desc;
+        Map<AbstractInsnNode, Set<AbstractInsnNode>> uses =
+                new HashMap<AbstractInsnNode, Set<AbstractInsnNode>>();
 
-            if (min.getOpcode() == Opcodes.INVOKEVIRTUAL) {
-                ilist.insert(min, new InsnNode(Opcodes.POP));
+        for (AbstractInsnNode instr : ilist.toArray()) {
+            if (isStore(instr) && frames.get(instr) != null) {
+                uses.put(instr, new HashSet<AbstractInsnNode>());
             }
+        }
 
-            for (Type arg : Type.getArgumentTypes(desc)) {
-                ilist.insert(min, new InsnNode(
-                        arg.getSize() == 2 ? Opcodes.POP2 : Opcodes.POP));
+        for (AbstractInsnNode instr : ilist.toArray()) {
+
+            int var = readVariable(instr);
+
+            if (var < 0) {
+                continue;
+            }
+
+            Frame<SourceValue> frame = frames.get(instr);
+
+            if (frame == null) {
+                // unreachable code, keep all stores to the variable
+                for (Map.Entry<AbstractInsnNode, Set<AbstractInsnNode>> entry : uses
+                        .entrySet()) {
+                    if (((VarInsnNode) entry.getKey()).var == var) {
+                        entry.getValue().add(instr);
+                    }
+                }
+
+                continue;
+            }
+
+            for (AbstractInsnNode def : frame.getLocal(var).insns) {
+
+                Set<AbstractInsnNode> defUses = uses.get(def);
+
+                if (defUses != null) {
+                    defUses.add(instr);
+                }
             }
         }
+
+        return uses;
     }
 
-    private void tryRemoveAllocation(InsnList ilist, AbstractInsnNode next,
-            Map<AbstractInsnNode, Frame<SourceValue>> frames) {
+    // Inserts a pop instruction after the given location, and schedules it
+    // for removal together with the source of the popped value.
+    private AbstractInsnNode insertPop(AbstractInsnNode location, int size,
+            Set<AbstractInsnNode> sources,
+            Map<AbstractInsnNode, Set<AbstractInsnNode>> popped,
+            Queue<AbstractInsnNode> worklist) {
+
+        AbstractInsnNode pop = new InsnNode(size == 2 ? Opcodes.POP2
+                : Opcodes.POP);
+        ilist.insert(location, pop);
+
+        popped.put(pop, sources);
+        worklist.add(pop);
+        return pop;
+    }
+
+    // Pops the arguments of a method invocation (in reverse order) instead
+    // of invoking the method.
+    private void popArguments(MethodInsnNode instr, boolean receiver,
+            Map<AbstractInsnNode, Frame<SourceValue>> frames,
+            Map<AbstractInsnNode, Set<AbstractInsnNode>> popped,
+            Queue<AbstractInsnNode> worklist) {
+
+        Frame<SourceValue> frame = frames.get(instr);
+        Type[] args = Type.getArgumentTypes(instr.desc);
+
+        if (receiver) {
+            insertPop(instr, 1,
+                    FrameHelper.getStackByIndex(frame, args.length).insns,
+                    popped, worklist);
+        }
+
+        for (int i = 0; i < args.length; i++) {
+            insertPop(instr, args[i].getSize(), FrameHelper.getStackByIndex(
+                    frame, args.length - 1 - i).insns, popped, worklist);
+        }
+    }
+
+    private void tryRemoveAllocation(AbstractInsnNode next,
+            Map<AbstractInsnNode, Frame<SourceValue>> frames,
+            Map<AbstractInsnNode, Set<AbstractInsnNode>> popped,
+            Queue<AbstractInsnNode> worklist, Set<AbstractInsnNode> removed) {
 
         if (next.getOpcode() != Opcodes.DUP) {
             return;
@@ -548,74 +582,157 @@ public class PartialEvaluator {
                 Type[] args = Type
                         .getArgumentTypes(((MethodInsnNode) instr).desc);
                 Frame<SourceValue> frame = frames.get(instr);
+
+                if (frame == null) {
+                    continue;
+                }
+
                 Set<AbstractInsnNode> sources = FrameHelper.getStackByIndex(
                         frame, args.length).insns;
 
                 if (sources.contains(next)) {
-
-                    for (Type arg : args) {
-                        ilist.insert(instr,
-                                new InsnNode(arg.getSize() == 2 ? Opcodes.POP2
-                                        : Opcodes.POP));
-                    }
-
+                    popArguments((MethodInsnNode) instr, false, frames,
+                            popped, worklist);
                     ilist.remove(instr);
+                    removed.add(instr);
                 }
             }
         }
 
         ilist.remove(next);
+        removed.add(next);
+    }
+
+    // Removes a pop instruction together with the instructions producing
+    // the popped value, if these have no side effects. Stores whose value
+    // is no longer read become dead and are scheduled for removal.
+    private boolean tryRemovePop(AbstractInsnNode pop,
+            Set<AbstractInsnNode> sources,
+            Map<AbstractInsnNode, Frame<SourceValue>> frames,
+            Map<AbstractInsnNode, Set<AbstractInsnNode>> uses,
+            Map<AbstractInsnNode, Set<AbstractInsnNode>> popped,
+            Queue<AbstractInsnNode> worklist, Set<AbstractInsnNode> removed) {
+
+        if (unremovablePop(sources)) {
+            return false;
+        }
+
+        for (AbstractInsnNode source : sources) {
+            // the value is also consumed elsewhere
+            if (removed.contains(source)) {
+                return false;
+            }
+        }
+
+        for (AbstractInsnNode source : sources) {
+
+            switch (source.getOpcode()) {
+            case Opcodes.INVOKESPECIAL:
+            case Opcodes.INVOKEVIRTUAL:
+            case Opcodes.INVOKESTATIC: {
+                MethodInsnNode min = (MethodInsnNode) source;
+                popArguments(min, min.getOpcode() == Opcodes.INVOKEVIRTUAL,
+                        frames, popped, worklist);
+                break;
+            }
+
+            case Opcodes.NEW:
+                tryRemoveAllocation(source.getNext(), frames, popped,
+                        worklist, removed);
+                break;
+
+            case Opcodes.ILOAD:
+            case Opcodes.LLOAD:
+            case Opcodes.FLOAD:
+            case Opcodes.DLOAD:
+            case Opcodes.ALOAD: {
+                int var = ((VarInsnNode) source).var;
+
+                for (AbstractInsnNode def : frames.get(source).getLocal(var).insns) {
+
+                    Set<AbstractInsnNode> defUses = uses.get(def);
+
+                    if (defUses != null && defUses.remove(source)
+                            && defUses.isEmpty()) {
+                        worklist.add(def);
+                    }
+                }
+
+                break;
+            }
+
+            default:
+                break;
+            }
+
+            ilist.remove(source);
+            removed.add(source);
+        }
+
+        ilist.remove(pop);
+        removed.add(pop);
+        return true;
     }
 
-    private boolean removePop() {
+    // Removes dead stores and pops of values without side effects. The
+    // def-use chains and the source frames are computed only once, and
+    // only the instructions affected by a removal are revisited.
+    private boolean removeDeadCode() {
 
         Map<AbstractInsnNode, Frame<SourceValue>> frames =
                 FrameHelper.createSourceMapping(PartialEvaluator.class.getName(), method);
+        Map<AbstractInsnNode, Set<AbstractInsnNode>> uses = createUses(frames);
 
-        boolean isOptimized = false;
+        Map<AbstractInsnNode, Set<AbstractInsnNode>> popped =
+                new HashMap<AbstractInsnNode, Set<AbstractInsnNode>>();
+        Set<AbstractInsnNode> removed = new HashSet<AbstractInsnNode>();
+        Queue<AbstractInsnNode> worklist = new ArrayDeque<AbstractInsnNode>();
 
-        // TODO LB: iterate over a copy unless we are sure an iterator is OK
         for (AbstractInsnNode instr : ilist.toArray()) {
 
             int opcode = instr.getOpcode();
-
-            if (opcode != Opcodes.POP && opcode != Opcodes.POP2) {
-                continue;
-            }
-
             Frame<SourceValue> frame = frames.get(instr);
 
-            if (frame == null) {
-                continue;
+            if ((opcode == Opcodes.POP || opcode == Opcodes.POP2)
+                    && frame != null) {
+                popped.put(instr, FrameHelper.getStackByIndex(frame, 0).insns);
+                worklist.add(instr);
             }
+        }
 
-            Set<AbstractInsnNode> sources = FrameHelper.getStackByIndex(frame, 0).insns;
-
-            if (unremovablePop(sources)) {
-                continue;
+        for (Map.Entry<AbstractInsnNode, Set<AbstractInsnNode>> entry : uses
+                .entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                worklist.add(entry.getKey());
             }
+        }
 
-            for (AbstractInsnNode source : sources) {
+        boolean isOptimized = false;
 
-                switch (source.getOpcode()) {
-                case Opcodes.INVOKESPECIAL:
-                case Opcodes.INVOKEVIRTUAL:
-                case Opcodes.INVOKESTATIC:
-                    tryRemoveInvocation(ilist, (MethodInsnNode) source);
-                    break;
+        while (!worklist.isEmpty()) {
 
-                case Opcodes.NEW:
-                    tryRemoveAllocation(ilist, source.getNext(), frames);
-                    break;
+            AbstractInsnNode instr = worklist.poll();
 
-                default:
-                    break;
-                }
+            if (removed.contains(instr)) {
+                continue;
+            }
 
-                ilist.remove(source);
+            Set<AbstractInsnNode> sources = popped.get(instr);
+
+            if (sources != null) {
+                isOptimized |= tryRemovePop(instr, sources, frames, uses,
+                        popped, worklist, removed);
+                continue;
             }
 
+            // the stored value is never read, pop it instead
+            int size = (instr.getOpcode() == Opcodes.LSTORE
+                    || instr.getOpcode() == Opcodes.DSTORE) ? 2 : 1;
+            insertPop(instr, size, FrameHelper.getStackByIndex(
+                    frames.get(instr), 0).insns, popped, worklist);
+
             ilist.remove(instr);
+            removed.add(instr);
             isOptimized = true;
         }
 
@@ -734,15 +851,7 @@ public class PartialEvaluator {
         boolean isOptimized = conditionalReduction(frames);
         isOptimized |= replaceLoadWithLDC(frames);
 
-        boolean removed;
-
-        do {
-            removed = false;
-            removed |= removeDeadStore();
-            removed |= removePop();
-        } while (removed);
-
-        isOptimized |= removed;
+        isOptimized |= removeDeadCode();
         isOptimized |= removeUnusedJump();
         isOptimized |= removeUnusedHandler();
 
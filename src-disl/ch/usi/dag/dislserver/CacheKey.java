@@ -0,0 +1,101 @@
+package ch.usi.dag.dislserver;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+
+/**
+ * Identifies the result of instrumenting a class. The key is a strong hash of
+ * the request flags and the class bytes, so that two requests with identical
+ * content map to the same key regardless of the class name supplied by the
+ * client.
+ */
+final class CacheKey {
+
+    private static final String __ALGORITHM__ = "SHA-256";
+
+    private static final char [] __HEX_DIGITS__ = "0123456789abcdef".toCharArray ();
+
+    //
+
+    private final byte [] __digest;
+
+    private final int __hashCode;
+
+    //
+
+    private CacheKey (final byte [] digest) {
+        __digest = digest;
+
+        // the digest is uniformly distributed, any four bytes will do
+        __hashCode = ByteBuffer.wrap (digest).getInt ();
+    }
+
+    //
+
+    @Override
+    public int hashCode () {
+        return __hashCode;
+    }
+
+
+    @Override
+    public boolean equals (final Object object) {
+        if (this == object) {
+            return true;
+        }
+
+        if (object instanceof CacheKey) {
+            final CacheKey that = (CacheKey) object;
+            return Arrays.equals (this.__digest, that.__digest);
+        }
+
+        return false;
+    }
+
+
+    /**
+     * @return The digest as a string of hexadecimal digits.
+     */
+    @Override
+    public String toString () {
+        return toHexString (__digest);
+    }
+
+    //
+
+    /**
+     * Creates a cache key for the given instrumentation request.
+     */
+    public static CacheKey forRequest (final Message request) {
+        final MessageDigest digest = __newDigest ();
+        digest.update (ByteBuffer.allocate (4).putInt (0, request.flags ()));
+        digest.update (request.payload ());
+        return new CacheKey (digest.digest ());
+    }
+
+
+    private static MessageDigest __newDigest () {
+        try {
+            return MessageDigest.getInstance (__ALGORITHM__);
+
+        } catch (final NoSuchAlgorithmException nsae) {
+            // every Java platform is required to support SHA-256
+            throw new AssertionError (nsae);
+        }
+    }
+
+
+    static String toHexString (final byte [] bytes) {
+        final char [] result = new char [2 * bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            result [2 * i] = __HEX_DIGITS__ [(bytes [i] >> 4) & 0xF];
+            result [2 * i + 1] = __HEX_DIGITS__ [bytes [i] & 0xF];
+        }
+
+        return new String (result);
+    }
+
+}
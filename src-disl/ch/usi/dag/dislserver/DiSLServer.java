@@ -1,18 +1,24 @@
 package ch.usi.dag.dislserver;
 
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.StandardSocketOptions;
-import java.nio.channels.ClosedByInterruptException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import ch.usi.dag.disl.util.Logging;
 import ch.usi.dag.util.logging.Logger;
@@ -35,6 +41,8 @@ public final class DiSLServer {
     private static final String __PID_FILE__ = "server.pid.file";
     private static final String __STATUS_FILE__ = "server.status.file";
 
+    private static final ByteBuffer __EMPTY_BUFFER__ = ByteBuffer.allocate (0);
+
     //
 
     private enum ElapsedTime {
@@ -43,108 +51,350 @@ public final class DiSLServer {
 
     //
 
-    private final AtomicInteger __workerCount = new AtomicInteger ();
     private final CounterSet <ElapsedTime> __globalStats = new CounterSet <ElapsedTime> (ElapsedTime.class);
 
+    /** Connections with responses ready to be sent. */
+    private final Queue <Connection> __respondingConnections = new ConcurrentLinkedQueue <Connection> ();
+
+    /** The number of open connections, only accessed by the server thread. */
+    private int __connectionCount;
+
     //
 
-    final class ConnectionHandler implements Runnable {
+    /**
+     * A response to a request, together with the timer measuring the time
+     * spent on the request.
+     */
+    private static final class Response {
+        final Message message;
+        final IntervalTimer <ElapsedTime> timer;
+
+        Response (final Message message, final IntervalTimer <ElapsedTime> timer) {
+            this.message = message;
+            this.timer = timer;
+        }
+    }
+
+    //
+
+    /**
+     * Holds the state of a client connection. A client may send multiple
+     * requests without waiting for the responses. Each request is processed
+     * by a worker thread, and the responses are sent as soon as they are
+     * ready, i.e., not necessarily in the order of the requests. The client
+     * matches responses to requests using the request identifiers.
+     * <p>
+     * Except for the queue of responses, a connection is only accessed by
+     * the server thread. The worker threads add responses to the queue and
+     * hand the connection back to the server thread.
+     * <p>
+     * A client running on the same host may attach a {@link SharedMemory}
+     * region to the connection, and then pass the class bytes through the
+     * shared memory instead of the socket.
+     */
+    final class Connection {
+
+        private final MessageChannel __channel;
+        private final SelectionKey __key;
+
+        private final CounterSet <ElapsedTime> __stats = new CounterSet <ElapsedTime> (ElapsedTime.class);
+
+        /** Measures the time spent on the request being received. */
+        private IntervalTimer <ElapsedTime> __timer;
 
-        private final SocketChannel __clientSocket;
-        private final RequestProcessor __requestProcessor;
-        private final Thread __serverThread;
+        /** Responses ready to be sent, added by worker threads. */
+        private final Queue <Response> __responses = new ConcurrentLinkedQueue <Response> ();
+
+        /** The response being sent, or {@code null} if there is none. */
+        private Response __sending;
+
+        /** The number of requests without a response sent to the client. */
+        private int __pendingCount;
+
+        /**
+         * Indicates whether to receive requests from the client. Stops
+         * after a shutdown request, or after an error response.
+         */
+        private boolean __receiving = true;
+
+        /** Shared memory attached by the client, may be {@code null}. */
+        private SharedMemory __shm;
+
+        /** Indicates whether the connection counts as open. */
+        private boolean __counted = true;
 
         //
 
-        ConnectionHandler (
-            final SocketChannel clientSocket,
-            final RequestProcessor requestProcessor,
-            final Thread serverThread
-        ) {
-            __clientSocket = clientSocket;
-            __requestProcessor = requestProcessor;
-            __serverThread = serverThread;
+        Connection (final SocketChannel socket, final SelectionKey key) {
+            __channel = new MessageChannel (socket);
+            __key = key;
+
+            __timer = __newTimer ();
         }
 
-        @Override
-        public void run () {
-            __workerCount.incrementAndGet ();
+        //
+
+        void receive (
+            final ExecutorService executor,
+            final RequestProcessor requestProcessor
+        ) throws IOException {
+            //
+            // Receive all the requests available and dispatch them to the
+            // worker threads, until a shutdown request is received.
+            //
+            Message request;
+            while (__receiving && (request = __channel.recvMessage ()) != null) {
+                __timer.mark (ElapsedTime.RECEIVE);
+
+                if (request.isShutdown ()) {
+                    __receiving = false;
+                    break;
+                }
+
+                if (request.hasFlag (Message.SHM_ATTACH)) {
+                    __attach (request, __startRequest ());
+                    continue;
+                }
 
-            try (
-                final MessageChannel mc = new MessageChannel (__clientSocket);
-            ) {
                 //
-                // Process requests until a shutdown request is received, a
-                // communication error occurs, or an internal error occurs.
+                // If the class bytes are in shared memory, replace the slot
+                // descriptor in the request with the slot contents. This may
+                // fail, so only count the request as pending afterwards.
                 //
-                final CounterSet <ElapsedTime> stats = new CounterSet  <ElapsedTime> (ElapsedTime.class);
-                final IntervalTimer <ElapsedTime> timer = new IntervalTimer <ElapsedTime> (ElapsedTime.class);
+                final int slot;
+                final Message processed;
+                if (request.hasFlag (Message.SHM_PAYLOAD)) {
+                    if (__shm == null) {
+                        throw new IOException ("shared memory not attached");
+                    }
 
-                REQUEST_LOOP: while (true) {
-                    timer.reset ();
+                    final ByteBuffer descriptor = request.payloadWithArray ();
+                    processed = new Message (
+                        request.requestId (), request.flags () & ~Message.SHM_PAYLOAD,
+                        request.control (), __shm.slotData (descriptor)
+                    );
 
-                    final Message request = mc.recvMessage ();
-                    timer.mark (ElapsedTime.RECEIVE);
+                    slot = SharedMemory.slotIndex (descriptor);
 
-                    if (request.isShutdown ()) {
-                        break REQUEST_LOOP;
-                    }
+                } else {
+                    processed = request;
+                    slot = -1;
+                }
 
+                final IntervalTimer <ElapsedTime> timer = __startRequest ();
+                executor.execute (() -> __process (processed, slot, timer, requestProcessor));
+            }
 
-                    //
-                    // Process the request and send the response to the client.
-                    // Update the timing stats if everything goes well.
-                    //
-                    try {
-                        final Message response = __requestProcessor.process (request);
-                        timer.mark (ElapsedTime.PROCESS);
+            __update ();
+        }
 
-                        mc.sendMessage (response);
-                        timer.mark (ElapsedTime.TRANSMIT);
 
-                        stats.update (timer);
+        /**
+         * Counts a received request as pending and starts a new timer for
+         * the next request.
+         *
+         * @return the timer of the received request
+         */
+        private IntervalTimer <ElapsedTime> __startRequest () {
+            final IntervalTimer <ElapsedTime> result = __timer;
+            __pendingCount++;
+            __timer = __newTimer ();
+            return result;
+        }
 
-                    } catch (final DiSLServerException dse) {
-                        //
-                        // Error during instrumentation. Report it to the client
-                        // and stop receiving requests from this connection.
-                        //
-                        mc.sendMessage (
-                            Message.createErrorResponse (dse.getMessage ())
-                        );
 
-                        break REQUEST_LOOP;
-                    }
-                }
+        private void __attach (
+            final Message request, final IntervalTimer <ElapsedTime> timer
+        ) throws IOException {
+            //
+            // Acknowledge the attachment by responding with the same flag.
+            // If the shared memory cannot be attached, just respond without
+            // the flag and let the client use the socket to send classes.
+            //
+            final String path = StandardCharsets.UTF_8.decode (request.control ()).toString ();
+
+            Message response;
+            try {
+                __shm = SharedMemory.attach (path);
+                response = new Message (
+                    request.requestId (), Message.SHM_ATTACH,
+                    __EMPTY_BUFFER__, __EMPTY_BUFFER__
+                );
 
+                __log.debug ("attached shared memory %s", path);
+
+            } catch (final IOException ioe) {
+                __log.warn (
+                    "failed to attach shared memory %s: %s", path, ioe.getMessage ()
+                );
+
+                response = Message.createNoOperationResponse ().inResponseTo (request);
+            }
+
+            timer.mark (ElapsedTime.PROCESS);
+            __responses.add (new Response (response, timer));
+            transmit ();
+        }
+
+
+        private void __process (
+            final Message request, final int slot,
+            final IntervalTimer <ElapsedTime> timer,
+            final RequestProcessor requestProcessor
+        ) {
+            Message response;
+
+            try {
+                response = requestProcessor.process (request);
+                timer.mark (ElapsedTime.PROCESS);
+
+            } catch (final DiSLServerException dse) {
                 //
-                // Merge thread-local stats with global stats when leaving
-                // the request loop.
+                // Error during instrumentation. Report it to the client.
                 //
-                __globalStats.update (stats);
+                response = Message.createErrorResponse (dse.getMessage ());
 
-            } catch (final IOException ioe) {
+            } catch (final Throwable t) {
                 //
-                // Communication error -- just log a message here.
+                // Unexpected error. Report it to the client as well,
+                // otherwise the client would wait for a response forever.
                 //
-                __log.error (
-                    "error communicating with client: %s", ioe.getMessage ()
-                );
+                __log.error ("unexpected error processing request: %s", t);
+                response = Message.createErrorResponse (t.toString ());
             }
 
             //
-            // If there are no more workers left and we are not operating
-            // in continuous mode, shut the server down.
+            // If the request came through shared memory, put the response
+            // into the same slot if possible. Then hand the response over to
+            // the server thread.
             //
-            if (__workerCount.decrementAndGet () == 0) {
-                if (!continuous) {
-                    __serverThread.interrupt ();
+            response = response.inResponseTo (request);
+            if (slot >= 0 && !response.isError ()) {
+                response = __shm.putSlotData (slot, response);
+            }
+
+            __responses.add (new Response (response, timer));
+            __respondingConnections.add (this);
+            __key.selector ().wakeup ();
+        }
+
+
+        void transmit () throws IOException {
+            if (!__key.isValid ()) {
+                // connection closed due to a communication error
+                __discardResponses ();
+                return;
+            }
+
+            //
+            // Finish sending the current response (if any), and then send
+            // other responses that are ready, until there are no more
+            // responses, or until the socket stops accepting data.
+            //
+            boolean sent = (__sending == null) || __channel.flush ();
+            while (sent) {
+                if (__sending != null) {
+                    __responseSent (__sending);
                 }
+
+                __sending = __responses.poll ();
+                if (__sending == null) {
+                    break;
+                }
+
+                sent = __channel.sendMessage (__sending.message);
             }
+
+            __update ();
+        }
+
+
+        private void __responseSent (final Response response) {
+            __pendingCount--;
+
+            if (response.message.isError ()) {
+                //
+                // Stop receiving requests from the client after an error.
+                //
+                __receiving = false;
+
+            } else {
+                response.timer.mark (ElapsedTime.TRANSMIT);
+                __stats.update (response.timer);
+            }
+        }
+
+
+        private void __update () {
+            //
+            // Close the connection if we have stopped receiving requests and
+            // all the responses have been sent. Otherwise wait for requests
+            // and for the socket to accept the rest of the current response.
+            //
+            if (!__receiving && __pendingCount == 0) {
+                close ();
+
+            } else {
+                __key.interestOps (
+                    (__receiving ? SelectionKey.OP_READ : 0) |
+                    (__sending != null ? SelectionKey.OP_WRITE : 0)
+                );
+            }
+        }
+
+
+        void close () {
+            if (__key.isValid ()) {
+                __key.cancel ();
+                __closeSocket (__channel);
+
+                //
+                // Merge connection-local stats with global stats when closing
+                // the connection.
+                //
+                __globalStats.update (__stats);
+            }
+
+            __discardResponses ();
+        }
+
+
+        private void __discardResponses () {
+            //
+            // Responses cannot be sent over a closed connection. The
+            // connection still counts as open until the responses to all
+            // its requests have been discarded, so that the server does
+            // not shut down while the requests are being processed.
+            //
+            if (__sending != null) {
+                __sending = null;
+                __pendingCount--;
+            }
+
+            while (__responses.poll () != null) {
+                __pendingCount--;
+            }
+
+            if (__counted && __pendingCount == 0) {
+                __counted = false;
+                __connectionCount--;
+            }
+        }
+
+
+        boolean isIdle () {
+            return __channel.isIdle ();
         }
 
     }
 
+
+    private static IntervalTimer <ElapsedTime> __newTimer () {
+        final IntervalTimer <ElapsedTime> result = new IntervalTimer <ElapsedTime> (ElapsedTime.class);
+        result.reset ();
+        return result;
+    }
+
     //
 
     void run (
@@ -152,27 +402,71 @@ public final class DiSLServer {
         final ExecutorService executor,
         final RequestProcessor requestProcessor
     ) {
-        try {
-            final Thread serverThread = Thread.currentThread ();
+        try (
+            final Selector selector = Selector.open ();
+        ) {
+            serverSocket.configureBlocking (false);
+            serverSocket.register (selector, SelectionKey.OP_ACCEPT);
 
-            while (!serverThread.isInterrupted ()) {
-                final SocketChannel clientSocket = serverSocket.accept ();
-                clientSocket.setOption (StandardSocketOptions.TCP_NODELAY, true);
+            //
+            // Accept connections, receive requests, and send responses until
+            // there are no more connections left and we are not operating in
+            // continuous mode. The requests are processed by worker threads,
+            // which then hand the connections back to this thread.
+            //
+            while (true) {
+                selector.select ();
 
-                __log.debug (
-                    "connection from %s", clientSocket.getRemoteAddress ()
-                );
+                Connection responding;
+                while ((responding = __respondingConnections.poll ()) != null) {
+                    try {
+                        responding.transmit ();
 
-                // client socket handed off to connection handler
-                executor.submit (new ConnectionHandler (
-                    clientSocket, requestProcessor, serverThread
-                ));
-            }
+                    } catch (final IOException ioe) {
+                        __connectionFailed (responding, ioe);
+                    }
+                }
 
-        } catch (final ClosedByInterruptException cbie) {
-            //
-            // The server was interrupted, we are shutting down.
-            //
+                //
+
+                final Iterator <SelectionKey> keys = selector.selectedKeys ().iterator ();
+                while (keys.hasNext ()) {
+                    final SelectionKey key = keys.next ();
+                    keys.remove ();
+
+                    if (!key.isValid ()) {
+                        continue;
+
+                    } else if (key.isAcceptable ()) {
+                        __accept (serverSocket, selector);
+                        continue;
+                    }
+
+                    final Connection connection = (Connection) key.attachment ();
+
+                    try {
+                        if (key.isReadable ()) {
+                            connection.receive (executor, requestProcessor);
+
+                        } else if (key.isWritable ()) {
+                            connection.transmit ();
+                        }
+
+                    } catch (final IOException ioe) {
+                        __connectionFailed (connection, ioe);
+                    }
+                }
+
+                //
+                // If there are no more connections left and we are not
+                // operating in continuous mode, shut the server down.
+                // Connections with requests being processed still count
+                // as open, so there are no responses left to send.
+                //
+                if (__connectionCount == 0 && !continuous) {
+                    break;
+                }
+            }
 
         } catch (final IOException ioe) {
             //
@@ -188,6 +482,49 @@ public final class DiSLServer {
         __log.debug ("transmitting data took %d ms", __stats (ElapsedTime.TRANSMIT));
     }
 
+
+    private void __accept (
+        final ServerSocketChannel serverSocket, final Selector selector
+    ) throws IOException {
+        final SocketChannel clientSocket = serverSocket.accept ();
+        if (clientSocket == null) {
+            return;
+        }
+
+        clientSocket.setOption (StandardSocketOptions.TCP_NODELAY, true);
+        clientSocket.configureBlocking (false);
+
+        __log.debug (
+            "connection from %s", clientSocket.getRemoteAddress ()
+        );
+
+        final SelectionKey key = clientSocket.register (selector, SelectionKey.OP_READ);
+        key.attach (new Connection (clientSocket, key));
+        __connectionCount++;
+    }
+
+
+    private void __connectionFailed (
+        final Connection connection, final IOException ioe
+    ) {
+        if (ioe instanceof EOFException && connection.isIdle ()) {
+            //
+            // The client closed the connection between requests.
+            //
+            __log.debug ("connection closed by client");
+
+        } else {
+            //
+            // Communication error -- just log a message here.
+            //
+            __log.error (
+                "error communicating with client: %s", ioe.getMessage ()
+            );
+        }
+
+        connection.close ();
+    }
+
     private long __stats (final ElapsedTime et) {
         return TimeUnit.MILLISECONDS.convert (
             __globalStats.get (et), TimeUnit.NANOSECONDS
@@ -210,7 +547,9 @@ public final class DiSLServer {
         //
 
         final RequestProcessor processor = __getRequestProcessor ();
-        final ExecutorService executor = Executors.newCachedThreadPool ();
+        final ExecutorService executor = Executors.newFixedThreadPool (
+            Runtime.getRuntime ().availableProcessors ()
+        );
         final DiSLServer server = new DiSLServer ();
 
         __log.debug ("server started");
@@ -219,7 +558,7 @@ public final class DiSLServer {
         server.run (socket, executor, processor);
 
         __log.debug ("server shutting down");
-        executor.shutdown ();
+        __shutdown (executor);
         processor.terminate ();
         __closeSocket (socket);
 
@@ -228,6 +567,24 @@ public final class DiSLServer {
     }
 
 
+    private static void __shutdown (final ExecutorService executor) {
+        //
+        // Wait for the requests still being processed (if any) to finish,
+        // so that they do not use the request processor after termination.
+        //
+        executor.shutdown ();
+
+        try {
+            while (!executor.awaitTermination (1, TimeUnit.SECONDS)) {
+                __log.debug ("waiting for requests being processed");
+            }
+
+        } catch (final InterruptedException ie) {
+            Thread.currentThread ().interrupt ();
+        }
+    }
+
+
     private static void __serverStarting () {
         final File file = __getFileProperty (__PID_FILE__);
         if (file != null) {
@@ -0,0 +1,136 @@
+package ch.usi.dag.dislserver;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Keeps the results of recent class instrumentation requests in memory, so
+ * that classes loaded by multiple clients are only instrumented once.
+ * <p>
+ * The cache is bounded by the total size of the cached responses. When the
+ * bound is exceeded, the least recently used entries are evicted. Responses
+ * larger than the bound are not cached at all.
+ * <p>
+ * A single client hardly ever requests the same class twice, so the cache
+ * only pays off when multiple clients share a server running in continuous
+ * mode, and it is disabled unless its size is set.
+ */
+final class MemoryCache {
+
+    /**
+     * Approximate per-entry overhead of the key, the response, and the map
+     * entry, which is accounted for in addition to the response payload.
+     */
+    private static final int __ENTRY_OVERHEAD__ = 128;
+
+    //
+
+    private final long __capacity;
+
+    /** Entries in access order, guarded by {@code this}. */
+    private final LinkedHashMap <CacheKey, Message> __entries =
+        new LinkedHashMap <> (16, 0.75f, true /* access order */);
+
+    /** Total size of all entries, guarded by {@code this}. */
+    private long __size;
+
+    private long __hits;
+
+    private long __misses;
+
+    private long __evictions;
+
+    //
+
+    /**
+     * Creates an empty cache holding entries with the given total size.
+     *
+     * @param capacity the maximal total size of the entries in bytes
+     */
+    public MemoryCache (final long capacity) {
+        __capacity = capacity;
+    }
+
+    //
+
+    /**
+     * Looks up the response to a request with the given key and marks the
+     * entry as recently used.
+     *
+     * @return The cached response, or {@code null} if there is none.
+     */
+    public synchronized Message get (final CacheKey key) {
+        final Message result = __entries.get (key);
+        if (result != null) {
+            __hits++;
+        } else {
+            __misses++;
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Stores a response to a request with the given key, evicting the least
+     * recently used entries if necessary.
+     */
+    public synchronized void put (final CacheKey key, final Message response) {
+        final long weight = __weight (response);
+        if (weight > __capacity) {
+            return;
+        }
+
+        final Message previous = __entries.put (key, response);
+        if (previous != null) {
+            __size -= __weight (previous);
+        }
+
+        __size += weight;
+
+        //
+        // Evict the least recently used entries until the cache fits into
+        // its capacity. The iteration starts with the eldest entry, and
+        // the entry we have just inserted is the youngest one.
+        //
+        final Iterator <Map.Entry <CacheKey, Message>> entries =
+            __entries.entrySet ().iterator ();
+
+        while (__size > __capacity && entries.hasNext ()) {
+            final Message eldest = entries.next ().getValue ();
+            entries.remove ();
+
+            __size -= __weight (eldest);
+            __evictions++;
+        }
+    }
+
+
+    private static long __weight (final Message response) {
+        return response.payload ().remaining () + __ENTRY_OVERHEAD__;
+    }
+
+    //
+
+    public synchronized long hits () {
+        return __hits;
+    }
+
+
+    public synchronized long misses () {
+        return __misses;
+    }
+
+
+    public synchronized long evictions () {
+        return __evictions;
+    }
+
+
+    public synchronized long size () {
+        return __size;
+    }
+
+}
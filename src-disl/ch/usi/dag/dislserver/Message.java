@@ -1,24 +1,50 @@
 package ch.usi.dag.dislserver;
 
+import java.nio.ByteBuffer;
 
 
+/**
+ * A request or a response exchanged between the server and a client. The
+ * control and payload parts of a message are kept in byte buffers, which
+ * may be slices of a larger buffer holding the whole message, so that a
+ * received message can be decoded without copying.
+ */
 final class Message {
 
-    private static final byte [] __EMPTY_ARRAY__ = new byte [0];
+    private static final ByteBuffer __EMPTY_BUFFER__ = ByteBuffer.allocate (0);
+
+    private static final int __ERROR_FLAGS__ = -1;
+
+    /**
+     * Request flag indicating that the control part of the message contains
+     * the path to a {@link SharedMemory} region to attach to the connection.
+     */
+    public static final int SHM_ATTACH = 1 << 29;
+
+    /**
+     * Request and response flag indicating that the payload of the message
+     * is a descriptor of a {@link SharedMemory} slot holding the actual
+     * payload.
+     */
+    public static final int SHM_PAYLOAD = 1 << 30;
 
     //
 
+    private final int __requestId;
+
     private final int __flags;
 
-    private final byte [] __control;
+    private final ByteBuffer __control;
 
-    private final byte [] __payload;
+    private final ByteBuffer __payload;
 
     //
 
     public Message (
-        final int flags, final byte [] control, final byte [] payload
+        final int requestId, final int flags,
+        final ByteBuffer control, final ByteBuffer payload
     ) {
+        __requestId = requestId;
         __flags = flags;
         __control = control;
         __payload = payload;
@@ -26,24 +52,75 @@ final class Message {
 
     //
 
+    /**
+     * @return The identifier of the request this message belongs to. The
+     *         client chooses the identifier for a request, and the server
+     *         uses the same identifier for the corresponding response.
+     */
+    public int requestId () {
+        return __requestId;
+    }
+
+
     public int flags () {
         return __flags;
     }
 
 
-    public byte [] control () {
-        return __control;
+    /**
+     * @return A read-only view of the control part of the message.
+     */
+    public ByteBuffer control () {
+        return __control.asReadOnlyBuffer ();
     }
 
 
-    public byte [] payload () {
-        return __payload;
+    /**
+     * @return A read-only view of the payload part of the message.
+     */
+    public ByteBuffer payload () {
+        return __payload.asReadOnlyBuffer ();
+    }
+
+
+    /**
+     * Returns a view of the payload part of the message that provides
+     * access to the backing array (if there is one). This allows parsing
+     * the payload without copying it. The contents of the buffer must not
+     * be modified.
+     */
+    ByteBuffer payloadWithArray () {
+        return __payload.duplicate ();
     }
 
     //
 
     public boolean isShutdown () {
-        return (__control.length == 0) && (__payload.length == 0);
+        return !__control.hasRemaining () && !__payload.hasRemaining ();
+    }
+
+
+    public boolean isError () {
+        return __flags == __ERROR_FLAGS__;
+    }
+
+
+    public boolean hasFlag (final int flag) {
+        return !isError () && (__flags & flag) != 0;
+    }
+
+    //
+
+    /**
+     * Creates a copy of this message to be sent as a response to the given
+     * request. Responses can be created before the request is known, e.g.,
+     * when taken from a cache.
+     *
+     * @param request
+     *      the request to respond to.
+     */
+    public Message inResponseTo (final Message request) {
+        return new Message (request.__requestId, __flags, __control, __payload);
     }
 
     //
@@ -59,7 +136,20 @@ final class Message {
         // The flags are all reset, the control part of the network message
         // is empty, and the payload contains the modified class bytecode.
         //
-        return new Message (0, __EMPTY_ARRAY__, bytecode);
+        return createClassModifiedResponse (ByteBuffer.wrap (bytecode));
+    }
+
+
+    /**
+     * Creates a message containing a modified class bytecode.
+     *
+     * @param bytecode
+     *      a buffer with the bytecode of the modified class between its
+     *      position and limit. The contents of the buffer must not be
+     *      modified afterwards.
+     */
+    public static Message createClassModifiedResponse (final ByteBuffer bytecode) {
+        return new Message (0, 0, __EMPTY_BUFFER__, bytecode);
     }
 
 
@@ -71,7 +161,7 @@ final class Message {
         // The flags are all reset, and both the control part and the
         // payload parts of the network message are empty.
         //
-        return new Message (0, __EMPTY_ARRAY__, __EMPTY_ARRAY__);
+        return new Message (0, 0, __EMPTY_BUFFER__, __EMPTY_BUFFER__);
     }
 
     /**
@@ -82,7 +172,9 @@ final class Message {
         // The flags are all set, the control part of the network message
         // contains the error message, and the payload is empty.
         //
-        return new Message (-1, error.getBytes (), __EMPTY_ARRAY__);
+        return new Message (
+            0, __ERROR_FLAGS__, ByteBuffer.wrap (error.getBytes ()), __EMPTY_BUFFER__
+        );
     }
 
 }
@@ -1,20 +1,39 @@
 package ch.usi.dag.dislserver;
 
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.SocketChannel;
 
+
+/**
+ * Receives and sends messages over a non-blocking socket channel. Messages
+ * are decoded and encoded incrementally, as data becomes available or as the
+ * socket becomes ready for writing.
+ * <p>
+ * The body of each received message is read directly into a buffer
+ * allocated for that message. The control and payload parts of the message
+ * are slices of that buffer, so they are not copied again.
+ */
 final class MessageChannel implements Closeable {
 
+    private static final int __HEAD_LENGTH__ = 16;
+
+    /** The maximum length of the control and payload data of a message. */
+    private static final int __MAX_BODY_LENGTH__ = 256 * 1024 * 1024;
+
+    //
+
     private final SocketChannel __socket;
 
-    private final ByteBuffer __head = ByteBuffer.allocateDirect (12).order (ByteOrder.BIG_ENDIAN);
-    private ByteBuffer __body = ByteBuffer.allocateDirect (128 * 1024);
+    private final ByteBuffer __head = ByteBuffer.allocateDirect (__HEAD_LENGTH__).order (ByteOrder.BIG_ENDIAN);
+    private ByteBuffer __body;
 
+    private final ByteBuffer __sendHead = ByteBuffer.allocateDirect (__HEAD_LENGTH__).order (ByteOrder.BIG_ENDIAN);
     private final ByteBuffer [] __sendBuffers = new ByteBuffer [] {
-        __head, null, null
+        __sendHead, null, null
     };
 
     //
@@ -25,10 +44,20 @@ final class MessageChannel implements Closeable {
 
     //
 
+    /**
+     * Reads the data available in the socket and decodes a message if
+     * enough data has been received.
+     *
+     * @return The received message, or {@code null} if the message has not
+     *         been completely received yet.
+     * @throws EOFException
+     *         if the client has closed the connection
+     */
     public Message recvMessage () throws IOException {
         //
         // request protocol:
         //
+        // java int - request identifier
         // java int - request flags
         // java int - control data length (cdl)
         // java int - payload data length (pdl)
@@ -36,48 +65,94 @@ final class MessageChannel implements Closeable {
         // bytes[pdl] - payload data (contains class code)
         //
 
-        __head.rewind ();
+        if (__head.hasRemaining ()) {
+            __read (__head);
+            if (__head.hasRemaining ()) {
+                return null;
+            }
 
-        do {
-            __socket.read (__head);
-        } while (__head.hasRemaining ());
+            final int controlLength = __head.getInt (8);
+            final int payloadLength = __head.getInt (12);
+            __body = ByteBuffer.allocate (__bodyLength (controlLength, payloadLength));
+        }
 
         //
 
-        __head.rewind ();
-
-        final int flags = __head.getInt ();
-        final int controlLength = __head.getInt ();
-        final int payloadLength = __head.getInt ();
+        __read (__body);
+        if (__body.hasRemaining ()) {
+            return null;
+        }
 
         //
 
-        __ensureBodyCapacity (controlLength + payloadLength);
+        final int requestId = __head.getInt (0);
+        final int flags = __head.getInt (4);
+        final int controlLength = __head.getInt (8);
+        final int payloadLength = __head.getInt (12);
 
         __body.rewind ();
 
-        do {
-            __socket.read (__body);
-        } while (__body.hasRemaining ());
+        __body.limit (controlLength);
+        final ByteBuffer control = __body.slice ();
+
+        __body.limit (controlLength + payloadLength).position (controlLength);
+        final ByteBuffer payload = __body.slice ();
+
+        // prepare for the next message
+        __head.clear ();
+        __body = null;
+
+        return new Message (requestId, flags, control, payload);
+    }
+
 
+    private static int __bodyLength (
+        final int controlLength, final int payloadLength
+    ) throws IOException {
         //
+        // The lengths come from the client, so check them before allocating
+        // the buffer for the message body.
+        //
+        final long result = (long) controlLength + payloadLength;
+        if (controlLength < 0 || payloadLength < 0 || result > __MAX_BODY_LENGTH__) {
+            throw new IOException (String.format (
+                "invalid message length (control %d, payload %d)",
+                controlLength, payloadLength
+            ));
+        }
+
+        return (int) result;
+    }
 
-        __body.rewind ();
 
-        final byte [] control = new byte [controlLength];
-        __body.get (control);
+    private void __read (final ByteBuffer buffer) throws IOException {
+        if (buffer.hasRemaining () && __socket.read (buffer) < 0) {
+            throw new EOFException ("connection closed by client");
+        }
+    }
 
-        final byte [] payload = new byte [payloadLength];
-        __body.get (payload);
 
-        return new Message (flags, control, payload);
+    /**
+     * @return {@code true} if no part of a message has been received since
+     *         the last complete message.
+     */
+    public boolean isIdle () {
+        return __head.position () == 0;
     }
 
 
-    public void sendMessage (final Message message) throws IOException {
+    /**
+     * Starts sending a message, writing as much data as the socket accepts.
+     *
+     * @return {@code true} if the message has been completely sent,
+     *         {@code false} if the rest of the message needs to be sent
+     *         using {@link #flush()}.
+     */
+    public boolean sendMessage (final Message message) throws IOException {
         //
         // response protocol:
         //
+        // java int - request identifier
         // java int - response flags
         // java int - control data length (cdl)
         // java int - payload data length (pdl)
@@ -85,43 +160,44 @@ final class MessageChannel implements Closeable {
         // bytes[pdl] - payload data (instrumented class code)
         //
 
-        __head.rewind ();
-
-        __head.putInt (message.flags ());
+        __sendHead.clear ();
 
-        final int controlLength = message.control ().length;
-        __head.putInt (controlLength);
+        __sendHead.putInt (message.requestId ());
+        __sendHead.putInt (message.flags ());
 
-        final int payloadLength = message.payload ().length;
-        __head.putInt (payloadLength);
+        final ByteBuffer control = message.control ();
+        __sendHead.putInt (control.remaining ());
 
-        //
+        final ByteBuffer payload = message.payload ();
+        __sendHead.putInt (payload.remaining ());
 
-        __sendBuffers [1] = ByteBuffer.wrap (message.control ());
-        __sendBuffers [2] = ByteBuffer.wrap (message.payload ());
+        __sendHead.flip ();
 
         //
 
-        __head.rewind ();
+        __sendBuffers [1] = control;
+        __sendBuffers [2] = payload;
 
-        do {
-            __socket.write (__sendBuffers);
-        } while (__sendBuffers [2].hasRemaining ());
+        return flush ();
     }
 
 
-    private void __ensureBodyCapacity (final int length) {
-        if (__body.capacity () < length) {
-            __body = ByteBuffer.allocateDirect (__align (length, 12));
-        }
+    /**
+     * Continues sending a message, writing as much data as the socket
+     * accepts.
+     *
+     * @return {@code true} if the message has been completely sent.
+     */
+    public boolean flush () throws IOException {
+        __socket.write (__sendBuffers);
 
-        __body.limit (length);
-    }
+        for (final ByteBuffer buffer : __sendBuffers) {
+            if (buffer.hasRemaining ()) {
+                return false;
+            }
+        }
 
-    private static int __align (final int value, final int bits) {
-        final int mask = -1 << bits;
-        final int fill = (1 << bits) - 1;
-        return (value + fill) & mask;
+        return true;
     }
 
 
@@ -0,0 +1,207 @@
+package ch.usi.dag.dislserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ch.usi.dag.disl.util.Logging;
+import ch.usi.dag.util.logging.Logger;
+
+
+/**
+ * Stores the results of class instrumentation on disk, so that they can be
+ * reused by subsequent runs of the server.
+ * <p>
+ * The cache is content-addressed. Each entry is a file named after the
+ * {@link CacheKey} of the request, and stored in a sub-directory named after
+ * the fingerprint of the DiSL configuration, so that entries produced by a
+ * different instrumentation are never used. An entry file contains a single
+ * byte determining the kind of response, followed by the instrumented class
+ * bytes (if any). Entry files are read whole and served without further
+ * copying, and written atomically, so that multiple servers can share the
+ * cache directory.
+ * <p>
+ * The cache is best-effort: failure to read or write an entry is logged and
+ * treated as a cache miss.
+ */
+final class PersistentCache {
+
+    private static final Logger __log = Logging.getPackageInstance ();
+
+    //
+
+    private static final byte __NO_OPERATION__ = 0;
+
+    private static final byte __CLASS_MODIFIED__ = 1;
+
+    private static final String __TEMP_SUFFIX__ = ".tmp";
+
+    //
+
+    private final Path __directory;
+
+    private final AtomicLong __hits = new AtomicLong ();
+
+    private final AtomicLong __misses = new AtomicLong ();
+
+    //
+
+    private PersistentCache (final Path directory) {
+        __directory = directory;
+    }
+
+    //
+
+    /**
+     * Looks up the response to a request with the given key.
+     *
+     * @return The cached response, or {@code null} if there is none.
+     */
+    public Message get (final CacheKey key) {
+        final Path entry = __entryPath (key);
+
+        try {
+            final Message result = __decode (
+                ByteBuffer.wrap (Files.readAllBytes (entry))
+            );
+
+            if (result != null) {
+                __hits.incrementAndGet ();
+                return result;
+            }
+
+            __log.warn ("ignoring corrupted class cache entry %s", entry);
+
+        } catch (final NoSuchFileException nsfe) {
+            // plain cache miss
+
+        } catch (final IOException ioe) {
+            __log.warn (
+                "failed to read class cache entry %s: %s", entry, ioe.getMessage ()
+            );
+        }
+
+        __misses.incrementAndGet ();
+        return null;
+    }
+
+
+    private static Message __decode (final ByteBuffer buffer) {
+        if (!buffer.hasRemaining ()) {
+            return null;
+        }
+
+        final byte kind = buffer.get ();
+        if (kind == __NO_OPERATION__ && !buffer.hasRemaining ()) {
+            return Message.createNoOperationResponse ();
+
+        } else if (kind == __CLASS_MODIFIED__ && buffer.hasRemaining ()) {
+            // the entry bytes are not shared, so just use the rest of them
+            return Message.createClassModifiedResponse (buffer.slice ());
+
+        } else {
+            return null;
+        }
+    }
+
+
+    /**
+     * Stores a response to a request with the given key. Only responses
+     * indicating a modified or an unmodified class can be stored.
+     */
+    public void put (final CacheKey key, final Message response) {
+        final Path entry = __entryPath (key);
+
+        try {
+            //
+            // Write the entry into a temporary file first, and then move it
+            // to its final location, so that readers never see an incomplete
+            // entry.
+            //
+            final Path directory = entry.getParent ();
+            Files.createDirectories (directory);
+
+            final Path temp = Files.createTempFile (
+                directory, entry.getFileName ().toString (), __TEMP_SUFFIX__
+            );
+
+            try {
+                final ByteBuffer payload = response.payload ();
+                final byte kind = payload.hasRemaining () ?
+                    __CLASS_MODIFIED__ : __NO_OPERATION__;
+
+                try (
+                    final FileChannel channel = FileChannel.open (
+                        temp, StandardOpenOption.WRITE
+                    );
+                ) {
+                    final ByteBuffer [] buffers = new ByteBuffer [] {
+                        ByteBuffer.wrap (new byte [] { kind }), payload
+                    };
+
+                    do {
+                        channel.write (buffers);
+                    } while (buffers [1].hasRemaining ());
+                }
+
+                Files.move (temp, entry, StandardCopyOption.ATOMIC_MOVE);
+
+            } finally {
+                Files.deleteIfExists (temp);
+            }
+
+        } catch (final IOException ioe) {
+            __log.warn (
+                "failed to write class cache entry %s: %s", entry, ioe.getMessage ()
+            );
+        }
+    }
+
+
+    private Path __entryPath (final CacheKey key) {
+        //
+        // Spread the entries over sub-directories named after the first two
+        // hexadecimal digits of the key to keep the directories small.
+        //
+        final String name = key.toString ();
+        return __directory.resolve (name.substring (0, 2)).resolve (name);
+    }
+
+    //
+
+    public long hits () {
+        return __hits.get ();
+    }
+
+
+    public long misses () {
+        return __misses.get ();
+    }
+
+    //
+
+    /**
+     * Opens a class cache in the given directory for a DiSL configuration
+     * with the given fingerprint.
+     */
+    public static PersistentCache open (
+        final String path, final byte [] fingerprint
+    ) throws IOException {
+        final Path directory = Paths.get (path).resolve (
+            CacheKey.toHexString (fingerprint)
+        );
+
+        Files.createDirectories (directory);
+
+        __log.debug ("using class cache in %s", directory);
+        return new PersistentCache (directory);
+    }
+
+}
@@ -1,18 +1,28 @@
 package ch.usi.dag.dislserver;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.Set;
 import java.util.UUID;
 
 import ch.usi.dag.disl.DiSL;
 import ch.usi.dag.disl.DiSL.CodeOption;
 import ch.usi.dag.disl.exception.DiSLException;
+import ch.usi.dag.disl.util.ClassHierarchy;
 import ch.usi.dag.disl.util.Constants;
 import ch.usi.dag.disl.util.Logging;
 import ch.usi.dag.util.Strings;
@@ -28,21 +38,34 @@ final class RequestProcessor {
     private static final String uninstrPath = System.getProperty ("dislserver.uninstrumented");
     private static final String instrPath = System.getProperty ("dislserver.instrumented");
     private static final boolean disableBypass = Boolean.getBoolean ("dislserver.disablebypass");
+    private static final String cachePath = System.getProperty ("dislserver.cache");
+    private static final int memCacheSize = Integer.getInteger ("dislserver.memcache", 0);
+    private static final String hierarchyPath = System.getProperty ("dislserver.hierarchy");
 
     //
 
     private final DiSL __disl;
 
+    /** In-memory cache of instrumented classes, may be {@code null}. */
+    private final MemoryCache __memCache;
+
+    /** Persistent cache of instrumented classes, may be {@code null}. */
+    private final PersistentCache __cache;
+
     //
 
-    private RequestProcessor (final DiSL disl) {
+    private RequestProcessor (
+        final DiSL disl, final MemoryCache memCache, final PersistentCache cache
+    ) {
         __disl = disl;
+        __memCache = memCache;
+        __cache = cache;
     }
 
     //
 
     public Message process (final Message request) throws DiSLServerException {
-        final byte [] classBytes = request.payload ();
+        final ByteBuffer classBytes = request.payloadWithArray ();
         final String className = __getClassName (request.control (), classBytes);
         final Set <CodeOption> options = CodeOption.setOf (request.flags ());
 
@@ -50,7 +73,7 @@ final class RequestProcessor {
             __log.trace (
                 "instrumenting class %s [%d bytes, %s]",
                 className.isEmpty () ? "<unknown>" : className,
-                classBytes.length, Strings.join ("+", options)
+                classBytes.remaining (), Strings.join ("+", options)
             );
         }
 
@@ -65,22 +88,44 @@ final class RequestProcessor {
                 __dumpClass (className, classBytes, uninstrPath);
             }
 
-            // TODO: instrument the bytecode according to given options
-            // byte [] instrCode = disl.instrument (origCode, options);
-
-            final byte [] newClassBytes = __disl.instrument (classBytes);
+            //
+            // Record the superclass of every class passing through the server,
+            // even if the class is not going to be instrumented, so that the
+            // stack map frames of other classes can be computed precisely.
+            //
+            __disl.classHierarchy ().add (classBytes);
 
-            if (newClassBytes != null) {
-                if (instrPath != null) {
-                    __dumpClass (className, newClassBytes, instrPath);
+            //
+            // Look up the result in the in-memory cache first, then in the
+            // persistent cache, and only instrument the class if there is no
+            // cached result. Cache the result of a successful instrumentation.
+            //
+            final CacheKey key = (__memCache != null || __cache != null) ?
+                CacheKey.forRequest (request) : null;
+
+            Message response = (__memCache != null) ? __memCache.get (key) : null;
+            if (response == null) {
+                response = (__cache != null) ? __cache.get (key) : null;
+                if (response == null) {
+                    response = __instrument (classBytes, __effectiveOptions (options));
+
+                    if (__cache != null) {
+                        __cache.put (key, response);
+                    }
                 }
 
-                return Message.createClassModifiedResponse (newClassBytes);
+                if (__memCache != null) {
+                    __memCache.put (key, response);
+                }
+            }
 
-            } else {
-                return Message.createNoOperationResponse ();
+            final ByteBuffer newClassBytes = response.payload ();
+            if (newClassBytes.hasRemaining () && instrPath != null) {
+                __dumpClass (className, newClassBytes, instrPath);
             }
 
+            return response;
+
         } catch (final Exception e) {
             final String message = String.format (
                 "error instrumenting %s: %s", className, __getFullMessage (e)
@@ -93,6 +138,45 @@ final class RequestProcessor {
     }
 
 
+    private Message __instrument (
+        final ByteBuffer classBytes, final Set <CodeOption> options
+    ) throws DiSLException {
+        final byte [] newClassBytes = __disl.instrument (classBytes, options);
+
+        if (newClassBytes != null) {
+            return Message.createClassModifiedResponse (newClassBytes);
+        } else {
+            return Message.createNoOperationResponse ();
+        }
+    }
+
+
+    /**
+     * Determines the code options to instrument a class with. The bypass
+     * options follow the request, because the agent only asks for the bypass
+     * code while it is needed, e.g., while the JVM is bootstrapping. However,
+     * bypass code is never created if the server has the bypass disabled. The
+     * remaining options are configured on the server.
+     */
+    private Set <CodeOption> __effectiveOptions (
+        final Set <CodeOption> requested
+    ) {
+        final Set <CodeOption> result = __disl.codeOptions ();
+        for (final CodeOption option : __REQUEST_OPTIONS__) {
+            if (!requested.contains (option)) {
+                result.remove (option);
+            }
+        }
+
+        return result;
+    }
+
+    /** Code options the requests can turn off. */
+    private static final Set <CodeOption> __REQUEST_OPTIONS__ = CodeOption.setOf (
+        CodeOption.CREATE_BYPASS, CodeOption.DYNAMIC_BYPASS
+    );
+
+
     private static String __getFullMessage (final Throwable t) {
         final StringWriter result = new StringWriter ();
         t.printStackTrace (new PrintWriter (result));
@@ -101,15 +185,15 @@ final class RequestProcessor {
 
 
     private static String __getClassName (
-        final byte [] nameBytes, final byte [] codeBytes
+        final ByteBuffer nameBytes, final ByteBuffer codeBytes
     ) {
         String result = Strings.EMPTY_STRING;
-        if (nameBytes.length > 0) {
-            result = new String (nameBytes);
+        if (nameBytes.hasRemaining ()) {
+            result = StandardCharsets.UTF_8.decode (nameBytes).toString ();
         }
 
         if (result.isEmpty ()) {
-            result = __parseInternalClassName (codeBytes);
+            result = __parseInternalClassName (codeBytes.duplicate ());
             if (result == null || result.isEmpty ()) {
                 result = UUID.randomUUID ().toString ();
             }
@@ -119,7 +203,7 @@ final class RequestProcessor {
     }
 
 
-    private static String __parseInternalClassName (final byte [] byteCode) {
+    private static String __parseInternalClassName (final ByteBuffer byteCode) {
         final int CLASS_MAGIC = 0xCAFEBABE;
 
         final int TAG_CONSTANT_UTF8 = 1;
@@ -132,58 +216,54 @@ final class RequestProcessor {
 
         //
 
-        try (
-            final DataInputStream dis = new DataInputStream (
-                new ByteArrayInputStream (byteCode)
-            );
-        ) {
+        try {
             // verify magic field
-            if (dis.readInt () != CLASS_MAGIC) {
+            if (byteCode.getInt () != CLASS_MAGIC) {
                 throw new IOException ("invalid class file format");
             }
 
             // skip minor_version and major_version fields
-            dis.readUnsignedShort ();
-            dis.readUnsignedShort ();
+            __skip (byteCode, 4);
 
             //
-            // Scan the constant pool to pick up the UTF-8 strings and the
-            // class info references to those strings. Skip everything else.
-            // Valid index into the constant pool must be greater than 0.
+            // Scan the constant pool to pick up the positions of the UTF-8
+            // strings and the class info references to those strings. Skip
+            // everything else. Only the string holding the class name is
+            // decoded at the end. Valid index into the constant pool must be
+            // greater than 0.
             //
-            final int constantCount = dis.readUnsignedShort ();
+            final int constantCount = __getUnsignedShort (byteCode);
             final int [] classIndices = new int [constantCount];
-            final String [] utfStrings = new String [constantCount];
+            final int [] utfPositions = new int [constantCount];
 
             for (int poolIndex = 1; poolIndex < constantCount; poolIndex++) {
-                final int poolTag = dis.readUnsignedByte ();
+                final int poolTag = byteCode.get () & 0xFF;
 
                 switch (poolTag) {
                 case TAG_CONSTANT_UTF8:
-                    utfStrings [poolIndex] = dis.readUTF ();
+                    utfPositions [poolIndex] = byteCode.position ();
+                    __skip (byteCode, __getUnsignedShort (byteCode));
                     break;
 
                 case TAG_CONSTANT_CLASS:
-                    classIndices [poolIndex] = dis.readUnsignedShort ();
+                    classIndices [poolIndex] = __getUnsignedShort (byteCode);
                     break;
 
                 case TAG_CONSTANT_STRING:
                 case TAG_CONSTANT_METHOD_TYPE:
                     // string_index or descriptor_index
-                    dis.readUnsignedShort ();
+                    __skip (byteCode, 2);
                     break;
 
                 case TAG_CONSTANT_METHOD_HANDLE:
                     // reference_kind & reference_index
-                    dis.readUnsignedByte ();
-                    dis.readUnsignedShort ();
+                    __skip (byteCode, 3);
                     break;
 
                 case TAG_CONSTANT_LONG:
                 case TAG_CONSTANT_DOUBLE:
                     // high_bytes & low_bytes
-                    dis.readInt ();
-                    dis.readInt ();
+                    __skip (byteCode, 8);
 
                     // 64-bit values take up two constant pool slots
                     poolIndex++;
@@ -191,28 +271,73 @@ final class RequestProcessor {
 
                 default:
                     // all other constant structures fit into 4 bytes
-                    dis.skip (4);
+                    __skip (byteCode, 4);
                 }
             }
 
             // skip access_flags field
-            dis.readUnsignedShort ();
+            __skip (byteCode, 2);
 
             // get this_class constant pool index
-            final int thisClassIndex = dis.readUnsignedShort ();
+            final int thisClassIndex = __getUnsignedShort (byteCode);
 
             // resolve the (internal) class name
-            return utfStrings [classIndices [thisClassIndex]];
+            byteCode.position (utfPositions [classIndices [thisClassIndex]]);
+            return __getUTF (byteCode);
 
-        } catch (final IOException ioe) {
+        } catch (final IOException | RuntimeException e) {
             // failed to parse class name
             return null;
         }
     }
 
 
+    private static int __getUnsignedShort (final ByteBuffer buffer) {
+        return buffer.getShort () & 0xFFFF;
+    }
+
+
+    private static void __skip (final ByteBuffer buffer, final int length) {
+        buffer.position (buffer.position () + length);
+    }
+
+
+    /**
+     * Decodes a string in the modified UTF-8 format used in class files,
+     * starting with the two-byte length, just like
+     * {@link java.io.DataInput#readUTF()}.
+     */
+    private static String __getUTF (final ByteBuffer buffer) throws IOException {
+        final int length = __getUnsignedShort (buffer);
+        final char [] chars = new char [length];
+
+        int count = 0;
+        final int end = buffer.position () + length;
+        while (buffer.position () < end) {
+            final int first = buffer.get () & 0xFF;
+            if (first < 0x80) {
+                chars [count++] = (char) first;
+
+            } else if ((first & 0xE0) == 0xC0) {
+                final int second = buffer.get () & 0x3F;
+                chars [count++] = (char) (((first & 0x1F) << 6) | second);
+
+            } else if ((first & 0xF0) == 0xE0) {
+                final int second = buffer.get () & 0x3F;
+                final int third = buffer.get () & 0x3F;
+                chars [count++] = (char) (((first & 0x0F) << 12) | (second << 6) | third);
+
+            } else {
+                throw new IOException ("malformed UTF-8 string");
+            }
+        }
+
+        return new String (chars, 0, count);
+    }
+
+
     private static void __dumpClass (
-        final String className, final byte[] byteCode, final String path
+        final String className, final ByteBuffer byteCode, final String path
     ) throws IOException {
         // extract the class name and package name
         final int i = className.lastIndexOf (Constants.PACKAGE_INTERN_DELIM);
@@ -231,30 +356,143 @@ final class RequestProcessor {
                 pathWithPkg + simpleClassName + Constants.CLASS_EXT
             );
         ) {
-            fo.write(byteCode);
+            fo.getChannel ().write (byteCode.duplicate ());
         }
     }
 
     //
 
     public void terminate () {
+        if (__memCache != null) {
+            __log.debug (
+                "memory class cache: %d hits, %d misses, %d evictions, %d bytes",
+                __memCache.hits (), __memCache.misses (),
+                __memCache.evictions (), __memCache.size ()
+            );
+        }
+
+        if (__cache != null) {
+            __log.debug (
+                "class cache: %d hits, %d misses",
+                __cache.hits (), __cache.misses ()
+            );
+        }
+
+        if (hierarchyPath != null) {
+            __saveClassHierarchy (__disl.classHierarchy (), Paths.get (hierarchyPath));
+        }
+
         __disl.terminate ();
     }
 
+
+    /**
+     * Loads the class hierarchy saved by a previous run of the server. The
+     * hierarchy is best-effort, failure to load it is only logged.
+     */
+    private static void __loadClassHierarchy (
+        final ClassHierarchy hierarchy, final Path path
+    ) {
+        try (
+            final InputStream is = new BufferedInputStream (Files.newInputStream (path));
+        ) {
+            hierarchy.readFrom (is);
+            __log.debug ("loaded %d classes from class hierarchy %s", hierarchy.size (), path);
+
+        } catch (final NoSuchFileException nsfe) {
+            // no hierarchy saved yet
+
+        } catch (final IOException ioe) {
+            __log.warn ("failed to load class hierarchy %s: %s", path, ioe.getMessage ());
+        }
+    }
+
+
+    /**
+     * Saves the class hierarchy for the next run of the server. The file is
+     * replaced atomically, so that concurrently starting servers never see
+     * an incomplete hierarchy.
+     */
+    private static void __saveClassHierarchy (
+        final ClassHierarchy hierarchy, final Path path
+    ) {
+        try {
+            final Path directory = path.toAbsolutePath ().getParent ();
+            Files.createDirectories (directory);
+
+            final Path temp = Files.createTempFile (
+                directory, path.getFileName ().toString (), ".tmp"
+            );
+
+            try {
+                try (
+                    final OutputStream os = new BufferedOutputStream (
+                        Files.newOutputStream (temp)
+                    );
+                ) {
+                    hierarchy.writeTo (os);
+                }
+
+                Files.move (temp, path, StandardCopyOption.ATOMIC_MOVE);
+
+            } finally {
+                Files.deleteIfExists (temp);
+            }
+
+            __log.debug ("saved %d classes to class hierarchy %s", hierarchy.size (), path);
+
+        } catch (final IOException ioe) {
+            __log.warn ("failed to save class hierarchy %s: %s", path, ioe.getMessage ());
+        }
+    }
+
     //
 
+    private static PersistentCache __openPersistentCache (
+        final DiSL disl
+    ) throws IOException {
+        //
+        // Without a fingerprint of the configuration, the cache could return
+        // classes produced by a different instrumentation, or classes with
+        // unique identifiers assigned in a different run.
+        //
+        final byte [] fingerprint = disl.fingerprint ();
+        if (fingerprint == null) {
+            __log.warn ("persistent class cache disabled: DiSL configuration has no fingerprint");
+
+            return null;
+        }
+
+        return PersistentCache.open (cachePath, fingerprint);
+    }
+
+
     public static RequestProcessor newInstance () throws DiSLServerException {
         try {
-            // TODO LB: Configure bypass on a per-request basis.
+            // Disabling bypass on the server overrides the requests.
             if (disableBypass) {
                 System.setProperty ("disl.disablebypass", "true");
             }
 
             final DiSL disl = DiSL.init ();
-            return new RequestProcessor (disl);
+
+            if (hierarchyPath != null) {
+                __loadClassHierarchy (disl.classHierarchy (), Paths.get (hierarchyPath));
+            }
+
+            final MemoryCache memCache = (memCacheSize > 0) ?
+                new MemoryCache (memCacheSize * 1024L * 1024L) : null;
+
+            final PersistentCache cache = (cachePath != null) ?
+                __openPersistentCache (disl) : null;
+
+            return new RequestProcessor (disl, memCache, cache);
 
         } catch (final DiSLException de) {
             throw new DiSLServerException ("failed to initialize DiSL", de);
+
+        } catch (final IOException ioe) {
+            throw new DiSLServerException ("failed to open class cache", ioe);
         }
     }
 
@@ -0,0 +1,159 @@
+package ch.usi.dag.dislserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * A shared memory region set up by a client running on the same host as the
+ * server. The client creates a memory-mapped file divided into slots, and
+ * asks the server to map the same file. Instead of sending the class bytes
+ * over the socket, the client then puts the class bytes into a free slot and
+ * only sends a small descriptor identifying the slot. The server puts the
+ * instrumented class bytes into the same slot if they fit there.
+ * <p>
+ * The messages exchanged over the socket still serve as notifications, and
+ * the socket operations order the accesses to the slots. A slot belongs to
+ * a single request until the client receives the response.
+ * <p>
+ * The region starts with a header consisting of a magic number, the number
+ * of slots, and the size of a slot, each a 32-bit integer in the native byte
+ * order. The slots follow immediately after the header, which takes up the
+ * size of one slot.
+ */
+final class SharedMemory {
+
+    private static final int __MAGIC__ = 0xD15C5E11;
+
+    private static final int __DESCRIPTOR_LENGTH__ = 8;
+
+    //
+
+    private final MappedByteBuffer __region;
+
+    private final int __slotCount;
+
+    private final int __slotSize;
+
+    //
+
+    private SharedMemory (
+        final MappedByteBuffer region, final int slotCount, final int slotSize
+    ) {
+        __region = region;
+        __slotCount = slotCount;
+        __slotSize = slotSize;
+    }
+
+    //
+
+    /**
+     * Returns a view of the data in the slot referenced by the given
+     * descriptor.
+     *
+     * @param descriptor
+     *        the payload of a message carrying the slot index and the
+     *        length of the data in the slot
+     * @throws IOException
+     *         if the descriptor is malformed or references invalid data
+     */
+    public ByteBuffer slotData (final ByteBuffer descriptor) throws IOException {
+        if (descriptor.remaining () != __DESCRIPTOR_LENGTH__) {
+            throw new IOException ("malformed shared memory descriptor");
+        }
+
+        final int slot = descriptor.getInt (descriptor.position ());
+        final int length = descriptor.getInt (descriptor.position () + 4);
+        if (slot < 0 || slot >= __slotCount || length < 0 || length > __slotSize) {
+            throw new IOException (String.format (
+                "invalid shared memory slot %d or length %d", slot, length
+            ));
+        }
+
+        return __slice (slot, length);
+    }
+
+
+    /**
+     * Returns the index of the slot referenced by the given descriptor, which
+     * must have been validated by {@link #slotData(ByteBuffer)}.
+     */
+    public static int slotIndex (final ByteBuffer descriptor) {
+        return descriptor.getInt (descriptor.position ());
+    }
+
+
+    /**
+     * Puts the payload of the given response into the given slot, if the
+     * payload fits into the slot.
+     *
+     * @return A response with a descriptor of the slot as the payload and the
+     *         {@link Message#SHM_PAYLOAD} flag set, or the original response if
+     *         the payload does not fit into the slot.
+     */
+    public Message putSlotData (final int slot, final Message response) {
+        final ByteBuffer payload = response.payload ();
+        final int length = payload.remaining ();
+        if (length == 0 || length > __slotSize) {
+            return response;
+        }
+
+        __slice (slot, __slotSize).put (payload);
+
+        final ByteBuffer descriptor = ByteBuffer.allocate (__DESCRIPTOR_LENGTH__);
+        descriptor.putInt (0, slot).putInt (4, length);
+
+        return new Message (
+            response.requestId (), response.flags () | Message.SHM_PAYLOAD,
+            response.control (), descriptor
+        );
+    }
+
+
+    private ByteBuffer __slice (final int slot, final int length) {
+        // the header takes up the space of one slot
+        final int start = (slot + 1) * __slotSize;
+
+        final ByteBuffer result = __region.duplicate ();
+        result.limit (start + length).position (start);
+        return result.slice ();
+    }
+
+    //
+
+    /**
+     * Maps the shared memory region in the given file created by a client.
+     */
+    public static SharedMemory attach (final String path) throws IOException {
+        try (
+            final FileChannel channel = FileChannel.open (
+                Paths.get (path), StandardOpenOption.READ, StandardOpenOption.WRITE
+            );
+        ) {
+            final MappedByteBuffer region = channel.map (
+                MapMode.READ_WRITE, 0, channel.size ()
+            );
+
+            region.order (ByteOrder.nativeOrder ());
+
+            final int magic = region.getInt (0);
+            final int slotCount = region.getInt (4);
+            final int slotSize = region.getInt (8);
+
+            if (magic != __MAGIC__ || slotCount <= 0 || slotSize <= 0
+                || (slotCount + 1L) * slotSize > region.capacity ()
+            ) {
+                throw new IOException ("invalid shared memory region in "+ path);
+            }
+
+            return new SharedMemory (region, slotCount, slotSize);
+        }
+    }
+
+}
@@ -0,0 +1,234 @@
+package ch.usi.dag.disl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.CodeSizeEvaluator;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import ch.usi.dag.disl.util.ClassHierarchy;
+import ch.usi.dag.disl.util.ClassNodeHelper;
+
+public class MethodSplitterTest {
+
+    private static final String CLASS_NAME = "t/Generated";
+
+    private static final String METHOD_NAME = "compute";
+
+    private static final String METHOD_DESC = "(I)J";
+
+    private static final int BLOCKS = 60;
+
+    private static final int MAX_SIZE = 2000;
+
+    /**
+     * Generates a class with a static method computing a long value from an
+     * int argument. The method loops over the argument, and each iteration
+     * goes through many blocks with exception handlers, switches, and long,
+     * double, and float local variables.
+     */
+    private static ClassNode generate() {
+        ClassNode cn = new ClassNode(Opcodes.ASM5);
+        cn.visit(Opcodes.V1_7, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER,
+                CLASS_NAME, null, "java/lang/Object", null);
+
+        MethodVisitor mv = cn.visitMethod(
+                Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
+                METHOD_NAME, METHOD_DESC, null, null);
+        mv.visitCode();
+
+        // 0: n, 1: long acc, 3: double d, 5: float f, 6: int i
+        mv.visitInsn(Opcodes.LCONST_0);
+        mv.visitVarInsn(Opcodes.LSTORE, 1);
+        mv.visitInsn(Opcodes.DCONST_1);
+        mv.visitVarInsn(Opcodes.DSTORE, 3);
+        mv.visitInsn(Opcodes.FCONST_1);
+        mv.visitVarInsn(Opcodes.FSTORE, 5);
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitVarInsn(Opcodes.ISTORE, 6);
+
+        Label loop = new Label();
+        Label end = new Label();
+        mv.visitLabel(loop);
+        mv.visitVarInsn(Opcodes.ILOAD, 6);
+        mv.visitVarInsn(Opcodes.ILOAD, 0);
+        mv.visitJumpInsn(Opcodes.IF_ICMPGE, end);
+
+        for (int b = 0; b < BLOCKS; b++) {
+            generateDivision(mv, b);
+            generateSwitch(mv, b);
+        }
+
+        mv.visitIincInsn(6, 1);
+        mv.visitJumpInsn(Opcodes.GOTO, loop);
+
+        mv.visitLabel(end);
+        mv.visitVarInsn(Opcodes.LLOAD, 1);
+        mv.visitVarInsn(Opcodes.DLOAD, 3);
+        mv.visitInsn(Opcodes.D2L);
+        mv.visitInsn(Opcodes.LADD);
+        mv.visitVarInsn(Opcodes.FLOAD, 5);
+        mv.visitInsn(Opcodes.F2L);
+        mv.visitInsn(Opcodes.LADD);
+        mv.visitInsn(Opcodes.LRETURN);
+
+        mv.visitMaxs(8, 7);
+        mv.visitEnd();
+
+        cn.visitEnd();
+        return cn;
+    }
+
+    /** try { acc += 1000 / (i - b % 7); } catch (ArithmeticException e) { acc -= b; } */
+    private static void generateDivision(MethodVisitor mv, int b) {
+        Label start = new Label();
+        Label stop = new Label();
+        Label handler = new Label();
+        Label next = new Label();
+        mv.visitTryCatchBlock(start, stop, handler, "java/lang/ArithmeticException");
+
+        mv.visitLabel(start);
+        mv.visitVarInsn(Opcodes.LLOAD, 1);
+        mv.visitIntInsn(Opcodes.SIPUSH, 1000);
+        mv.visitVarInsn(Opcodes.ILOAD, 6);
+        mv.visitIntInsn(Opcodes.BIPUSH, b % 7);
+        mv.visitInsn(Opcodes.ISUB);
+        mv.visitInsn(Opcodes.IDIV);
+        mv.visitInsn(Opcodes.I2L);
+        mv.visitInsn(Opcodes.LADD);
+        mv.visitVarInsn(Opcodes.LSTORE, 1);
+        mv.visitLabel(stop);
+        mv.visitJumpInsn(Opcodes.GOTO, next);
+
+        mv.visitLabel(handler);
+        mv.visitInsn(Opcodes.POP);
+        mv.visitVarInsn(Opcodes.LLOAD, 1);
+        mv.visitIntInsn(Opcodes.BIPUSH, b);
+        mv.visitInsn(Opcodes.I2L);
+        mv.visitInsn(Opcodes.LSUB);
+        mv.visitVarInsn(Opcodes.LSTORE, 1);
+
+        mv.visitLabel(next);
+    }
+
+    /** switch ((i + b) & 3) { ... } updating the long, double, and float locals */
+    private static void generateSwitch(MethodVisitor mv, int b) {
+        Label c0 = new Label();
+        Label c1 = new Label();
+        Label c2 = new Label();
+        Label other = new Label();
+        Label after = new Label();
+
+        mv.visitVarInsn(Opcodes.ILOAD, 6);
+        mv.visitIntInsn(Opcodes.BIPUSH, b);
+        mv.visitInsn(Opcodes.IADD);
+        mv.visitInsn(Opcodes.ICONST_3);
+        mv.visitInsn(Opcodes.IAND);
+        mv.visitTableSwitchInsn(0, 2, other, c0, c1, c2);
+
+        mv.visitLabel(c0);
+        mv.visitVarInsn(Opcodes.DLOAD, 3);
+        mv.visitLdcInsn(Double.valueOf(1.5));
+        mv.visitInsn(Opcodes.DMUL);
+        mv.visitLdcInsn(Double.valueOf(1e6));
+        mv.visitInsn(Opcodes.DREM);
+        mv.visitVarInsn(Opcodes.DSTORE, 3);
+        mv.visitJumpInsn(Opcodes.GOTO, after);
+
+        mv.visitLabel(c1);
+        mv.visitVarInsn(Opcodes.FLOAD, 5);
+        mv.visitIntInsn(Opcodes.BIPUSH, b);
+        mv.visitInsn(Opcodes.I2F);
+        mv.visitInsn(Opcodes.FADD);
+        mv.visitVarInsn(Opcodes.FSTORE, 5);
+        mv.visitJumpInsn(Opcodes.GOTO, after);
+
+        mv.visitLabel(c2);
+        mv.visitVarInsn(Opcodes.LLOAD, 1);
+        mv.visitVarInsn(Opcodes.FLOAD, 5);
+        mv.visitInsn(Opcodes.F2L);
+        mv.visitInsn(Opcodes.LXOR);
+        mv.visitVarInsn(Opcodes.LSTORE, 1);
+        mv.visitJumpInsn(Opcodes.GOTO, after);
+
+        mv.visitLabel(other);
+        mv.visitVarInsn(Opcodes.LLOAD, 1);
+        mv.visitVarInsn(Opcodes.DLOAD, 3);
+        mv.visitInsn(Opcodes.D2L);
+        mv.visitInsn(Opcodes.LADD);
+        mv.visitVarInsn(Opcodes.LSTORE, 1);
+
+        mv.visitLabel(after);
+    }
+
+    private static MethodNode findMethod(ClassNode cn) {
+        for (MethodNode method : cn.methods) {
+            if (METHOD_NAME.equals(method.name) && METHOD_DESC.equals(method.desc)) {
+                return method;
+            }
+        }
+
+        throw new AssertionError("method not found");
+    }
+
+    private static int size(MethodNode method) {
+        CodeSizeEvaluator cse = new CodeSizeEvaluator(null);
+        method.accept(cse);
+        return cse.getMaxSize();
+    }
+
+    private static Method load(ClassNode cn) throws Exception {
+        byte[] bytes = ClassNodeHelper.marshal(cn);
+        Class<?> type = new ByteLoader().define(bytes);
+        return type.getMethod(METHOD_NAME, int.class);
+    }
+
+    private static final class ByteLoader extends ClassLoader {
+        ByteLoader() {
+            super(MethodSplitterTest.class.getClassLoader());
+        }
+
+        Class<?> define(byte[] bytes) {
+            return defineClass(null, bytes, 0, bytes.length);
+        }
+    }
+
+    @Test
+    public void testSplitMethodComputesSameResults() throws Exception {
+        ClassNode original = generate();
+        assertTrue(size(findMethod(original)) > MAX_SIZE);
+
+        ClassNode split = generate();
+        MethodNode method = findMethod(split);
+        List<MethodNode> helpers = MethodSplitter.split(split, method,
+                MAX_SIZE, new ClassHierarchy(), new AtomicInteger());
+
+        assertNotNull(helpers);
+        assertFalse(helpers.isEmpty());
+        assertTrue(size(method) <= MAX_SIZE);
+        for (MethodNode helper : helpers) {
+            assertTrue(size(helper) <= MAX_SIZE);
+        }
+
+        split.methods.addAll(helpers);
+
+        Method expected = load(original);
+        Method actual = load(split);
+        for (int n : new int[] { 0, 1, 2, 7, 13, 100, 1000 }) {
+            assertEquals("compute(" + n + ")",
+                    expected.invoke(null, n), actual.invoke(null, n));
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+package ch.usi.dag.disl.test.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+
+import ch.usi.dag.disl.util.ClassHierarchy;
+
+public class ClassHierarchyTest {
+
+    private static final String OBJECT = "java/lang/Object";
+
+    private static ClassHierarchy animals() {
+        ClassHierarchy hierarchy = new ClassHierarchy();
+        hierarchy.add("t/Animal", OBJECT, false);
+        hierarchy.add("t/Cat", "t/Animal", false);
+        hierarchy.add("t/Lion", "t/Cat", false);
+        hierarchy.add("t/Dog", "t/Animal", false);
+        hierarchy.add("t/Pet", OBJECT, true);
+        return hierarchy;
+    }
+
+    @Test
+    public void testCommonSuperClass() {
+        ClassHierarchy hierarchy = animals();
+        assertEquals("t/Animal", hierarchy.commonSuperClass("t/Lion", "t/Dog"));
+        assertEquals("t/Cat", hierarchy.commonSuperClass("t/Cat", "t/Lion"));
+        assertEquals("t/Cat", hierarchy.commonSuperClass("t/Lion", "t/Cat"));
+        assertEquals("t/Dog", hierarchy.commonSuperClass("t/Dog", "t/Dog"));
+    }
+
+    @Test
+    public void testInterfacesAndUnknownClasses() {
+        ClassHierarchy hierarchy = animals();
+        assertEquals(OBJECT, hierarchy.commonSuperClass("t/Pet", "t/Dog"));
+        assertNull(hierarchy.commonSuperClass("t/Dog", "t/Unknown"));
+        hierarchy.add("t/Puppy", "t/Unknown", false);
+        assertNull(hierarchy.commonSuperClass("t/Puppy", "t/Dog"));
+        hierarchy.add("t/Unknown", "t/Dog", false);
+        assertEquals("t/Dog", hierarchy.commonSuperClass("t/Puppy", "t/Dog"));
+    }
+
+    @Test
+    public void testConflictingClasses() {
+        ClassHierarchy hierarchy = animals();
+        hierarchy.add("t/Lion", "t/Cat", false);
+        assertEquals("t/Cat", hierarchy.commonSuperClass("t/Lion", "t/Cat"));
+        hierarchy.add("t/Lion", "t/Dog", false);
+        assertEquals(OBJECT, hierarchy.commonSuperClass("t/Lion", "t/Cat"));
+        assertEquals(OBJECT, hierarchy.commonSuperClass("t/Dog", "t/Lion"));
+        assertEquals("t/Lion", hierarchy.commonSuperClass("t/Lion", "t/Lion"));
+    }
+
+    @Test
+    public void testSystemClasses() throws IOException {
+        ClassHierarchy hierarchy = new ClassHierarchy();
+        // classes not added during this run are not looked up
+        assertNull(hierarchy.commonSuperClass(
+            "java/io/IOException", "java/lang/IllegalStateException"));
+
+        for (String name : new String[] {
+            "java.io.IOException", "java.lang.IllegalStateException",
+            "java.lang.RuntimeException", "java.lang.Exception",
+            "java.lang.Throwable"
+        }) {
+            hierarchy.add(new ClassReader(name));
+        }
+
+        assertEquals("java/lang/Exception", hierarchy.commonSuperClass(
+            "java/io/IOException", "java/lang/IllegalStateException"));
+        assertEquals(OBJECT, hierarchy.commonSuperClass(
+            "java/lang/Object", "java/lang/Throwable"));
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        animals().writeTo(bytes);
+
+        ClassHierarchy hierarchy = new ClassHierarchy();
+        hierarchy.add("t/Dog", "t/Cat", false);
+        hierarchy.readFrom(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertEquals(5, hierarchy.size());
+        // classes read may be stale, so they are not used until added again
+        assertNull(hierarchy.commonSuperClass("t/Lion", "t/Dog"));
+        hierarchy.add("t/Animal", OBJECT, false);
+        hierarchy.add("t/Cat", "t/Animal", false);
+        // classes added before reading are kept
+        assertEquals("t/Cat", hierarchy.commonSuperClass("t/Cat", "t/Dog"));
+        // classes added later replace the classes read
+        hierarchy.add("t/Lion", "t/Animal", false);
+        assertEquals("t/Animal", hierarchy.commonSuperClass("t/Lion", "t/Dog"));
+    }
+
+}
@@ -0,0 +1,83 @@
+package ch.usi.dag.disl.test.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import ch.usi.dag.disl.util.cfg.BasicBlock;
+import ch.usi.dag.disl.util.cfg.Dominators;
+import ch.usi.dag.disl.util.cfg.MethodAnalysis;
+
+public class DominatorsTest {
+
+    // for (int i = 0; i < 10; i++) { }
+    private static MethodNode loopMethod() {
+        MethodNode method = new MethodNode(
+            Opcodes.ACC_STATIC, "loop", "()V", null, null);
+
+        LabelNode head = new LabelNode();
+        LabelNode exit = new LabelNode();
+
+        method.instructions.add(new InsnNode(Opcodes.ICONST_0));
+        method.instructions.add(new VarInsnNode(Opcodes.ISTORE, 0));
+        method.instructions.add(head);
+        method.instructions.add(new VarInsnNode(Opcodes.ILOAD, 0));
+        method.instructions.add(new IntInsnNode(Opcodes.BIPUSH, 10));
+        method.instructions.add(new JumpInsnNode(Opcodes.IF_ICMPGE, exit));
+        method.instructions.add(new IincInsnNode(0, 1));
+        method.instructions.add(new JumpInsnNode(Opcodes.GOTO, head));
+        method.instructions.add(exit);
+        method.instructions.add(new InsnNode(Opcodes.RETURN));
+        return method;
+    }
+
+    @Test
+    public void testLoop() {
+        MethodAnalysis analysis = MethodAnalysis.of(loopMethod());
+        List<BasicBlock> blocks = analysis.controlFlowGraph().getNodes();
+        assertEquals(4, blocks.size());
+
+        BasicBlock entry = blocks.get(0);
+        BasicBlock head = blocks.get(1);
+        BasicBlock body = blocks.get(2);
+        BasicBlock exit = blocks.get(3);
+
+        Dominators dominators = analysis.dominators();
+        assertTrue(dominators.dominates(entry, exit));
+        assertTrue(dominators.dominates(head, body));
+        assertTrue(dominators.dominates(head, exit));
+        assertTrue(dominators.dominates(body, body));
+        assertFalse(dominators.dominates(body, head));
+        assertFalse(dominators.dominates(body, exit));
+        assertFalse(dominators.dominates(exit, entry));
+    }
+
+    @Test
+    public void testOpenAnalysisIsShared() {
+        MethodNode method = loopMethod();
+
+        MethodAnalysis analysis = MethodAnalysis.open(method);
+        try {
+            assertTrue(analysis == MethodAnalysis.of(method));
+            assertTrue(analysis.controlFlowGraph()
+                == MethodAnalysis.of(method).controlFlowGraph());
+        } finally {
+            analysis.close();
+        }
+
+        assertFalse(analysis == MethodAnalysis.of(method));
+    }
+
+}
@@ -0,0 +1,106 @@
+package ch.usi.dag.disl.test.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import ch.usi.dag.disl.util.AsmHelper.Insns;
+import ch.usi.dag.disl.weaver.pe.PartialEvaluator;
+
+public class PartialEvaluatorTest {
+
+    private static void evaluate(InsnList insns) {
+        new PartialEvaluator(insns, new ArrayList<TryCatchBlockNode>(),
+                "(I)V", Opcodes.ACC_STATIC).evaluate();
+    }
+
+    private static boolean containsStore(InsnList insns, int var) {
+        for (AbstractInsnNode insn : Insns.selectReal(insns)) {
+            if (insn.getOpcode() == Opcodes.ISTORE
+                    && ((VarInsnNode) insn).var == var) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Test
+    public void testDeadStoreChain() {
+        InsnList insns = new InsnList();
+        insns.add(new VarInsnNode(Opcodes.ILOAD, 0));
+        insns.add(new VarInsnNode(Opcodes.ISTORE, 1));
+        insns.add(new VarInsnNode(Opcodes.ILOAD, 1));
+        insns.add(new VarInsnNode(Opcodes.ISTORE, 2));
+
+        evaluate(insns);
+
+        int count = 0;
+        for (AbstractInsnNode insn : Insns.selectReal(insns)) {
+            count++;
+        }
+
+        assertEquals(0, count);
+    }
+
+    @Test
+    public void testStoreReadInDistantBlockIsKept() {
+        LabelNode first = new LabelNode();
+        LabelNode second = new LabelNode();
+
+        InsnList insns = new InsnList();
+        insns.add(new VarInsnNode(Opcodes.ILOAD, 0));
+        insns.add(new VarInsnNode(Opcodes.ISTORE, 1));
+        insns.add(new VarInsnNode(Opcodes.ILOAD, 0));
+        insns.add(new JumpInsnNode(Opcodes.IFEQ, first));
+        insns.add(new InsnNode(Opcodes.NOP));
+        insns.add(first);
+        insns.add(new VarInsnNode(Opcodes.ILOAD, 0));
+        insns.add(new JumpInsnNode(Opcodes.IFEQ, second));
+        insns.add(new InsnNode(Opcodes.NOP));
+        insns.add(second);
+        insns.add(new VarInsnNode(Opcodes.ILOAD, 1));
+        insns.add(new MethodInsnNode(Opcodes.INVOKESTATIC,
+                "java/lang/System", "exit", "(I)V", false));
+
+        evaluate(insns);
+
+        assertTrue(containsStore(insns, 1));
+    }
+
+    // for (int i = 0; i < arg; i++) { }
+    @Test(timeout = 10000)
+    public void testLoopAnalysisConverges() {
+        LabelNode head = new LabelNode();
+        LabelNode exit = new LabelNode();
+
+        InsnList insns = new InsnList();
+        insns.add(new InsnNode(Opcodes.ICONST_0));
+        insns.add(new VarInsnNode(Opcodes.ISTORE, 1));
+        insns.add(head);
+        insns.add(new VarInsnNode(Opcodes.ILOAD, 1));
+        insns.add(new VarInsnNode(Opcodes.ILOAD, 0));
+        insns.add(new JumpInsnNode(Opcodes.IF_ICMPGE, exit));
+        insns.add(new IincInsnNode(1, 1));
+        insns.add(new JumpInsnNode(Opcodes.GOTO, head));
+        insns.add(exit);
+
+        evaluate(insns);
+
+        assertTrue(containsStore(insns, 1));
+    }
+
+}
@@ -0,0 +1,65 @@
+package ch.usi.dag.disl.test.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import ch.usi.dag.disl.exception.ScopeParserException;
+import ch.usi.dag.disl.scope.Scope;
+import ch.usi.dag.disl.scope.ScopeImpl;
+import ch.usi.dag.disl.scope.ScopeIndex;
+
+public class ScopeIndexTest {
+
+    private static ScopeIndex<Scope> index(String... expressions)
+            throws ScopeParserException {
+        Scope[] scopes = new Scope[expressions.length];
+        for (int i = 0; i < expressions.length; i++) {
+            scopes[i] = new ScopeImpl(expressions[i]);
+        }
+
+        return new ScopeIndex<Scope>(Arrays.asList(scopes), new Function<Scope, Scope>() {
+            @Override
+            public Scope apply(Scope scope) {
+                return scope;
+            }
+        });
+    }
+
+    @Test
+    public void testCandidatesForClass()
+            throws ScopeParserException {
+        ScopeIndex<Scope> index = index(
+            "my.pkg.TargetClass.*", "my.pkg.*.method", "other.pkg.*.*", "TargetClass.*");
+
+        assertFalse(index.forClass("my/pkg/TargetClass").isEmpty());
+        assertFalse(index.forClass("your/pkg/TargetClass").isEmpty());
+        assertFalse(index.forClass("TargetClass").isEmpty());
+        assertTrue(index.forClass("your/pkg/OtherClass").isEmpty());
+        assertTrue(index.forClass("my/OtherClass").isEmpty());
+    }
+
+    @Test
+    public void testMatchingMethods()
+            throws ScopeParserException {
+        ScopeIndex<Scope> index = index(
+            "my.pkg.TargetClass.main", "my.pkg.*.method", "*.*(int)", "my.pkg.Other.*");
+
+        List<Scope> matching = index.forClass("my/pkg/TargetClass").matching("method", "(I)V");
+        assertEquals(2, matching.size());
+        assertEquals("r=null c=my.pkg.* m=method p=", matching.get(0).toString());
+
+        assertEquals(1, index.forClass("my/pkg/TargetClass").matching("main", "()V").size());
+        assertNull(index.forClass("my/pkg/TargetClass").firstMatching("other", "()V"));
+        assertEquals(Collections.emptyList(), index.forClass("TargetClass").matching("main", "()V"));
+    }
+
+}
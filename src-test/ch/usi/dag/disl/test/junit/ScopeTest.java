@@ -54,6 +54,17 @@ public class ScopeTest {
         assertTrue(s.toString(), s.matches("my/pkg/TargetClass", "method_init", "()V"));
     }
 
+    @Test
+    public void testMethodMultipleWildCards()
+            throws ScopeParserException {
+        Scope s = new ScopeImpl("my.pkg.TargetClass.get*Foo**Bar");
+        assertTrue(s.toString(), s.matches("my/pkg/TargetClass", "getFooBar", "()V"));
+        assertTrue(s.toString(), s.matches("my/pkg/TargetClass", "getXFooYBar", "()V"));
+        assertFalse(s.toString(), s.matches("my/pkg/TargetClass", "getBarFoo", "()V"));
+        assertFalse(s.toString(), s.matches("my/pkg/TargetClass", "getFooBa", "()V"));
+        assertFalse(s.toString(), s.matches("my/pkg/TargetClass", "getFoBar", "()V"));
+    }
+
     // return tests
 
     @Test
@@ -138,6 +149,14 @@ public class ScopeTest {
         assertFalse(s.toString(), s.matches("my/pkg/TargetClass", "method", "()V"));
     }
 
+    @Test
+    public void testClassStandardName()
+            throws ScopeParserException {
+        Scope s = new ScopeImpl("my.pkg.TargetClass.method");
+        assertTrue(s.toString(), s.matches("my.pkg.TargetClass", "method", "()V"));
+        assertFalse(s.toString(), s.matches("my.pkg.OtherClass", "method", "()V"));
+    }
+
     @Test
     public void testClassWildCard()
             throws ScopeParserException {
@@ -0,0 +1,60 @@
+package ch.usi.dag.dislserver;
+
+import static org.junit.Assert.assertFalse;
+
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class DiSLServerTest {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Test
+    public void testShutdownAfterPayloadWithoutSharedMemory() throws Exception {
+        final ServerSocketChannel serverSocket = ServerSocketChannel.open();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        Thread server = new Thread() {
+            @Override
+            public void run() {
+                // The request fails before reaching the request processor.
+                new DiSLServer().run(serverSocket, executor, null);
+            }
+        };
+
+        server.setDaemon(true);
+        server.start();
+
+        Socket client = new Socket();
+        try {
+            client.connect(serverSocket.getLocalAddress());
+
+            // Send a shared memory descriptor without attaching shared memory.
+            DataOutputStream out = new DataOutputStream(client.getOutputStream());
+            out.writeInt(1);
+            out.writeInt(Message.SHM_PAYLOAD);
+            out.writeInt(0);
+            out.writeInt(8);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.flush();
+
+            server.join(TIMEOUT_MILLIS);
+            assertFalse("server did not shut down", server.isAlive());
+
+        } finally {
+            client.close();
+            serverSocket.close();
+            executor.shutdownNow();
+        }
+    }
+
+}